@@ -0,0 +1,101 @@
+package acme.jolap.cache;
+
+import javax.olap.OLAPException;
+import javax.olap.query.querytransaction.QueryTransaction;
+import javax.olap.query.querytransaction.QueryTransactionManager;
+import java.util.Collection;
+
+/**
+ * A QueryTransactionManager that invalidates a QueryResultCache whenever a
+ * transaction is committed, so that no result computed before the commit is
+ * served after it. All other calls are delegated unchanged.
+ */
+public class CachingQueryTransactionManager implements QueryTransactionManager {
+    private final QueryTransactionManager delegate;
+    private final QueryResultCache<?> cache;
+
+    /**
+     * Wraps a QueryTransactionManager.
+     *
+     * @param delegate The QueryTransactionManager of the Connection.
+     * @param cache    The cache to invalidate on commit.
+     */
+    public CachingQueryTransactionManager(QueryTransactionManager delegate, QueryResultCache<?> cache) {
+        this.delegate = delegate;
+        this.cache = cache;
+    }
+
+    /**
+     * Gets the cache invalidated by this manager.
+     *
+     * @return The cache.
+     */
+    public QueryResultCache<?> getCache() {
+        return cache;
+    }
+
+    @Override
+    public void commitCurrentTransaction() throws OLAPException {
+        try {
+            delegate.commitCurrentTransaction();
+        } finally {
+            // A failed commit may have applied part of the changes.
+            cache.invalidateAll();
+        }
+    }
+
+    @Override
+    public Collection getQueryTransaction() throws OLAPException {
+        return delegate.getQueryTransaction();
+    }
+
+    @Override
+    public QueryTransaction getCurrentTransaction() throws OLAPException {
+        return delegate.getCurrentTransaction();
+    }
+
+    @Override
+    public void setCurrentTransaction(QueryTransaction value) throws OLAPException {
+        delegate.setCurrentTransaction(value);
+    }
+
+    @Override
+    public QueryTransaction beginRootTransaction() throws OLAPException {
+        return delegate.beginRootTransaction();
+    }
+
+    @Override
+    public QueryTransaction beginChildSubTransaction() throws OLAPException {
+        return delegate.beginChildSubTransaction();
+    }
+
+    @Override
+    public void prepareCurrentTransaction() throws OLAPException {
+        delegate.prepareCurrentTransaction();
+    }
+
+    @Override
+    public void rollbackCurrentTransaction() throws OLAPException {
+        delegate.rollbackCurrentTransaction();
+    }
+
+    @Override
+    public String getName() throws OLAPException {
+        return delegate.getName();
+    }
+
+    @Override
+    public void setName(String value) throws OLAPException {
+        delegate.setName(value);
+    }
+
+    @Override
+    public String getId() throws OLAPException {
+        return delegate.getId();
+    }
+
+    @Override
+    public void setId(String value) throws OLAPException {
+        delegate.setId(value);
+    }
+}
@@ -0,0 +1,289 @@
+package acme.jolap.cache;
+
+import javax.jmi.reflect.RefEnum;
+import javax.olap.OLAPException;
+import javax.olap.query.querycoremodel.CubeView;
+import javax.olap.query.querycoremodel.DimensionView;
+import javax.olap.query.querycoremodel.EdgeView;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The canonical structure of a CubeView, usable as a cache key.
+ * Two CubeView objects built separately with the same edges, DimensionViews,
+ * DimensionSteps, filters, sorts and calculated members have equal
+ * fingerprints.
+ * <p>
+ * The query objects are walked through the getters of their javax.olap.query
+ * interfaces. Ordered properties (List) keep their order; unordered
+ * properties (Collection) are compared as multisets, so their iteration
+ * order does not matter. Metadata objects, such as dimensions and members,
+ * and enumeration literals are compared with equals. Ids, cursors and
+ * transaction state are ignored, and a reference back to an enclosing query
+ * object is recorded by its distance up the path.
+ * <p>
+ * equals compares the whole structure, so a hash collision can only cost a
+ * cache miss, never a wrong result.
+ */
+public final class CubeViewFingerprint {
+    /**
+     * Getters that do not describe the query.
+     */
+    private static final Set<String> IGNORED = Set.of("getId", "getActiveIn", "getTransactionManager",
+            "getCubeCursor", "getEdgeCursor", "getDimensionCursor");
+
+    /**
+     * Getters that only describe where a DimensionView is placed.
+     */
+    private static final Set<String> LAYOUT = Set.of("getEdgeView");
+
+    private static final ClassValue<List<Method>> GETTERS = new ClassValue<>() {
+        @Override
+        protected List<Method> computeValue(Class<?> type) {
+            return gettersOf(type);
+        }
+    };
+
+    private static final ClassValue<List<String>> KINDS = new ClassValue<>() {
+        @Override
+        protected List<String> computeValue(Class<?> type) {
+            return queryInterfaces(type);
+        }
+    };
+
+    private final Object structure;
+    private final int hash;
+
+    private CubeViewFingerprint(Object structure) {
+        this.structure = structure;
+        hash = structure.hashCode();
+    }
+
+    /**
+     * Computes the fingerprint of a CubeView.
+     *
+     * @param cubeView The CubeView.
+     * @return The fingerprint.
+     * @throws OLAPException If the query model cannot be read.
+     */
+    public static CubeViewFingerprint of(CubeView cubeView) throws OLAPException {
+        return new CubeViewFingerprint(canonical(cubeView, new ArrayList<>(), Set.of()));
+    }
+
+    /**
+     * Computes the fingerprint of the data of a CubeView regardless of its
+     * layout: two CubeView objects that differ only by pivot or rotate, that
+     * is by which edge holds each DimensionView and in which order, have
+     * equal content fingerprints.
+     *
+     * @param cubeView The CubeView.
+     * @return The fingerprint, or null if an edge has filters, tuples or
+     *         calculated members, whose result depends on the layout.
+     * @throws OLAPException If the query model cannot be read.
+     */
+    public static CubeViewFingerprint contentOf(CubeView cubeView) throws OLAPException {
+        Map<Object, Integer> dimensionViews = new HashMap<>();
+        for (EdgeView edge : edgesOf(cubeView)) {
+            if (!isEmpty(edge.getEdgeFilter()) || !isEmpty(edge.getTuple()) || !isEmpty(edge.getCalculatedMember())) {
+                return null;
+            }
+            for (Object dimensionView : edge.getDimensionView()) {
+                dimensionViews.merge(canonical(dimensionView, new ArrayList<>(), LAYOUT), 1, Integer::sum);
+            }
+        }
+
+        List<Object> structure = Arrays.asList("content", cubeView.getName(),
+                canonical(cubeView.getCalculationRelationship(), false, new ArrayList<>(), LAYOUT), dimensionViews);
+        return new CubeViewFingerprint(structure);
+    }
+
+    /**
+     * Gets the layout of a CubeView: the dimensions of each ordinate edge,
+     * then of each page edge, outermost first.
+     *
+     * @param cubeView The CubeView.
+     * @return The Dimension of each DimensionView, per edge.
+     * @throws OLAPException If the query model cannot be read.
+     */
+    public static List<List<Object>> layoutOf(CubeView cubeView) throws OLAPException {
+        List<List<Object>> layout = new ArrayList<>();
+        for (EdgeView edge : edgesOf(cubeView)) {
+            List<Object> dimensions = new ArrayList<>();
+            for (Object dimensionView : edge.getDimensionView()) {
+                dimensions.add(((DimensionView) dimensionView).getDimension());
+            }
+            layout.add(dimensions);
+        }
+        return layout;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || (o instanceof CubeViewFingerprint other && hash == other.hash
+                && structure.equals(other.structure));
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return "CubeViewFingerprint[" + Integer.toHexString(hash) + "]";
+    }
+
+    private static Object canonical(Object value, List<Object> path, Set<String> skipped) throws OLAPException {
+        return canonical(value, value instanceof List, path, skipped);
+    }
+
+    /**
+     * Canonicalizes a value; a Collection is compared as a list if ordered,
+     * which for a property is decided by its declared type rather than by
+     * the class of the returned collection.
+     */
+    private static Object canonical(Object value, boolean ordered, List<Object> path, Set<String> skipped)
+            throws OLAPException {
+        if (value == null || value instanceof String || value instanceof Number || value instanceof Boolean
+                || value instanceof RefEnum) {
+            return value;
+        } else if (value instanceof List<?> list && ordered) {
+            List<Object> result = new ArrayList<>(list.size());
+            for (Object element : list) {
+                result.add(canonical(element, path, skipped));
+            }
+            return result;
+        } else if (value instanceof Collection<?> collection) {
+            // A multiset: equal regardless of iteration order.
+            Map<Object, Integer> result = new HashMap<>();
+            for (Object element : collection) {
+                result.merge(canonical(element, path, skipped), 1, Integer::sum);
+            }
+            return result;
+        } else if (!isQueryObject(value.getClass())) {
+            return value;
+        }
+
+        for (int i = path.size() - 1; i >= 0; i--) {
+            if (path.get(i) == value) {
+                return List.of("^", path.size() - i);
+            }
+        }
+
+        path.add(value);
+        List<Method> getters = GETTERS.get(value.getClass());
+        List<Object> result = new ArrayList<>(getters.size() * 2 + 1);
+        result.add(KINDS.get(value.getClass()));
+        for (Method getter : getters) {
+            if (skipped.contains(getter.getName())) {
+                continue;
+            }
+            result.add(getter.getName());
+            boolean list = List.class.isAssignableFrom(getter.getReturnType());
+            result.add(canonical(invoke(getter, value), list, path, skipped));
+        }
+        path.remove(path.size() - 1);
+        return result;
+    }
+
+    private static List<EdgeView> edgesOf(CubeView cubeView) throws OLAPException {
+        List<EdgeView> edges = new ArrayList<>();
+        for (Object edge : cubeView.getOrdinateEdge()) {
+            edges.add((EdgeView) edge);
+        }
+        for (Object edge : cubeView.getPageEdge()) {
+            edges.add((EdgeView) edge);
+        }
+        return edges;
+    }
+
+    private static boolean isEmpty(Collection<?> collection) {
+        return collection == null || collection.isEmpty();
+    }
+
+    private static Object invoke(Method getter, Object target) throws OLAPException {
+        try {
+            return getter.invoke(target);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof OLAPException cause) {
+                throw cause;
+            }
+            throw new OLAPException("Cannot read " + getter.getName() + ": " + e.getCause());
+        } catch (IllegalAccessException e) {
+            throw new OLAPException("Cannot read " + getter.getName() + ": " + e);
+        }
+    }
+
+    private static boolean isQueryObject(Class<?> type) {
+        return !KINDS.get(type).isEmpty();
+    }
+
+    /**
+     * Gets the names of the javax.olap.query interfaces of a class, which
+     * identify the kind of a query object independently of its
+     * implementation.
+     */
+    private static List<String> queryInterfaces(Class<?> type) {
+        Set<String> names = new LinkedHashSet<>();
+        collectInterfaces(type, names);
+        List<String> result = new ArrayList<>(names);
+        Collections.sort(result);
+        return List.copyOf(result);
+    }
+
+    private static void collectInterfaces(Class<?> type, Set<String> names) {
+        for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+            for (Class<?> i : c.getInterfaces()) {
+                if (i.getName().startsWith("javax.olap.query.")) {
+                    names.add(i.getName());
+                }
+                collectInterfaces(i, names);
+            }
+        }
+    }
+
+    private static List<Method> gettersOf(Class<?> type) {
+        Map<String, Method> getters = new HashMap<>();
+        Set<Class<?>> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<Class<?>> pending = new ArrayList<>(Arrays.asList(type.getInterfaces()));
+        for (Class<?> c = type.getSuperclass(); c != null; c = c.getSuperclass()) {
+            pending.addAll(Arrays.asList(c.getInterfaces()));
+        }
+
+        while (!pending.isEmpty()) {
+            Class<?> i = pending.remove(pending.size() - 1);
+            if (!seen.add(i)) {
+                continue;
+            }
+            pending.addAll(Arrays.asList(i.getInterfaces()));
+            if (!i.getName().startsWith("javax.olap.query.")) {
+                continue;
+            }
+
+            for (Method method : i.getMethods()) {
+                String name = method.getName();
+                if (method.getParameterCount() == 0 && !Modifier.isStatic(method.getModifiers())
+                        && method.getReturnType() != void.class && !IGNORED.contains(name)
+                        && (name.startsWith("get") || name.startsWith("is"))) {
+                    getters.putIfAbsent(name, method);
+                }
+            }
+        }
+
+        List<Method> result = new ArrayList<>(getters.values());
+        result.sort(Comparator.comparing(Method::getName));
+        return List.copyOf(result);
+    }
+}
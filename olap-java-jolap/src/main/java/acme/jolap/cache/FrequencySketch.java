@@ -0,0 +1,96 @@
+package acme.jolap.cache;
+
+/**
+ * An approximate count of how often keys were requested recently: a
+ * count-min sketch of 4-bit counters, halved after every sample period so
+ * that old popularity fades.
+ * Used by QueryResultCache as a TinyLFU admission filter.
+ * <p>
+ * This class is not thread safe.
+ */
+final class FrequencySketch {
+    private static final long[] SEEDS = {
+            0x9e3779b97f4a7c15L, 0xc2b2ae3d27d4eb4fL, 0x165667b19e3779f9L, 0xd6e8feb86659fd93L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    /**
+     * Sixteen 4-bit counters per long.
+     */
+    private final long[] table;
+    private final int mask;
+    private final int samplePeriod;
+    private int additions;
+
+    /**
+     * Creates a sketch sized for a cache.
+     *
+     * @param capacity The maximum number of entries of the cache.
+     */
+    FrequencySketch(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, Math.min(capacity, 1 << 24)) - 1) << 1;
+        table = new long[Math.max(size, 8)];
+        mask = table.length - 1;
+        samplePeriod = 10 * Math.max(capacity, 8);
+    }
+
+    /**
+     * Records a request for a key.
+     *
+     * @param hash The hash of the key.
+     */
+    void increment(int hash) {
+        boolean added = false;
+        for (int row = 0; row < SEEDS.length; row++) {
+            added |= incrementAt(index(hash, row), counter(hash, row));
+        }
+
+        if (added && ++additions == samplePeriod) {
+            reset();
+        }
+    }
+
+    /**
+     * Gets the estimated number of recent requests for a key.
+     *
+     * @param hash The hash of the key.
+     * @return The estimate, at most 15.
+     */
+    int frequency(int hash) {
+        int frequency = Integer.MAX_VALUE;
+        for (int row = 0; row < SEEDS.length; row++) {
+            long word = table[index(hash, row)];
+            frequency = Math.min(frequency, (int) ((word >>> (counter(hash, row) << 2)) & 0xf));
+        }
+        return frequency;
+    }
+
+    private boolean incrementAt(int i, int counter) {
+        int shift = counter << 2;
+        long bits = 0xfL << shift;
+        if ((table[i] & bits) != bits) {
+            table[i] += 1L << shift;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Halves every counter.
+     */
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions /= 2;
+    }
+
+    private int index(int hash, int row) {
+        long h = (hash + SEEDS[row]) * SEEDS[row];
+        h ^= h >>> 32;
+        return (int) h & mask;
+    }
+
+    private static int counter(int hash, int row) {
+        return ((hash >>> (row << 3)) + row) & 0xf;
+    }
+}
@@ -0,0 +1,106 @@
+package acme.jolap.cache;
+
+import acme.jolap.engine.CellBlock;
+
+import javax.olap.OLAPException;
+import javax.olap.query.querycoremodel.CubeView;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the CellBlock computed for a CubeView so that CubeView.pivot and
+ * CubeView.rotate, which only move DimensionViews between edges, are
+ * answered by re-arranging the cached block instead of running the filters
+ * and the aggregation again.
+ * Blocks are keyed by the content fingerprint of the CubeView, which is
+ * the same before and after a pivot; the current layout is applied to the
+ * cached block as a CellBlock.View.
+ * <p>
+ * CubeView objects whose edges have filters, tuples or calculated members
+ * are always loaded, since their result depends on the layout. The cache
+ * must be invalidated when the data changes. Instances are thread safe.
+ */
+public class PivotCache {
+    /**
+     * Computes the cells of a CubeView.
+     */
+    @FunctionalInterface
+    public interface Loader {
+        /**
+         * Computes the cells of a CubeView.
+         *
+         * @param cubeView The CubeView.
+         * @return The cells; the dimensions of the block are the Dimension
+         *         objects of the DimensionViews of the CubeView.
+         * @throws OLAPException If the query fails.
+         */
+        CellBlock load(CubeView cubeView) throws OLAPException;
+    }
+
+    private final int capacity;
+    private final Map<CubeViewFingerprint, CellBlock> blocks;
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param capacity The maximum number of blocks.
+     */
+    public PivotCache(int capacity) {
+        this.capacity = capacity;
+        blocks = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CubeViewFingerprint, CellBlock> eldest) {
+                return size() > PivotCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Gets the cells of a CubeView in its current layout, re-arranging a
+     * cached block if the CubeView only differs from a previous one by its
+     * layout.
+     *
+     * @param cubeView The CubeView.
+     * @param loader   The Loader that computes the cells on a miss.
+     * @return The cells arranged on the edges of the CubeView.
+     * @throws OLAPException If the CubeView cannot be read or the query fails.
+     */
+    public CellBlock.View get(CubeView cubeView, Loader loader) throws OLAPException {
+        CubeViewFingerprint key = CubeViewFingerprint.contentOf(cubeView);
+        List<List<Object>> layout = CubeViewFingerprint.layoutOf(cubeView);
+
+        CellBlock block = null;
+        if (key != null) {
+            synchronized (this) {
+                block = blocks.get(key);
+            }
+        }
+
+        if (block == null) {
+            block = loader.load(cubeView);
+            if (key != null) {
+                synchronized (this) {
+                    blocks.put(key, block);
+                }
+            }
+        }
+        return block.arrange(layout);
+    }
+
+    /**
+     * Discards all blocks.
+     */
+    public synchronized void invalidateAll() {
+        blocks.clear();
+    }
+
+    /**
+     * Gets the number of cached blocks.
+     *
+     * @return The number of blocks.
+     */
+    public synchronized int size() {
+        return blocks.size();
+    }
+}
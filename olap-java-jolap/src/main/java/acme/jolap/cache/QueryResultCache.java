@@ -0,0 +1,157 @@
+package acme.jolap.cache;
+
+import javax.olap.OLAPException;
+import javax.olap.query.querycoremodel.CubeView;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A size-bounded cache of query results, keyed by the CubeViewFingerprint
+ * of the CubeView that produced them, so that re-issuing the same CubeView
+ * definition is answered from memory.
+ * Entries are kept in LRU order. When the cache is full, a new result is
+ * only admitted if its CubeView was requested more often recently than the
+ * least recently used entry (TinyLFU), so a burst of one-off queries does
+ * not flush the popular dashboard queries.
+ * <p>
+ * The cache must be invalidated when the data or the query model changes;
+ * see CachingQueryTransactionManager. A result loaded while the cache is
+ * invalidated is not stored. Instances are thread safe.
+ *
+ * @param <V> The type of the results.
+ */
+public class QueryResultCache<V> {
+    /**
+     * Computes the result of a CubeView on a cache miss.
+     *
+     * @param <V> The type of the results.
+     */
+    @FunctionalInterface
+    public interface Loader<V> {
+        /**
+         * Computes the result of a CubeView.
+         *
+         * @param cubeView The CubeView.
+         * @return The result.
+         * @throws OLAPException If the query fails.
+         */
+        V load(CubeView cubeView) throws OLAPException;
+    }
+
+    private final int capacity;
+    private final LinkedHashMap<CubeViewFingerprint, V> entries;
+    private final FrequencySketch sketch;
+
+    private long generation;
+    private long hits;
+    private long misses;
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param capacity The maximum number of results.
+     */
+    public QueryResultCache(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The capacity must be positive: " + capacity);
+        }
+
+        this.capacity = capacity;
+        entries = new LinkedHashMap<>(16, 0.75f, true);
+        sketch = new FrequencySketch(capacity);
+    }
+
+    /**
+     * Gets the result of a CubeView, computing it on a cache miss.
+     *
+     * @param cubeView The CubeView.
+     * @param loader   The Loader that computes the result on a miss.
+     * @return The result.
+     * @throws OLAPException If the CubeView cannot be read or the query fails.
+     */
+    public V get(CubeView cubeView, Loader<V> loader) throws OLAPException {
+        CubeViewFingerprint key = CubeViewFingerprint.of(cubeView);
+        long loadGeneration;
+
+        synchronized (this) {
+            sketch.increment(key.hashCode());
+            V value = entries.get(key);
+            if (value != null) {
+                hits++;
+                return value;
+            }
+            misses++;
+            loadGeneration = generation;
+        }
+
+        V value = loader.load(cubeView);
+        if (value != null) {
+            synchronized (this) {
+                if (loadGeneration == generation) {
+                    admit(key, value);
+                }
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Gets a cached result without computing it.
+     *
+     * @param key The fingerprint of the CubeView.
+     * @return The result, or null if it is not cached.
+     */
+    public synchronized V getIfPresent(CubeViewFingerprint key) {
+        return entries.get(key);
+    }
+
+    /**
+     * Discards all results, and the results of loads in progress.
+     */
+    public synchronized void invalidateAll() {
+        generation++;
+        entries.clear();
+    }
+
+    /**
+     * Gets the number of cached results.
+     *
+     * @return The number of results.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Gets the number of lookups answered from the cache.
+     *
+     * @return The number of hits.
+     */
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * Gets the number of lookups that had to compute the result.
+     *
+     * @return The number of misses.
+     */
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    private void admit(CubeViewFingerprint key, V value) {
+        if (entries.containsKey(key) || entries.size() < capacity) {
+            entries.put(key, value);
+            return;
+        }
+
+        Iterator<Map.Entry<CubeViewFingerprint, V>> eldest = entries.entrySet().iterator();
+        CubeViewFingerprint victim = eldest.next().getKey();
+        if (sketch.frequency(key.hashCode()) > sketch.frequency(victim.hashCode())) {
+            eldest.remove();
+            entries.put(key, value);
+        }
+    }
+}
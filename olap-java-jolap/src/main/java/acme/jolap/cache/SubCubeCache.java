@@ -0,0 +1,383 @@
+package acme.jolap.cache;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A cache of computed cell blocks that answers a query from any cached
+ * block containing part of it, not only from an identical query.
+ * A block is a hyper-rectangle of cells: a list of measures and, for each
+ * dimension, a set of member ordinals. A request for one quarter of a year
+ * whose months are cached is sliced out of the cached block, and a request
+ * that overlaps cached blocks only sends its missing remainder to the
+ * engine or the server.
+ * <p>
+ * A request is answered by repeatedly taking a cached block that covers
+ * the remaining region on every dimension but at most one, copying the
+ * overlapping cells, and removing the overlapping members of that dimension
+ * from the remaining region, which therefore stays a hyper-rectangle.
+ * <p>
+ * Cells are laid out with the last dimension varying fastest; NaN is an
+ * empty cell. Member ordinals must be sorted and distinct, and every block
+ * and request must have the same number of dimensions. Blocks are
+ * evicted in LRU order when the total number of cached cells exceeds the
+ * capacity. Instances are thread safe.
+ */
+public class SubCubeCache {
+    /**
+     * The answer to a request: the cells found in the cache and the region
+     * still missing.
+     */
+    public static final class Answer {
+        private final int[][] selection;
+        private final double[][] values;
+        private final int[][] missing;
+
+        private Answer(int[][] selection, double[][] values, int[][] missing) {
+            this.selection = selection;
+            this.values = values;
+            this.missing = missing;
+        }
+
+        /**
+         * Specifies whether every cell was found in the cache.
+         *
+         * @return true if nothing is missing.
+         */
+        public boolean isComplete() {
+            return missing == null;
+        }
+
+        /**
+         * Gets the region that was not found in the cache.
+         *
+         * @return The member ordinals of each dimension, or null if the
+         *         answer is complete.
+         */
+        public int[][] getMissing() {
+            return missing;
+        }
+
+        /**
+         * Gets the cells of the request, NaN for the missing ones until
+         * {@link #fill} is called.
+         *
+         * @return The cells of each requested measure.
+         */
+        public double[][] getValues() {
+            return values;
+        }
+
+        /**
+         * Copies the cells computed for the missing region into the answer.
+         *
+         * @param missingValues The cells of each measure over the missing
+         *                      region.
+         */
+        public void fill(double[][] missingValues) {
+            if (missing == null) {
+                return;
+            }
+            copy(missing, missingValues, missing, selection, values);
+        }
+    }
+
+    private record Block(List<Object> measures, int[][] members, double[][] values) {
+        int cells() {
+            return values.length == 0 ? 0 : values[0].length * values.length;
+        }
+    }
+
+    private final long capacity;
+    private final LinkedHashMap<Long, Block> blocks = new LinkedHashMap<>(16, 0.75f, true);
+    private long cells;
+    private long nextId;
+
+    /**
+     * The number of dimensions of the cached blocks, or -1 before the first
+     * block is added.
+     */
+    private int dimensionCount = -1;
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param capacity The maximum total number of cached cells.
+     */
+    public SubCubeCache(long capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Adds a computed block.
+     *
+     * @param measures The measures of the block.
+     * @param members  The member ordinals of each dimension.
+     * @param values   The cells of each measure.
+     * @throws IllegalArgumentException If the block does not have the number
+     *                                  of dimensions of the cached blocks,
+     *                                  or if its cells do not match its
+     *                                  measures and members.
+     */
+    public synchronized void put(List<?> measures, int[][] members, double[][] values) {
+        checkDimensions(members);
+        int size = cellCount(members);
+        if (values.length != measures.size()) {
+            throw new IllegalArgumentException("Expected the cells of " + measures.size() + " measures");
+        }
+        for (double[] measure : values) {
+            if (measure.length != size) {
+                throw new IllegalArgumentException("Expected " + size + " cells per measure");
+            }
+        }
+
+        Block block = new Block(List.copyOf(measures), deepCopy(members), deepCopy(values));
+        if (block.cells() > capacity) {
+            return;
+        }
+
+        dimensionCount = members.length;
+        blocks.put(nextId++, block);
+        cells += block.cells();
+        Iterator<Block> eldest = blocks.values().iterator();
+        while (cells > capacity) {
+            cells -= eldest.next().cells();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Answers a request from the cached blocks.
+     *
+     * @param measures  The requested measures.
+     * @param selection The requested member ordinals of each dimension.
+     * @return The answer.
+     * @throws IllegalArgumentException If the request does not have the
+     *                                  number of dimensions of the cached
+     *                                  blocks.
+     */
+    public synchronized Answer get(List<?> measures, int[][] selection) {
+        checkDimensions(selection);
+        int size = cellCount(selection);
+        double[][] values = new double[measures.size()][size];
+        for (double[] measure : values) {
+            Arrays.fill(measure, Double.NaN);
+        }
+
+        int[][] remaining = deepCopy(selection);
+        while (!isEmpty(remaining)) {
+            Map.Entry<Long, Block> best = null;
+            int bestDimension = -1;
+            int[] bestOverlap = null;
+
+            for (Map.Entry<Long, Block> entry : blocks.entrySet()) {
+                Block block = entry.getValue();
+                if (!block.measures.containsAll(measures)) {
+                    continue;
+                }
+
+                int partial = -1;
+                int[] overlap = null;
+                boolean usable = true;
+                for (int d = 0; d < remaining.length && usable; d++) {
+                    int[] common = intersect(remaining[d], block.members[d]);
+                    if (common.length < remaining[d].length) {
+                        usable = partial < 0 && common.length > 0;
+                        partial = d;
+                        overlap = common;
+                    }
+                }
+
+                if (usable && (partial < 0 || best == null || overlap.length > bestOverlap.length)) {
+                    best = entry;
+                    bestDimension = partial;
+                    bestOverlap = overlap;
+                    if (partial < 0) {
+                        break;
+                    }
+                }
+            }
+
+            if (best == null) {
+                break;
+            }
+            // Touch the block for LRU order.
+            Block block = blocks.get(best.getKey());
+
+            int[][] region = remaining.clone();
+            if (bestDimension >= 0) {
+                region[bestDimension] = bestOverlap;
+            }
+            double[][] source = new double[measures.size()][];
+            for (int m = 0; m < source.length; m++) {
+                source[m] = block.values[block.measures.indexOf(measures.get(m))];
+            }
+            copy(region, source, block.members, selection, values);
+
+            if (bestDimension < 0) {
+                remaining = null;
+                break;
+            }
+            remaining[bestDimension] = difference(remaining[bestDimension], bestOverlap);
+        }
+
+        return new Answer(selection, values, (remaining == null || isEmpty(remaining)) ? null : remaining);
+    }
+
+    /**
+     * Discards all blocks.
+     */
+    public synchronized void invalidateAll() {
+        blocks.clear();
+        cells = 0;
+        dimensionCount = -1;
+    }
+
+    /**
+     * Gets the number of cached blocks.
+     *
+     * @return The number of blocks.
+     */
+    public synchronized int size() {
+        return blocks.size();
+    }
+
+    /**
+     * Copies the cells of a region from a source block layout to a target
+     * block layout. The region must be contained in both.
+     */
+    private static void copy(int[][] region, double[][] source, int[][] sourceMembers, int[][] targetMembers,
+                             double[][] target) {
+        int dims = region.length;
+        if (isEmpty(region)) {
+            return;
+        }
+
+        // The offset contributed by each member of the region in each layout.
+        int[][] sourceOffsets = offsets(region, sourceMembers);
+        int[][] targetOffsets = offsets(region, targetMembers);
+
+        int[] position = new int[dims];
+        int sourceCell = 0;
+        int targetCell = 0;
+        for (int d = 0; d < dims; d++) {
+            sourceCell += sourceOffsets[d][0];
+            targetCell += targetOffsets[d][0];
+        }
+
+        while (true) {
+            for (int m = 0; m < target.length; m++) {
+                target[m][targetCell] = source[m][sourceCell];
+            }
+
+            // Advance the odometer, last dimension fastest.
+            int d = dims - 1;
+            while (d >= 0 && position[d] == region[d].length - 1) {
+                sourceCell -= sourceOffsets[d][position[d]] - sourceOffsets[d][0];
+                targetCell -= targetOffsets[d][position[d]] - targetOffsets[d][0];
+                position[d] = 0;
+                d--;
+            }
+            if (d < 0) {
+                return;
+            }
+            sourceCell += sourceOffsets[d][position[d] + 1] - sourceOffsets[d][position[d]];
+            targetCell += targetOffsets[d][position[d] + 1] - targetOffsets[d][position[d]];
+            position[d]++;
+        }
+    }
+
+    private static int[][] offsets(int[][] region, int[][] layout) {
+        int[][] offsets = new int[region.length][];
+        int stride = 1;
+        for (int d = region.length - 1; d >= 0; d--) {
+            offsets[d] = new int[region[d].length];
+            for (int i = 0; i < region[d].length; i++) {
+                offsets[d][i] = Arrays.binarySearch(layout[d], region[d][i]) * stride;
+            }
+            stride *= layout[d].length;
+        }
+        return offsets;
+    }
+
+    private void checkDimensions(int[][] members) {
+        if (dimensionCount >= 0 && members.length != dimensionCount) {
+            throw new IllegalArgumentException("Expected " + dimensionCount + " dimensions, not " + members.length);
+        }
+    }
+
+    private static int cellCount(int[][] members) {
+        long count = 1;
+        for (int[] dimension : members) {
+            for (int i = 1; i < dimension.length; i++) {
+                if (dimension[i] <= dimension[i - 1]) {
+                    throw new IllegalArgumentException("Member ordinals must be sorted and distinct");
+                }
+            }
+            count *= dimension.length;
+            if (count > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Too many cells: " + count);
+            }
+        }
+        return (int) count;
+    }
+
+    private static boolean isEmpty(int[][] region) {
+        for (int[] dimension : region) {
+            if (dimension.length == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int count = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[count++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private static int[] difference(int[] a, int[] b) {
+        int[] result = new int[a.length];
+        int count = 0;
+        for (int i = 0, j = 0; i < a.length; i++) {
+            while (j < b.length && b[j] < a[i]) {
+                j++;
+            }
+            if (j == b.length || b[j] != a[i]) {
+                result[count++] = a[i];
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private static int[][] deepCopy(int[][] a) {
+        int[][] copy = new int[a.length][];
+        for (int i = 0; i < a.length; i++) {
+            copy[i] = a[i].clone();
+        }
+        return copy;
+    }
+
+    private static double[][] deepCopy(double[][] a) {
+        double[][] copy = new double[a.length][];
+        for (int i = 0; i < a.length; i++) {
+            copy[i] = a[i].clone();
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,202 @@
+package acme.jolap.cursor;
+
+import javax.olap.OLAPException;
+import javax.olap.cursor.RowDataAccessor;
+import javax.olap.cursor.RowDataNavigation;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Streams the rows of a JOLAP cursor, such as a DimensionCursor, to a
+ * Flow.Subscriber in batches, reading only as many rows as the subscriber
+ * requested.
+ * Each element is a batch of at most batchSize rows, and the fetch size of
+ * the cursor is set to batchSize, so request(n) fetches n blocks. A row holds
+ * the values of the columns of the cursor, from getObject(1) to
+ * getObject(getColumnCount()).
+ * <p>
+ * Rows are read from the current position of the cursor, which is moved
+ * with next. The cursor is closed when the rows are exhausted, the
+ * subscription is cancelled or reading fails. A RowPublisher can be
+ * subscribed to once. Rows are read on the specified Executor.
+ * <p>
+ * Instances are thread safe.
+ */
+public class RowPublisher implements Flow.Publisher<List<Object[]>> {
+    private final RowDataNavigation navigation;
+    private final RowDataAccessor accessor;
+    private final int batchSize;
+    private final Executor executor;
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+    /**
+     * Creates a publisher.
+     *
+     * @param cursor    The cursor.
+     * @param batchSize The maximum number of rows of a batch.
+     * @param executor  The Executor on which rows are read.
+     * @param <C>       The type of the cursor.
+     */
+    public <C extends RowDataNavigation & RowDataAccessor> RowPublisher(C cursor, int batchSize, Executor executor) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+        navigation = cursor;
+        accessor = cursor;
+        this.batchSize = batchSize;
+        this.executor = executor;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super List<Object[]>> subscriber) {
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("A RowPublisher can be subscribed to once"));
+            return;
+        }
+        subscriber.onSubscribe(new RowSubscription(subscriber));
+    }
+
+    /**
+     * Reads batches on the Executor while there is demand. At most one drain
+     * loop runs at a time; request and cancel only record their effect and
+     * schedule a drain.
+     */
+    private final class RowSubscription implements Flow.Subscription, Runnable {
+        private final Flow.Subscriber<? super List<Object[]>> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger pending = new AtomicInteger();
+        private volatile boolean cancelled;
+        private volatile Throwable invalidRequest;
+
+        private int columnCount = -1;
+        private boolean done;
+
+        RowSubscription(Flow.Subscriber<? super List<Object[]>> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                invalidRequest = new IllegalArgumentException("The number of requested batches must be positive");
+            } else {
+                demand.getAndAccumulate(n, (a, b) -> (a + b < 0) ? Long.MAX_VALUE : a + b);
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            schedule();
+        }
+
+        private void schedule() {
+            if (pending.getAndIncrement() == 0) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    // No drain runs, and none will: the Executor is shut down.
+                    if (!done) {
+                        finish();
+                        subscriber.onError(e);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                try {
+                    drain();
+                } catch (RuntimeException e) {
+                    // Thrown by the subscriber, which must not be signalled
+                    // again; the subscription is cancelled.
+                    finish();
+                    throw e;
+                }
+                missed = pending.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void drain() {
+            if (done) {
+                return;
+            }
+            if (cancelled) {
+                finish();
+                return;
+            }
+            if (invalidRequest != null) {
+                finish();
+                subscriber.onError(invalidRequest);
+                return;
+            }
+
+            while (demand.get() > 0 && !cancelled) {
+                List<Object[]> batch;
+                boolean more;
+                try {
+                    if (columnCount < 0) {
+                        navigation.setFetchSize(batchSize);
+                        columnCount = accessor.getMetaData().getColumnCount();
+                    }
+
+                    batch = new ArrayList<>(batchSize);
+                    more = true;
+                    while (batch.size() < batchSize && (more = navigation.next())) {
+                        Object[] row = new Object[columnCount];
+                        for (int c = 0; c < columnCount; c++) {
+                            row[c] = accessor.getObject(c + 1);
+                        }
+                        batch.add(row);
+                    }
+                } catch (OLAPException | RuntimeException e) {
+                    finish();
+                    subscriber.onError(e);
+                    return;
+                }
+
+                if (!batch.isEmpty()) {
+                    demand.decrementAndGet();
+                    subscriber.onNext(Collections.unmodifiableList(batch));
+                }
+                if (!more) {
+                    finish();
+                    subscriber.onComplete();
+                    return;
+                }
+            }
+            if (cancelled) {
+                finish();
+            }
+        }
+
+        private void finish() {
+            done = true;
+            try {
+                navigation.close();
+            } catch (OLAPException e) {
+                // Ignore; the stream is over.
+            }
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package acme.jolap.engine;
+
+import javax.olap.query.enumerations.OperatorType;
+import javax.olap.query.enumerations.OperatorTypeEnum;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A secondary index on the values of one attribute of the members of a
+ * dimension.
+ * A hash index answers EQ and NE; a sorted index answers LT, LE, GT and GE
+ * with two binary searches. Both return the matching members as an
+ * OrdinalBitmap, so an AttributeFilter costs an index lookup instead of a
+ * scan of the dimension.
+ * <p>
+ * Members whose value is null match no operator, as in SQL. Numbers of
+ * different types compare by exact numeric value, in the hash index as in
+ * the sorted index; a right-hand side that cannot be compared with the
+ * values is rejected.
+ * <p>
+ * The hash index is maintained on each update; the sorted index is rebuilt
+ * on the first range lookup after an update. Access must be synchronized
+ * externally if the index is updated while it is read.
+ */
+public final class AttributeIndex {
+    private Object[] values;
+
+    private final Map<Object, OrdinalBitmap> hashIndex = new HashMap<>();
+    private OrdinalBitmap nonNull = new OrdinalBitmap();
+
+    /**
+     * The ordinals of the members with a non-null value, sorted by value,
+     * or null if the sorted index must be rebuilt.
+     */
+    private int[] sorted;
+
+    /**
+     * Creates an index on the specified values.
+     *
+     * @param values The value of the attribute for each member ordinal.
+     */
+    public AttributeIndex(Object[] values) {
+        this.values = values.clone();
+
+        for (int member = 0; member < this.values.length; member++) {
+            if (this.values[member] != null) {
+                hashIndex.computeIfAbsent(hashKey(this.values[member]), key -> new OrdinalBitmap()).add(member);
+                nonNull.add(member);
+            }
+        }
+    }
+
+    /**
+     * Gets the number of members covered by the index.
+     *
+     * @return The number of members.
+     */
+    public int size() {
+        return values.length;
+    }
+
+    /**
+     * Gets the value of the attribute for a member.
+     *
+     * @param member The ordinal of the member.
+     * @return The value.
+     */
+    public Object getValue(int member) {
+        return values[member];
+    }
+
+    /**
+     * Changes the value of the attribute for a member, or adds a member.
+     *
+     * @param member The ordinal of the member.
+     * @param value  The new value, or null.
+     */
+    public void update(int member, Object value) {
+        if (member >= values.length) {
+            values = Arrays.copyOf(values, Math.max(member + 1, values.length * 2));
+        }
+
+        Object previous = values[member];
+        if (previous != null) {
+            Object key = hashKey(previous);
+            OrdinalBitmap members = hashIndex.get(key);
+            members.remove(member);
+            if (members.isEmpty()) {
+                hashIndex.remove(key);
+            }
+            nonNull.remove(member);
+        }
+
+        values[member] = value;
+        if (value != null) {
+            hashIndex.computeIfAbsent(hashKey(value), key -> new OrdinalBitmap()).add(member);
+            nonNull.add(member);
+        }
+        sorted = null;
+    }
+
+    /**
+     * Gets the members whose value compares to the right-hand side with the
+     * specified operator.
+     *
+     * @param op  The comparison operator.
+     * @param rhs The right-hand side value.
+     * @return A new bitmap of the matching member ordinals.
+     * @throws IllegalArgumentException If the right-hand side cannot be
+     *                                  compared with the values.
+     */
+    public OrdinalBitmap lookup(OperatorType op, Object rhs) {
+        if (rhs == null) {
+            return new OrdinalBitmap();
+        }
+        checkOperand(rhs);
+
+        if (OperatorTypeEnum.EQ.equals(op)) {
+            OrdinalBitmap members = hashIndex.get(hashKey(rhs));
+            return (members == null) ? new OrdinalBitmap() : members.copy();
+        } else if (OperatorTypeEnum.NE.equals(op)) {
+            OrdinalBitmap members = hashIndex.get(hashKey(rhs));
+            return (members == null) ? nonNull.copy() : nonNull.copy().andNot(members);
+        }
+
+        int[] index = sortedIndex();
+        if (OperatorTypeEnum.LT.equals(op)) {
+            return range(index, 0, lowerBound(index, rhs));
+        } else if (OperatorTypeEnum.LE.equals(op)) {
+            return range(index, 0, upperBound(index, rhs));
+        } else if (OperatorTypeEnum.GT.equals(op)) {
+            return range(index, upperBound(index, rhs), index.length);
+        } else if (OperatorTypeEnum.GE.equals(op)) {
+            return range(index, lowerBound(index, rhs), index.length);
+        }
+        throw new IllegalArgumentException("Unsupported operator " + op);
+    }
+
+    private static OrdinalBitmap range(int[] index, int from, int to) {
+        OrdinalBitmap members = new OrdinalBitmap();
+        for (int i = from; i < to; i++) {
+            members.add(index[i]);
+        }
+        return members;
+    }
+
+    /**
+     * Gets the index in the sorted index of the first value that is not less
+     * than the specified value.
+     */
+    private int lowerBound(int[] index, Object value) {
+        int low = 0;
+        int high = index.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(values[index[mid]], value) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Gets the index in the sorted index of the first value that is greater
+     * than the specified value.
+     */
+    private int upperBound(int[] index, Object value) {
+        int low = 0;
+        int high = index.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(values[index[mid]], value) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int[] sortedIndex() {
+        if (sorted == null) {
+            int[] members = nonNull.toArray();
+            Ordinals.sort(members, 0, members.length, (left, right) -> compare(values[left], values[right]));
+            sorted = members;
+        }
+        return sorted;
+    }
+
+    /**
+     * Compares two attribute values. Numbers compare by their exact numeric
+     * value, with 0.0 and -0.0 equal; other values must be Comparable to
+     * each other.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static int compare(Object left, Object right) {
+        if (left instanceof Number l && right instanceof Number r) {
+            if (isIntegral(l) && isIntegral(r)) {
+                return Long.compare(l.longValue(), r.longValue());
+            } else if (isFloating(l) && isFloating(r)) {
+                double dl = l.doubleValue();
+                double dr = r.doubleValue();
+                return (dl == dr) ? 0 : Double.compare(dl, dr);
+            }
+
+            Object kl = hashKey(l);
+            Object kr = hashKey(r);
+            if (kl instanceof Double || kr instanceof Double) {
+                // NaN or an infinity, which order as doubles.
+                return Double.compare(l.doubleValue(), r.doubleValue());
+            }
+            return toBigDecimal(kl).compareTo(toBigDecimal(kr));
+        }
+        checkComparable(left, right);
+        return ((Comparable) left).compareTo(right);
+    }
+
+    /**
+     * Gets the hash index key of a value, so that two values have the same
+     * key exactly when compare finds them equal: a Long for an integral
+     * number, a Double for NaN and the infinities, and a BigDecimal without
+     * trailing zeros for any other number.
+     */
+    static Object hashKey(Object value) {
+        if (!(value instanceof Number number)) {
+            return value;
+        }
+        if (isIntegral(number)) {
+            return number.longValue();
+        }
+
+        BigDecimal decimal;
+        if (isFloating(number)) {
+            double d = number.doubleValue();
+            if (Double.isNaN(d) || Double.isInfinite(d)) {
+                return d;
+            }
+            decimal = new BigDecimal(d);
+        } else if (number instanceof BigDecimal bigDecimal) {
+            decimal = bigDecimal;
+        } else if (number instanceof BigInteger bigInteger) {
+            decimal = new BigDecimal(bigInteger);
+        } else {
+            decimal = new BigDecimal(number.toString());
+        }
+
+        decimal = (decimal.signum() == 0) ? BigDecimal.ZERO : decimal.stripTrailingZeros();
+        if (decimal.scale() <= 0 && decimal.toBigInteger().bitLength() < 64) {
+            return decimal.longValue();
+        }
+        return decimal;
+    }
+
+    private static BigDecimal toBigDecimal(Object key) {
+        return (key instanceof Long l) ? BigDecimal.valueOf(l) : (BigDecimal) key;
+    }
+
+    /**
+     * Checks that a right-hand side value can be compared with the values of
+     * the attribute, so that a mismatch fails up front for every operator.
+     */
+    private void checkOperand(Object rhs) {
+        for (Object value : values) {
+            if (value != null) {
+                checkComparable(value, rhs);
+                return;
+            }
+        }
+    }
+
+    private static void checkComparable(Object left, Object right) {
+        boolean comparable;
+        if (left instanceof Number || right instanceof Number) {
+            comparable = left instanceof Number && right instanceof Number;
+        } else {
+            comparable = left instanceof Comparable && right instanceof Comparable
+                    && (left.getClass().isInstance(right) || right.getClass().isInstance(left));
+        }
+        if (!comparable) {
+            throw new IllegalArgumentException("Cannot compare a " + right.getClass().getSimpleName()
+                    + " with a " + left.getClass().getSimpleName() + " attribute value");
+        }
+    }
+
+    private static boolean isIntegral(Number number) {
+        return number instanceof Long || number instanceof Integer || number instanceof Short
+                || number instanceof Byte;
+    }
+
+    private static boolean isFloating(Number number) {
+        return number instanceof Double || number instanceof Float;
+    }
+}
@@ -0,0 +1,121 @@
+package acme.jolap.engine;
+
+import javax.olap.OLAPException;
+import javax.olap.query.derivedattribute.DerivedAttribute;
+import javax.olap.query.dimensionfilters.AttributeFilter;
+import javax.olap.query.dimensionfilters.DerivedAttributeFilter;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Keeps the AttributeIndex of each dimension attribute and derived
+ * attribute, and answers AttributeFilter and DerivedAttributeFilter steps
+ * from them.
+ * An index is built on the first filter that uses its attribute. Entries are
+ * released when their attribute is no longer referenced.
+ */
+public class AttributeIndexes {
+    /**
+     * Loads the values of an attribute for the members of its dimension.
+     */
+    @FunctionalInterface
+    public interface ValueLoader {
+        /**
+         * Gets the value of an attribute for each member ordinal.
+         *
+         * @param attribute A CWM Attribute or a DerivedAttribute.
+         * @return The value for each member ordinal.
+         * @throws OLAPException If the values cannot be read.
+         */
+        Object[] loadValues(Object attribute) throws OLAPException;
+    }
+
+    private final Map<Object, AttributeIndex> indexes = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final ValueLoader loader;
+
+    /**
+     * Creates an empty set of indexes.
+     *
+     * @param loader The ValueLoader used for attributes that have no index yet.
+     */
+    public AttributeIndexes(ValueLoader loader) {
+        this.loader = loader;
+    }
+
+    /**
+     * Gets the index of an attribute, building it on first use.
+     *
+     * @param attribute A CWM Attribute or a DerivedAttribute.
+     * @return The index.
+     * @throws OLAPException If the values of the attribute cannot be read.
+     */
+    public AttributeIndex get(Object attribute) throws OLAPException {
+        AttributeIndex index = indexes.get(attribute);
+
+        if (index == null) {
+            index = new AttributeIndex(loader.loadValues(attribute));
+            AttributeIndex existing = indexes.putIfAbsent(attribute, index);
+            if (existing != null) {
+                index = existing;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Gets the members that an AttributeFilter matches.
+     *
+     * @param filter The filter.
+     * @return A new bitmap of the matching member ordinals.
+     * @throws OLAPException If the filter or the attribute values cannot be read.
+     */
+    public OrdinalBitmap evaluate(AttributeFilter filter) throws OLAPException {
+        AttributeIndex index = get(filter.getAttribute());
+        synchronized (index) {
+            return index.lookup(filter.getOp(), filter.getRhs());
+        }
+    }
+
+    /**
+     * Gets the members that a DerivedAttributeFilter matches.
+     *
+     * @param filter The filter.
+     * @return A new bitmap of the matching member ordinals.
+     * @throws OLAPException If the filter or the attribute values cannot be read.
+     */
+    public OrdinalBitmap evaluate(DerivedAttributeFilter filter) throws OLAPException {
+        DerivedAttribute attribute = filter.getDerivedAttribute();
+        AttributeIndex index = get(attribute);
+        synchronized (index) {
+            return index.lookup(filter.getOp(), filter.getRhs());
+        }
+    }
+
+    /**
+     * Changes the value of an attribute for one member, keeping its index,
+     * if any, up to date.
+     *
+     * @param attribute A CWM Attribute or a DerivedAttribute.
+     * @param member    The ordinal of the member.
+     * @param value     The new value.
+     */
+    public void update(Object attribute, int member, Object value) {
+        AttributeIndex index = indexes.get(attribute);
+        if (index != null) {
+            synchronized (index) {
+                index.update(member, value);
+            }
+        }
+    }
+
+    /**
+     * Discards the index of an attribute.
+     *
+     * @param attribute A CWM Attribute or a DerivedAttribute.
+     */
+    public void invalidate(Object attribute) {
+        indexes.remove(attribute);
+    }
+}
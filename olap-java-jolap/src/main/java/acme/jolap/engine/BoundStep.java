@@ -0,0 +1,131 @@
+package acme.jolap.engine;
+
+/**
+ * A DimensionStep bound to an executable operation.
+ * A step is bound either as a member predicate, which the pipeline can fuse
+ * with other predicates and reorder, as a precomputed set of members, which
+ * the pipeline combines with bitmap operations, as a sort, or as a
+ * SelectionOperator, which the pipeline runs in place and never moves other
+ * steps across.
+ */
+public final class BoundStep {
+    /**
+     * The kind of operation of a bound step.
+     */
+    public enum Kind {
+        PREDICATE,
+        MEMBERS,
+        SORT,
+        OPERATOR
+    }
+
+    private final Kind kind;
+    private final MemberPredicate predicate;
+    private final OrdinalBitmap members;
+    private final double selectivity;
+    private final double cost;
+    private final OrdinalComparator comparator;
+    private final boolean total;
+    private final SelectionOperator operator;
+
+    private BoundStep(Kind kind, MemberPredicate predicate, OrdinalBitmap members, double selectivity, double cost,
+                      OrdinalComparator comparator, boolean total, SelectionOperator operator) {
+        this.kind = kind;
+        this.predicate = predicate;
+        this.members = members;
+        this.selectivity = selectivity;
+        this.cost = cost;
+        this.comparator = comparator;
+        this.total = total;
+        this.operator = operator;
+    }
+
+    /**
+     * Creates a filter step that tests each member independently.
+     * The pipeline applies the set action of the DimensionFilter to the
+     * members that satisfy the predicate.
+     *
+     * @param predicate   The member test.
+     * @param selectivity The estimated fraction of members that satisfy the
+     *                    predicate, from 0 to 1.
+     * @param cost        The estimated relative cost of one test, greater
+     *                    than 0.
+     * @return The bound step.
+     */
+    public static BoundStep predicate(MemberPredicate predicate, double selectivity, double cost) {
+        if (!(cost > 0)) {
+            throw new IllegalArgumentException("The cost must be greater than 0: " + cost);
+        }
+        double clamped = Math.max(0, Math.min(1, selectivity));
+        return new BoundStep(Kind.PREDICATE, predicate, null, clamped, cost, null, false, null);
+    }
+
+    /**
+     * Creates a filter step whose matching members are already known, such
+     * as a MemberListFilter or a filter answered from an index.
+     * The pipeline applies the set action of the DimensionFilter to the
+     * members.
+     *
+     * @param members The members that the filter matches. Must not be
+     *                modified afterwards.
+     * @return The bound step.
+     */
+    public static BoundStep members(OrdinalBitmap members) {
+        return new BoundStep(Kind.MEMBERS, null, members, 0, 1, null, false, null);
+    }
+
+    /**
+     * Creates a sort step.
+     *
+     * @param comparator The order of the members, including the direction.
+     * @param total      true if no two members compare equal, so that the
+     *                   sort completely replaces any earlier order.
+     * @return The bound step.
+     */
+    public static BoundStep sort(OrdinalComparator comparator, boolean total) {
+        return new BoundStep(Kind.SORT, null, null, 1, 1, comparator, total, null);
+    }
+
+    /**
+     * Creates a step that transforms the whole selection. The set action of
+     * the step, if any, is the responsibility of the operator.
+     *
+     * @param operator The operator.
+     * @return The bound step.
+     */
+    public static BoundStep operator(SelectionOperator operator) {
+        return new BoundStep(Kind.OPERATOR, null, null, 1, 1, null, false, operator);
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public MemberPredicate getPredicate() {
+        return predicate;
+    }
+
+    public OrdinalBitmap getMembers() {
+        return members;
+    }
+
+    public double getSelectivity() {
+        return selectivity;
+    }
+
+    public double getCost() {
+        return cost;
+    }
+
+    public OrdinalComparator getComparator() {
+        return comparator;
+    }
+
+    public boolean isTotal() {
+        return total;
+    }
+
+    public SelectionOperator getOperator() {
+        return operator;
+    }
+}
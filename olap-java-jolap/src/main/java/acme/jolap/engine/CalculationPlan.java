@@ -0,0 +1,415 @@
+package acme.jolap.engine;
+
+import javax.olap.OLAPException;
+import javax.olap.metadata.Member;
+import javax.olap.query.calculatedmembers.CalculatedMember;
+import javax.olap.query.calculatedmembers.CalculationRelationship;
+import javax.olap.query.calculatedmembers.OrdinateOperator;
+import javax.olap.query.querycoremodel.CubeView;
+import javax.olap.query.querycoremodel.DimensionView;
+import javax.olap.query.querycoremodel.EdgeView;
+import javax.olap.query.querycoremodel.MemberReference;
+import javax.olap.query.querycoremodel.OperatorReference;
+import javax.olap.query.querycoremodel.Ordinate;
+import javax.olap.query.querycoremodel.QualifiedMemberReference;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The evaluation order of the calculated members of a CubeView, as a
+ * directed acyclic graph.
+ * A calculated member depends on the calculated members that its
+ * OrdinateOperator references through MemberReference,
+ * QualifiedMemberReference and nested OperatorReference inputs, and a
+ * CalculationRelationship makes its superior precedence member depend on its
+ * inferior precedence member.
+ * <p>
+ * Cycles are reported when the plan is built. At evaluation time each
+ * member is submitted to an Executor as soon as the members it depends on
+ * are done, so independent members are evaluated in parallel and the solve
+ * order is still honored.
+ */
+public final class CalculationPlan {
+    /**
+     * Evaluates one calculated member.
+     */
+    @FunctionalInterface
+    public interface Evaluator {
+        /**
+         * Evaluates a calculated member. Called once per member, after all
+         * members it depends on, possibly from several threads at once.
+         *
+         * @param member The member to evaluate.
+         * @throws OLAPException If the member cannot be evaluated.
+         */
+        void evaluate(CalculatedMember member) throws OLAPException;
+    }
+
+    private final List<CalculatedMember> members;
+
+    /**
+     * For each member index, the indexes of the members that depend on it.
+     */
+    private final int[][] dependents;
+    private final int[] dependencyCounts;
+    private final List<List<CalculatedMember>> levels;
+
+    private CalculationPlan(List<CalculatedMember> members, int[][] dependents, int[] dependencyCounts,
+                            List<List<CalculatedMember>> levels) {
+        this.members = members;
+        this.dependents = dependents;
+        this.dependencyCounts = dependencyCounts;
+        this.levels = levels;
+    }
+
+    /**
+     * Builds the plan of the calculated members of a CubeView, from the
+     * calculated members of its edges and of their DimensionView objects and
+     * from its calculation relationships.
+     *
+     * @param cubeView The CubeView.
+     * @return The plan.
+     * @throws OLAPException If the query model cannot be read or the
+     *                       calculations contain a cycle.
+     */
+    public static CalculationPlan build(CubeView cubeView) throws OLAPException {
+        Set<CalculatedMember> members = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<CalculatedMember> ordered = new ArrayList<>();
+        @SuppressWarnings("unchecked")
+        Collection<Object> ordinateEdges = cubeView.getOrdinateEdge();
+        @SuppressWarnings("unchecked")
+        Collection<Object> pageEdges = cubeView.getPageEdge();
+        List<Object> edges = new ArrayList<>(ordinateEdges);
+        edges.addAll(pageEdges);
+
+        for (Object edge : edges) {
+            EdgeView edgeView = (EdgeView) edge;
+            collect(edgeView, members, ordered);
+            for (Object dimensionView : edgeView.getDimensionView()) {
+                collect((DimensionView) dimensionView, members, ordered);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        Collection<CalculationRelationship> relationships = cubeView.getCalculationRelationship();
+        return build(ordered, relationships);
+    }
+
+    /**
+     * Builds the plan of the specified calculated members.
+     *
+     * @param calculatedMembers The calculated members, in declaration order.
+     * @param relationships     The precedence relationships between them.
+     * @return The plan.
+     * @throws OLAPException If the query model cannot be read or the
+     *                       calculations contain a cycle.
+     */
+    public static CalculationPlan build(List<CalculatedMember> calculatedMembers,
+                                        Collection<CalculationRelationship> relationships) throws OLAPException {
+        Map<CalculatedMember, Integer> index = new IdentityHashMap<>();
+        List<CalculatedMember> members = new ArrayList<>();
+        for (CalculatedMember member : calculatedMembers) {
+            if (index.putIfAbsent(member, members.size()) == null) {
+                members.add(member);
+            }
+        }
+
+        int n = members.size();
+        List<Set<Integer>> dependencies = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            Set<Integer> found = new LinkedHashSet<>();
+            OrdinateOperator operator = members.get(i).getOperator();
+            if (operator != null) {
+                addInputDependencies(operator, index, found, Collections.newSetFromMap(new IdentityHashMap<>()));
+            }
+            dependencies.add(found);
+        }
+
+        for (CalculationRelationship relationship : relationships) {
+            Integer superior = index.get(relationship.getSuperiorPrecedence());
+            Integer inferior = index.get(relationship.getInferiorPrecedence());
+            if (superior != null && inferior != null) {
+                dependencies.get(superior).add(inferior);
+            }
+        }
+
+        // Kahn's algorithm, one level of independent members at a time.
+        int[] counts = new int[n];
+        List<List<Integer>> reverse = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            reverse.add(new ArrayList<>());
+        }
+        for (int i = 0; i < n; i++) {
+            counts[i] = dependencies.get(i).size();
+            for (int dependency : dependencies.get(i)) {
+                reverse.get(dependency).add(i);
+            }
+        }
+
+        int[][] dependents = new int[n][];
+        for (int i = 0; i < n; i++) {
+            dependents[i] = reverse.get(i).stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        List<List<CalculatedMember>> levels = new ArrayList<>();
+        int[] remaining = counts.clone();
+        List<Integer> ready = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            if (remaining[i] == 0) {
+                ready.add(i);
+            }
+        }
+
+        int planned = 0;
+        while (!ready.isEmpty()) {
+            List<CalculatedMember> level = new ArrayList<>(ready.size());
+            List<Integer> next = new ArrayList<>();
+            for (int member : ready) {
+                level.add(members.get(member));
+                for (int dependent : dependents[member]) {
+                    if (--remaining[dependent] == 0) {
+                        next.add(dependent);
+                    }
+                }
+            }
+            planned += level.size();
+            levels.add(Collections.unmodifiableList(level));
+            ready = next;
+        }
+
+        if (planned < n) {
+            throw new OLAPException("Calculated members form a cycle: " + describeCycle(members, dependencies, remaining));
+        }
+        return new CalculationPlan(Collections.unmodifiableList(members), dependents, counts,
+                Collections.unmodifiableList(levels));
+    }
+
+    /**
+     * Gets the calculated members in groups that can be evaluated in
+     * parallel; each group only depends on earlier groups.
+     *
+     * @return The groups, in evaluation order.
+     */
+    public List<List<CalculatedMember>> getLevels() {
+        return levels;
+    }
+
+    /**
+     * Gets the number of calculated members in the plan.
+     *
+     * @return The number of calculated members.
+     */
+    public int size() {
+        return members.size();
+    }
+
+    /**
+     * Evaluates all calculated members, each one as soon as the members it
+     * depends on are done, and waits for the evaluation to finish.
+     * After the first failure no further member is started.
+     *
+     * @param executor  The Executor that runs the evaluations.
+     * @param evaluator The Evaluator of one member.
+     * @throws OLAPException        The first failure of an evaluation.
+     * @throws InterruptedException If the calling thread is interrupted while
+     *                              waiting.
+     */
+    public void execute(Executor executor, Evaluator evaluator) throws OLAPException, InterruptedException {
+        int n = members.size();
+        AtomicInteger[] remaining = new AtomicInteger[n];
+        for (int i = 0; i < n; i++) {
+            remaining[i] = new AtomicInteger(dependencyCounts[i]);
+        }
+
+        CountDownLatch done = new CountDownLatch(n);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Scheduler scheduler = new Scheduler(executor, evaluator, remaining, done, failure);
+
+        for (int i = 0; i < n; i++) {
+            if (dependencyCounts[i] == 0) {
+                scheduler.submit(i);
+            }
+        }
+        done.await();
+
+        Throwable cause = failure.get();
+        if (cause instanceof OLAPException e) {
+            throw e;
+        } else if (cause instanceof RuntimeException e) {
+            throw e;
+        } else if (cause instanceof Error e) {
+            throw e;
+        }
+    }
+
+    /**
+     * Submits members whose dependencies are done; after a failure, members
+     * are counted down without being evaluated so that execute returns.
+     * <p>
+     * A thread drains the members that become ready from a work queue. When
+     * the Executor runs a submitted member on the submitting thread, as a
+     * same-thread or caller-runs Executor does, the member is added to the
+     * queue of that thread instead, so a long dependency chain does not
+     * recurse once per member.
+     */
+    private final class Scheduler {
+        private final Executor executor;
+        private final Evaluator evaluator;
+        private final AtomicInteger[] remaining;
+        private final CountDownLatch done;
+        private final AtomicReference<Throwable> failure;
+        private final ThreadLocal<ArrayDeque<Integer>> draining = new ThreadLocal<>();
+
+        Scheduler(Executor executor, Evaluator evaluator, AtomicInteger[] remaining, CountDownLatch done,
+                  AtomicReference<Throwable> failure) {
+            this.executor = executor;
+            this.evaluator = evaluator;
+            this.remaining = remaining;
+            this.done = done;
+            this.failure = failure;
+        }
+
+        void submit(int member) {
+            try {
+                executor.execute(() -> run(member));
+            } catch (RejectedExecutionException e) {
+                failure.compareAndSet(null, e);
+                run(member);
+            }
+        }
+
+        private void run(int member) {
+            ArrayDeque<Integer> queue = draining.get();
+            if (queue != null) {
+                // Run inline by the Executor; the drain of this thread runs it.
+                queue.add(member);
+                return;
+            }
+
+            queue = new ArrayDeque<>();
+            queue.add(member);
+            draining.set(queue);
+            try {
+                Integer next;
+                while ((next = queue.poll()) != null) {
+                    evaluate(next, queue);
+                }
+            } finally {
+                draining.remove();
+            }
+        }
+
+        private void evaluate(int member, ArrayDeque<Integer> queue) {
+            if (failure.get() == null) {
+                try {
+                    evaluator.evaluate(members.get(member));
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+            }
+
+            done.countDown();
+            for (int dependent : dependents[member]) {
+                if (remaining[dependent].decrementAndGet() == 0) {
+                    if (failure.get() == null) {
+                        submit(dependent);
+                    } else {
+                        // Skipped: counted down by this drain.
+                        queue.add(dependent);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void collect(Ordinate ordinate, Set<CalculatedMember> members, List<CalculatedMember> ordered)
+            throws OLAPException {
+        for (Object member : ordinate.getCalculatedMember()) {
+            if (members.add((CalculatedMember) member)) {
+                ordered.add((CalculatedMember) member);
+            }
+        }
+    }
+
+    private static void addInputDependencies(OrdinateOperator operator, Map<CalculatedMember, Integer> index,
+                                             Set<Integer> found, Set<OrdinateOperator> visited) throws OLAPException {
+        if (!visited.add(operator)) {
+            return;
+        }
+
+        for (Object input : operator.getInput()) {
+            if (input instanceof MemberReference reference) {
+                addMember(reference.getMember(), index, found);
+            } else if (input instanceof QualifiedMemberReference reference) {
+                for (Object member : reference.getMember()) {
+                    addMember((Member) member, index, found);
+                }
+            } else if (input instanceof OperatorReference reference && reference.getOperator() != null) {
+                addInputDependencies(reference.getOperator(), index, found, visited);
+            }
+        }
+    }
+
+    private static void addMember(Member member, Map<CalculatedMember, Integer> index, Set<Integer> found) {
+        if (member instanceof CalculatedMember calculated) {
+            Integer position = index.get(calculated);
+            if (position != null) {
+                found.add(position);
+            }
+        }
+    }
+
+    /**
+     * Finds one cycle among the members that could not be planned.
+     */
+    private static String describeCycle(List<CalculatedMember> members, List<Set<Integer>> dependencies,
+                                        int[] remaining) {
+        int start = 0;
+        while (remaining[start] == 0) {
+            start++;
+        }
+
+        // Every unplanned member depends on another unplanned member, so
+        // following those dependencies must revisit a member.
+        List<Integer> path = new ArrayList<>();
+        Map<Integer, Integer> seen = new HashMap<>();
+        int current = start;
+        while (!seen.containsKey(current)) {
+            seen.put(current, path.size());
+            path.add(current);
+            for (int dependency : dependencies.get(current)) {
+                if (remaining[dependency] > 0) {
+                    current = dependency;
+                    break;
+                }
+            }
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = seen.get(current); i < path.size(); i++) {
+            sb.append(name(members.get(path.get(i)))).append(" -> ");
+        }
+        return sb.append(name(members.get(current))).toString();
+    }
+
+    private static String name(CalculatedMember member) {
+        try {
+            return String.valueOf(member.getName());
+        } catch (RuntimeException e) {
+            return member.toString();
+        }
+    }
+}
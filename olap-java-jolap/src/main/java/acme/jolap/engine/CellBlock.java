@@ -0,0 +1,271 @@
+package acme.jolap.engine;
+
+import java.util.List;
+
+/**
+ * The computed cells of a query, stored once in a fixed dimension order
+ * and read through any arrangement of its dimensions on edges.
+ * The position of a cell along a dimension is the position of its member in
+ * the selection of the DimensionView, which does not change when the
+ * DimensionView is pivoted to another edge or rotated. A new arrangement is
+ * therefore a {@link View} with different strides over the same cells; no
+ * filter, aggregation or copy is needed.
+ * <p>
+ * Instances are immutable and thread safe.
+ */
+public final class CellBlock {
+    private final List<Object> dimensions;
+    private final int[] sizes;
+    private final int[] strides;
+    private final double[] cells;
+
+    /**
+     * Creates a block.
+     *
+     * @param dimensions The dimensions, in storage order.
+     * @param sizes      The number of positions along each dimension.
+     * @param cells      The cells, the last dimension varying fastest, NaN
+     *                   for empty cells. The array is not copied.
+     */
+    public CellBlock(List<?> dimensions, int[] sizes, double[] cells) {
+        if (dimensions.size() != sizes.length) {
+            throw new IllegalArgumentException("Expected " + dimensions.size() + " sizes");
+        }
+
+        this.dimensions = List.copyOf(dimensions);
+        this.sizes = sizes.clone();
+        strides = new int[sizes.length];
+        long stride = 1;
+        for (int d = sizes.length - 1; d >= 0; d--) {
+            strides[d] = (int) stride;
+            stride *= sizes[d];
+        }
+        if (stride != cells.length) {
+            throw new IllegalArgumentException("Expected " + stride + " cells, got " + cells.length);
+        }
+        this.cells = cells;
+    }
+
+    /**
+     * Gets the dimensions in storage order.
+     *
+     * @return The dimensions.
+     */
+    public List<Object> getDimensions() {
+        return dimensions;
+    }
+
+    /**
+     * Gets the number of positions along a dimension.
+     *
+     * @param dimension The index of the dimension in storage order.
+     * @return The number of positions.
+     */
+    public int getSize(int dimension) {
+        return sizes[dimension];
+    }
+
+    /**
+     * Gets the number of cells.
+     *
+     * @return The number of cells.
+     */
+    public int getCellCount() {
+        return cells.length;
+    }
+
+    /**
+     * Gets a cell.
+     *
+     * @param positions The position along each dimension, in storage order.
+     * @return The value, or NaN if the cell is empty.
+     */
+    public double get(int... positions) {
+        int cell = 0;
+        for (int d = 0; d < positions.length; d++) {
+            cell += positions[d] * strides[d];
+        }
+        return cells[cell];
+    }
+
+    /**
+     * Gets the block restricted to some positions along one dimension, for
+     * example after a filter narrowed the selection of a DimensionView.
+     *
+     * @param dimension The index of the dimension in storage order.
+     * @param positions The positions to keep, in their new order.
+     * @return A new block.
+     */
+    public CellBlock slice(int dimension, int[] positions) {
+        int outer = 1;
+        for (int d = 0; d < dimension; d++) {
+            outer *= sizes[d];
+        }
+        int inner = strides[dimension];
+        int[] newSizes = sizes.clone();
+        newSizes[dimension] = positions.length;
+
+        double[] result = new double[outer * positions.length * inner];
+        int target = 0;
+        for (int o = 0; o < outer; o++) {
+            int base = o * sizes[dimension] * inner;
+            for (int position : positions) {
+                System.arraycopy(cells, base + position * inner, result, target, inner);
+                target += inner;
+            }
+        }
+        return new CellBlock(dimensions, newSizes, result);
+    }
+
+    /**
+     * Arranges the dimensions on edges.
+     *
+     * @param edges The dimensions of each edge, outermost first. Every
+     *              dimension of the block must be on exactly one edge.
+     * @return The view.
+     * @throws IllegalArgumentException If the edges do not hold each
+     *                                  dimension exactly once.
+     */
+    public View arrange(List<? extends List<?>> edges) {
+        int[][] offsets = new int[edges.size()][];
+        boolean[] placed = new boolean[sizes.length];
+
+        for (int e = 0; e < offsets.length; e++) {
+            List<?> edge = edges.get(e);
+            int[] edgeDimensions = new int[edge.size()];
+            long length = 1;
+            for (int i = 0; i < edgeDimensions.length; i++) {
+                int d = dimensions.indexOf(edge.get(i));
+                if (d < 0 || placed[d]) {
+                    throw new IllegalArgumentException("Dimension " + edge.get(i) + " is missing or repeated");
+                }
+                placed[d] = true;
+                edgeDimensions[i] = d;
+                length *= sizes[d];
+            }
+            offsets[e] = edgeOffsets(edgeDimensions, (int) length);
+        }
+
+        for (int d = 0; d < placed.length; d++) {
+            if (!placed[d]) {
+                throw new IllegalArgumentException("Dimension " + dimensions.get(d) + " is on no edge");
+            }
+        }
+        return new View(offsets);
+    }
+
+    /**
+     * Computes the offset in the block of each tuple of an edge.
+     */
+    private int[] edgeOffsets(int[] edgeDimensions, int length) {
+        int[] offsets = new int[length];
+        int[] position = new int[edgeDimensions.length];
+        int offset = 0;
+
+        for (int t = 0; t < length; t++) {
+            offsets[t] = offset;
+            // Advance the odometer, innermost dimension fastest.
+            for (int i = edgeDimensions.length - 1; i >= 0; i--) {
+                int d = edgeDimensions[i];
+                if (++position[i] < sizes[d]) {
+                    offset += strides[d];
+                    break;
+                }
+                offset -= (sizes[d] - 1) * strides[d];
+                position[i] = 0;
+            }
+        }
+        return offsets;
+    }
+
+    /**
+     * The cells of a CellBlock arranged on edges, addressed by tuple
+     * position along each edge.
+     */
+    public final class View {
+        /**
+         * For each edge, the offset in the block of each of its tuples.
+         */
+        private final int[][] offsets;
+
+        private View(int[][] offsets) {
+            this.offsets = offsets;
+        }
+
+        /**
+         * Gets the block viewed.
+         *
+         * @return The block.
+         */
+        public CellBlock getBlock() {
+            return CellBlock.this;
+        }
+
+        /**
+         * Gets the number of edges.
+         *
+         * @return The number of edges.
+         */
+        public int getEdgeCount() {
+            return offsets.length;
+        }
+
+        /**
+         * Gets the number of tuples of an edge.
+         *
+         * @param edge The index of the edge.
+         * @return The number of tuples.
+         */
+        public int getEdgeLength(int edge) {
+            return offsets[edge].length;
+        }
+
+        /**
+         * Gets a cell.
+         *
+         * @param tuples The tuple position along each edge.
+         * @return The value, or NaN if the cell is empty.
+         */
+        public double get(int... tuples) {
+            int cell = 0;
+            for (int e = 0; e < tuples.length; e++) {
+                cell += offsets[e][tuples[e]];
+            }
+            return cells[cell];
+        }
+
+        /**
+         * Copies the cells in the order of the view, the last edge varying
+         * fastest.
+         *
+         * @return A new array of the cells.
+         */
+        public double[] toArray() {
+            double[] result = new double[cells.length];
+            if (result.length == 0) {
+                return result;
+            }
+
+            int[] tuples = new int[offsets.length];
+            int cell = 0;
+            for (int e = 0; e < offsets.length; e++) {
+                cell += offsets[e][0];
+            }
+
+            for (int i = 0; i < result.length; i++) {
+                result[i] = cells[cell];
+                for (int e = offsets.length - 1; e >= 0; e--) {
+                    int[] edge = offsets[e];
+                    if (tuples[e] + 1 < edge.length) {
+                        cell += edge[tuples[e] + 1] - edge[tuples[e]];
+                        tuples[e]++;
+                        break;
+                    }
+                    cell -= edge[tuples[e]] - edge[0];
+                    tuples[e] = 0;
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package acme.jolap.engine;
+
+import java.util.function.IntFunction;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * A DerivedAttribute compiled by a DerivedAttributeCompiler into a function
+ * of the member ordinal.
+ * A numeric attribute evaluates to a primitive double, NaN when the value is
+ * null; a text attribute evaluates to a String, null when the value is null.
+ * <p>
+ * Instances are immutable and thread safe.
+ */
+public final class CompiledDerivedAttribute {
+    private final IntToDoubleFunction numeric;
+    private final IntFunction<String> text;
+
+    CompiledDerivedAttribute(IntToDoubleFunction numeric, IntFunction<String> text) {
+        this.numeric = numeric;
+        this.text = text;
+    }
+
+    /**
+     * Specifies whether the attribute is numeric.
+     *
+     * @return true if the attribute evaluates to numbers, false if it
+     *         evaluates to strings.
+     */
+    public boolean isNumeric() {
+        return numeric != null;
+    }
+
+    /**
+     * Gets the value of a numeric attribute for a member.
+     *
+     * @param member The ordinal of the member.
+     * @return The value, or NaN if it is null.
+     * @throws IllegalStateException If the attribute is not numeric.
+     */
+    public double evaluateDouble(int member) {
+        if (numeric == null) {
+            throw new IllegalStateException("The attribute is not numeric");
+        }
+        return numeric.applyAsDouble(member);
+    }
+
+    /**
+     * Gets the value of the attribute for a member.
+     *
+     * @param member The ordinal of the member.
+     * @return A Double or a String, or null.
+     */
+    public Object evaluate(int member) {
+        if (numeric != null) {
+            double value = numeric.applyAsDouble(member);
+            return Double.isNaN(value) ? null : value;
+        }
+        return text.apply(member);
+    }
+
+    /**
+     * Gets the values of the attribute for a range of members, for example
+     * to build its AttributeIndex.
+     *
+     * @param size The number of members.
+     * @return The value for each member ordinal from 0 to size - 1.
+     */
+    public Object[] evaluateAll(int size) {
+        Object[] values = new Object[size];
+        for (int member = 0; member < size; member++) {
+            values[member] = evaluate(member);
+        }
+        return values;
+    }
+
+    /**
+     * Gets the values of a numeric attribute for a range of members.
+     *
+     * @param size The number of members.
+     * @return The value for each member ordinal from 0 to size - 1, NaN for
+     *         null values.
+     * @throws IllegalStateException If the attribute is not numeric.
+     */
+    public double[] evaluateAllDouble(int size) {
+        if (numeric == null) {
+            throw new IllegalStateException("The attribute is not numeric");
+        }
+
+        double[] values = new double[size];
+        for (int member = 0; member < size; member++) {
+            values[member] = numeric.applyAsDouble(member);
+        }
+        return values;
+    }
+}
@@ -0,0 +1,360 @@
+package acme.jolap.engine;
+
+import acme.jolap.engine.ExpressionClassGenerator.Column;
+import acme.jolap.engine.ExpressionClassGenerator.ConstantValue;
+import acme.jolap.engine.ExpressionClassGenerator.Expr;
+import acme.jolap.engine.ExpressionClassGenerator.Operation;
+import javax.olap.OLAPException;
+import javax.olap.query.derivedattribute.DerivedAttribute;
+import javax.olap.query.querycoremodel.AttributeReference;
+import javax.olap.query.querycoremodel.Constant;
+import javax.olap.query.querycoremodel.DerivedAttributeReference;
+import javax.olap.query.querycoremodel.LiteralReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.function.IntFunction;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * Compiles DerivedAttribute expressions into CompiledDerivedAttribute
+ * functions, once per attribute.
+ * The component tree is walked only at compile time: attribute columns are
+ * loaded and unboxed into double arrays and constant sub-expressions are
+ * folded. A numeric expression then becomes a generated hidden class whose
+ * one method evaluates the whole tree on primitive doubles, see
+ * ExpressionClassGenerator; the text operators are lambdas over their
+ * operands. Evaluating a member no longer walks the components, boxes values
+ * or compares operator enumerations.
+ * <p>
+ * Numeric operators take numeric operands; Concatenation and the first
+ * operand of SubString take text, and numbers are converted to text when
+ * they are used there. A null operand gives a null value.
+ */
+public class DerivedAttributeCompiler {
+    private final Map<DerivedAttribute, CompiledDerivedAttribute> compiled =
+            Collections.synchronizedMap(new WeakHashMap<>());
+    private final Map<Object, Node> columns = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final AttributeIndexes.ValueLoader loader;
+
+    /**
+     * Creates a compiler.
+     *
+     * @param loader The ValueLoader of the attributes referenced by the
+     *               expressions.
+     */
+    public DerivedAttributeCompiler(AttributeIndexes.ValueLoader loader) {
+        this.loader = loader;
+    }
+
+    /**
+     * Gets the compiled form of a derived attribute, compiling it on first
+     * use.
+     *
+     * @param attribute The derived attribute.
+     * @return The compiled attribute.
+     * @throws OLAPException If the expression cannot be read, is not well
+     *                       typed, or references itself.
+     */
+    public CompiledDerivedAttribute compile(DerivedAttribute attribute) throws OLAPException {
+        CompiledDerivedAttribute result = compiled.get(attribute);
+
+        if (result == null) {
+            Node node = compile(attribute, Collections.newSetFromMap(new IdentityHashMap<>()));
+            if (node.numeric == null) {
+                result = new CompiledDerivedAttribute(null, node.text);
+            } else {
+                IntToDoubleFunction numeric = ExpressionClassGenerator.function(node.numeric);
+                result = new CompiledDerivedAttribute(numeric, (node.text != null) ? node.text : text(numeric));
+            }
+            CompiledDerivedAttribute existing = compiled.putIfAbsent(attribute, result);
+            if (existing != null) {
+                result = existing;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gets a ValueLoader that evaluates derived attributes with their
+     * compiled form and loads other attributes with the loader of this
+     * compiler, to build an AttributeIndexes on derived attributes.
+     *
+     * @param dimensionSize The number of members of the dimension.
+     * @return The ValueLoader.
+     */
+    public AttributeIndexes.ValueLoader valueLoader(int dimensionSize) {
+        return attribute -> (attribute instanceof DerivedAttribute derived)
+                ? compile(derived).evaluateAll(dimensionSize)
+                : loader.loadValues(attribute);
+    }
+
+    /**
+     * Discards the compiled form of a derived attribute and the loaded
+     * values of a referenced attribute. Derived attributes that reference
+     * the attribute must be invalidated too.
+     *
+     * @param attribute A CWM Attribute or a DerivedAttribute.
+     */
+    public void invalidate(Object attribute) {
+        compiled.remove(attribute);
+        columns.remove(attribute);
+    }
+
+    /**
+     * Discards all compiled attributes and loaded values.
+     */
+    public void clear() {
+        compiled.clear();
+        columns.clear();
+    }
+
+    /**
+     * A compiled expression: a numeric expression, or null if the expression
+     * is text, and a text function, or null if it is formatted from the
+     * numeric expression.
+     */
+    private record Node(Expr numeric, IntFunction<String> text, boolean constant) {
+        static Node number(Expr numeric) {
+            if (numeric instanceof ConstantValue constant) {
+                String text = format(constant.value());
+                return new Node(numeric, member -> text, true);
+            }
+            return new Node(numeric, null, false);
+        }
+
+        static Node text(IntFunction<String> text, boolean constant) {
+            if (constant) {
+                String value = text.apply(0);
+                return new Node(null, member -> value, true);
+            }
+            return new Node(null, text, false);
+        }
+
+        /**
+         * Gets the text function, generating the numeric expression if the
+         * text is formatted from it.
+         */
+        IntFunction<String> textFunction() {
+            return (text != null) ? text : DerivedAttributeCompiler.text(ExpressionClassGenerator.function(numeric));
+        }
+    }
+
+    private Node compile(DerivedAttribute attribute, Set<DerivedAttribute> active) throws OLAPException {
+        if (!active.add(attribute)) {
+            throw new OLAPException("Derived attribute " + attribute.getName() + " references itself");
+        }
+
+        List<Node> operands = new ArrayList<>();
+        for (Object component : attribute.getComponent()) {
+            operands.add(compileComponent(component, active));
+        }
+        active.remove(attribute);
+
+        String operator = (attribute.getOperator() == null) ? null : attribute.getOperator().toString();
+        if (operator == null) {
+            arity(attribute, operands, 1, 1);
+            return operands.get(0);
+        }
+
+        return switch (operator) {
+            case "AbsoluteValue" -> unary(attribute, operands, Operation.ABSOLUTE_VALUE);
+            case "Ceiling" -> unary(attribute, operands, Operation.CEILING);
+            case "Cosine" -> unary(attribute, operands, Operation.COSINE);
+            case "Exp" -> unary(attribute, operands, Operation.EXP);
+            case "Floor" -> unary(attribute, operands, Operation.FLOOR);
+            case "Log" -> unary(attribute, operands, Operation.LOG);
+            case "Sine" -> unary(attribute, operands, Operation.SINE);
+            case "SquareRoot" -> unary(attribute, operands, Operation.SQUARE_ROOT);
+            case "Tangent" -> unary(attribute, operands, Operation.TANGENT);
+            case "UnaryNegation" -> unary(attribute, operands, Operation.NEGATE);
+            case "Add" -> fold(attribute, operands, Operation.ADD);
+            case "Multiply" -> fold(attribute, operands, Operation.MULTIPLY);
+            case "Subtract" -> binary(attribute, operands, Operation.SUBTRACT);
+            case "Divide" -> binary(attribute, operands, Operation.DIVIDE);
+            case "Power" -> binary(attribute, operands, Operation.POWER);
+            case "Remainder" -> binary(attribute, operands, Operation.REMAINDER);
+            case "Round" -> round(attribute, operands);
+            case "Concatenation" -> concatenation(attribute, operands);
+            case "SubString" -> substring(attribute, operands);
+            default -> throw new OLAPException("Unsupported operator " + operator + " in " + attribute.getName());
+        };
+    }
+
+    private Node compileComponent(Object component, Set<DerivedAttribute> active) throws OLAPException {
+        if (component instanceof DerivedAttribute nested) {
+            return compile(nested, active);
+        } else if (component instanceof DerivedAttributeReference reference) {
+            return compile(reference.getDerivedAttribute(), active);
+        } else if (component instanceof AttributeReference reference) {
+            return column(reference.getAttribute());
+        } else if (component instanceof LiteralReference reference) {
+            Constant literal = reference.getLiteral();
+            return literal(literal == null ? null : literal.getValue());
+        }
+        throw new OLAPException("Unsupported derived attribute component " + component);
+    }
+
+    /**
+     * Loads an attribute once; a column whose non-null values are all numbers
+     * is unboxed into a double array.
+     */
+    private Node column(Object attribute) throws OLAPException {
+        Node node = columns.get(attribute);
+        if (node != null) {
+            return node;
+        }
+
+        Object[] values = loader.loadValues(attribute);
+        boolean numeric = true;
+        for (Object value : values) {
+            numeric &= value == null || value instanceof Number;
+        }
+
+        IntFunction<String> text = member -> (member < values.length && values[member] != null)
+                ? values[member].toString()
+                : null;
+        if (numeric) {
+            double[] doubles = new double[values.length];
+            for (int member = 0; member < values.length; member++) {
+                doubles[member] = (values[member] == null) ? Double.NaN : ((Number) values[member]).doubleValue();
+            }
+            node = new Node(new Column(doubles), text, false);
+        } else {
+            node = new Node(null, text, false);
+        }
+
+        columns.put(attribute, node);
+        return node;
+    }
+
+    private static Node literal(Object value) {
+        if (value == null) {
+            return new Node(new ConstantValue(Double.NaN), member -> null, true);
+        } else if (value instanceof Number number) {
+            return Node.number(new ConstantValue(number.doubleValue()));
+        }
+        return Node.text(member -> value.toString(), true);
+    }
+
+    private static Node unary(DerivedAttribute attribute, List<Node> operands, Operation operation)
+            throws OLAPException {
+        arity(attribute, operands, 1, 1);
+        return Node.number(ExpressionClassGenerator.apply(operation, numeric(attribute, operands.get(0)), null));
+    }
+
+    private static Node binary(DerivedAttribute attribute, List<Node> operands, Operation operation)
+            throws OLAPException {
+        arity(attribute, operands, 2, 2);
+        return Node.number(ExpressionClassGenerator.apply(operation, numeric(attribute, operands.get(0)),
+                numeric(attribute, operands.get(1))));
+    }
+
+    /**
+     * Compiles an associative operator over two or more operands into a
+     * left-deep chain of binary operations.
+     */
+    private static Node fold(DerivedAttribute attribute, List<Node> operands, Operation operation)
+            throws OLAPException {
+        arity(attribute, operands, 2, Integer.MAX_VALUE);
+        Expr result = numeric(attribute, operands.get(0));
+        for (int i = 1; i < operands.size(); i++) {
+            result = ExpressionClassGenerator.apply(operation, result, numeric(attribute, operands.get(i)));
+        }
+        return Node.number(result);
+    }
+
+    private static Node round(DerivedAttribute attribute, List<Node> operands) throws OLAPException {
+        arity(attribute, operands, 1, 2);
+        Expr digits = (operands.size() == 1) ? new ConstantValue(0) : numeric(attribute, operands.get(1));
+        return Node.number(ExpressionClassGenerator.apply(Operation.ROUND, numeric(attribute, operands.get(0)),
+                digits));
+    }
+
+    private static Node concatenation(DerivedAttribute attribute, List<Node> operands) throws OLAPException {
+        arity(attribute, operands, 1, Integer.MAX_VALUE);
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        IntFunction<String>[] parts = new IntFunction[operands.size()];
+        boolean constant = true;
+        for (int i = 0; i < parts.length; i++) {
+            parts[i] = operands.get(i).textFunction();
+            constant &= operands.get(i).constant;
+        }
+
+        return Node.text(member -> {
+            StringBuilder sb = new StringBuilder();
+            for (IntFunction<String> part : parts) {
+                String value = part.apply(member);
+                if (value == null) {
+                    return null;
+                }
+                sb.append(value);
+            }
+            return sb.toString();
+        }, constant);
+    }
+
+    /**
+     * SubString(text, start[, length]), with a start position from 1.
+     */
+    private static Node substring(DerivedAttribute attribute, List<Node> operands) throws OLAPException {
+        arity(attribute, operands, 2, 3);
+        IntFunction<String> text = operands.get(0).textFunction();
+        IntToDoubleFunction start = ExpressionClassGenerator.function(numeric(attribute, operands.get(1)));
+        IntToDoubleFunction length = (operands.size() == 3)
+                ? ExpressionClassGenerator.function(numeric(attribute, operands.get(2)))
+                : null;
+
+        boolean constant = true;
+        for (Node operand : operands) {
+            constant &= operand.constant;
+        }
+
+        return Node.text(member -> {
+            String value = text.apply(member);
+            double from = start.applyAsDouble(member);
+            double count = (length == null) ? Integer.MAX_VALUE : length.applyAsDouble(member);
+            if (value == null || Double.isNaN(from) || Double.isNaN(count)) {
+                return null;
+            }
+
+            int begin = (int) Math.min(value.length(), Math.max(0, (long) from - 1));
+            int end = (int) Math.min(value.length(), begin + Math.max(0, (long) count));
+            return value.substring(begin, end);
+        }, constant);
+    }
+
+    private static Expr numeric(DerivedAttribute attribute, Node operand) throws OLAPException {
+        if (operand.numeric == null) {
+            throw new OLAPException("Derived attribute " + attribute.getName() + " applies "
+                    + attribute.getOperator() + " to text");
+        }
+        return operand.numeric;
+    }
+
+    private static void arity(DerivedAttribute attribute, List<Node> operands, int min, int max)
+            throws OLAPException {
+        if (operands.size() < min || operands.size() > max) {
+            throw new OLAPException("Derived attribute " + attribute.getName() + " has " + operands.size()
+                    + " components for " + attribute.getOperator());
+        }
+    }
+
+    private static IntFunction<String> text(IntToDoubleFunction numeric) {
+        return member -> format(numeric.applyAsDouble(member));
+    }
+
+    private static String format(double value) {
+        if (Double.isNaN(value)) {
+            return null;
+        } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+}
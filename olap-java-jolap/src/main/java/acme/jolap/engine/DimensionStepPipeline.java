@@ -0,0 +1,433 @@
+package acme.jolap.engine;
+
+import javax.olap.OLAPException;
+import javax.olap.metadata.Member;
+import javax.olap.query.dimensionfilters.DimensionFilter;
+import javax.olap.query.dimensionfilters.DimensionInsertOffset;
+import javax.olap.query.enumerations.SetActionType;
+import javax.olap.query.enumerations.SetActionTypeEnum;
+import javax.olap.query.querycoremodel.CompoundDimensionStep;
+import javax.olap.query.querycoremodel.DimensionStep;
+import javax.olap.query.querycoremodel.DimensionStepManager;
+import javax.olap.query.querycoremodel.IntegerInsertOffset;
+import javax.olap.query.querycoremodel.MemberInsertOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The DimensionStep objects of a DimensionStepManager compiled into one
+ * member-selection pipeline.
+ * <p>
+ * The compiler rewrites the ordered list of steps as follows:
+ * <ul>
+ * <li>CompoundDimensionStep objects are expanded in place.</li>
+ * <li>Steps before a filter with the INITIAL set action are dropped, because
+ * the selection restarts from the whole dimension.</li>
+ * <li>Narrowing filters (INTERSECTION and DIFFERENCE) are pushed down below
+ * the sorts that precede them and fused into a single scan, with the
+ * predicates ordered by estimated selectivity and cost. Filters bound to a
+ * precomputed member set are combined into one OrdinalBitmap with bitmap
+ * intersections and unions.</li>
+ * <li>Consecutive sorts are merged into one sort: a total sort drops the
+ * sorts before it, and other sorts become tie breakers of the final sort,
+ * which gives the same order as sorting several times with a stable sort.</li>
+ * </ul>
+ * Steps that add members (APPEND, PREPEND and INSERT) and steps bound as a
+ * SelectionOperator are barriers: no step is moved across them.
+ * <p>
+ * A compiled pipeline is immutable and can be evaluated any number of times.
+ */
+public final class DimensionStepPipeline {
+    private final List<Stage> stages;
+
+    /**
+     * true if a step with the INITIAL set action discarded the earlier steps.
+     */
+    private final boolean restarted;
+
+    private DimensionStepPipeline(List<Stage> stages, boolean restarted) {
+        this.stages = stages;
+        this.restarted = restarted;
+    }
+
+    /**
+     * Compiles the steps of a DimensionStepManager.
+     *
+     * @param manager The DimensionStepManager that holds the steps.
+     * @param binder  The StepBinder that binds each step to the dimension data.
+     * @return The compiled pipeline.
+     * @throws OLAPException If a step cannot be read or bound.
+     */
+    public static DimensionStepPipeline compile(DimensionStepManager manager, StepBinder binder)
+            throws OLAPException {
+        List<DimensionStep> steps = new ArrayList<>();
+        flatten(manager.getDimensionStep(), steps);
+        return compile(steps, binder);
+    }
+
+    /**
+     * Compiles an ordered list of steps.
+     *
+     * @param steps  The steps, with CompoundDimensionStep objects already
+     *               expanded.
+     * @param binder The StepBinder that binds each step to the dimension data.
+     * @return The compiled pipeline.
+     * @throws OLAPException If a step cannot be read or bound.
+     */
+    public static DimensionStepPipeline compile(List<DimensionStep> steps, StepBinder binder)
+            throws OLAPException {
+        Compiler compiler = new Compiler();
+
+        for (DimensionStep step : steps) {
+            BoundStep bound = binder.bind(step);
+
+            switch (bound.getKind()) {
+                case PREDICATE, MEMBERS -> addFilter(compiler, step, bound, binder);
+                case SORT -> compiler.addSort(bound.getComparator(), bound.isTotal());
+                case OPERATOR -> compiler.addBarrier(new OperatorStage(bound.getOperator()));
+            }
+        }
+
+        return new DimensionStepPipeline(compiler.finish(), compiler.restarted);
+    }
+
+    static void flatten(List<?> steps, List<DimensionStep> result) throws OLAPException {
+        for (Object step : steps) {
+            if (step instanceof CompoundDimensionStep compound) {
+                flatten(compound.getDimensionStep(), result);
+            } else {
+                result.add((DimensionStep) step);
+            }
+        }
+    }
+
+    private static void addFilter(Compiler compiler, DimensionStep step, BoundStep bound, StepBinder binder)
+            throws OLAPException {
+        SetActionType action = (step instanceof DimensionFilter filter) ? filter.getSetAction() : null;
+
+        if (SetActionTypeEnum.INITIAL.equals(action)) {
+            compiler.restart();
+            compiler.narrow(bound, false);
+        } else if (SetActionTypeEnum.DIFFERENCE.equals(action)) {
+            compiler.narrow(bound, true);
+        } else if (SetActionTypeEnum.APPEND.equals(action)
+                || SetActionTypeEnum.PREPEND.equals(action)
+                || SetActionTypeEnum.INSERT.equals(action)) {
+            compiler.addBarrier(createUnion(bound, action, (DimensionFilter) step, binder));
+        } else {
+            // INTERSECTION, or no set action.
+            compiler.narrow(bound, false);
+        }
+    }
+
+    private static Stage createUnion(BoundStep bound, SetActionType action, DimensionFilter filter,
+                                     StepBinder binder) throws OLAPException {
+        MemberPredicate predicate = bound.getPredicate();
+        OrdinalBitmap members = bound.getMembers();
+
+        if (SetActionTypeEnum.APPEND.equals(action)) {
+            return new UnionStage(predicate, members, "append", Integer.MAX_VALUE, -1);
+        } else if (SetActionTypeEnum.PREPEND.equals(action)) {
+            return new UnionStage(predicate, members, "prepend", 0, -1);
+        }
+
+        DimensionInsertOffset offset = filter.getDimensionInsertOffset();
+        if (offset instanceof IntegerInsertOffset integerOffset) {
+            // Insert offsets are positions, starting at 1.
+            return new UnionStage(predicate, members, "insert", Math.max(0, integerOffset.getValue() - 1), -1);
+        } else if (offset instanceof MemberInsertOffset memberOffset) {
+            Member member = memberOffset.getMember();
+            return new UnionStage(predicate, members, "insert", Integer.MAX_VALUE, binder.getOrdinal(member));
+        }
+        return new UnionStage(predicate, members, "insert", Integer.MAX_VALUE, -1);
+    }
+
+    /**
+     * Evaluates the pipeline over a dimension.
+     *
+     * @param dimensionSize The number of members in the dimension.
+     * @return The ordinals of the selected members, in order.
+     */
+    public int[] evaluate(int dimensionSize) {
+        // null stands for all members in ordinal order, so that the first
+        // scan does not have to materialize the whole dimension.
+        int[] selection = null;
+
+        for (Stage stage : stages) {
+            selection = stage.apply(selection, dimensionSize);
+        }
+        return (selection == null) ? allMembers(dimensionSize) : selection;
+    }
+
+    /**
+     * Evaluates the pipeline on the selection produced by earlier steps, which
+     * gives the same result as evaluating the earlier steps followed by the
+     * steps of this pipeline.
+     *
+     * @param selection     The ordinals of the members selected by the earlier
+     *                      steps, in order. The array is not modified.
+     * @param dimensionSize The number of members in the dimension.
+     * @return The ordinals of the selected members, in order.
+     */
+    public int[] evaluate(int[] selection, int dimensionSize) {
+        if (restarted) {
+            return evaluate(dimensionSize);
+        }
+
+        int[] current = selection.clone();
+        for (Stage stage : stages) {
+            current = stage.apply(current, dimensionSize);
+        }
+        return current;
+    }
+
+    /**
+     * Gets the number of passes over the selection that an evaluation makes.
+     *
+     * @return The number of stages of the compiled pipeline.
+     */
+    public int getStageCount() {
+        return stages.size();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Stage stage : stages) {
+            if (!sb.isEmpty()) {
+                sb.append(" -> ");
+            }
+            sb.append(stage);
+        }
+        return sb.isEmpty() ? "all" : sb.toString();
+    }
+
+    static int[] allMembers(int dimensionSize) {
+        int[] all = new int[dimensionSize];
+        for (int i = 0; i < dimensionSize; i++) {
+            all[i] = i;
+        }
+        return all;
+    }
+
+    /**
+     * Collects the stages, keeping the filters and sorts since the last
+     * barrier pending so that they can be fused and reordered.
+     */
+    private static final class Compiler {
+        private final List<Stage> stages = new ArrayList<>();
+        private final List<Filter> pendingFilters = new ArrayList<>();
+        private final List<OrdinalComparator> pendingSorts = new ArrayList<>();
+
+        /**
+         * The intersection of the pending member sets, or null for all members.
+         */
+        private OrdinalBitmap include;
+
+        /**
+         * The union of the pending excluded member sets, or null for none.
+         */
+        private OrdinalBitmap exclude;
+
+        private boolean restarted;
+
+        void restart() {
+            restarted = true;
+            stages.clear();
+            pendingFilters.clear();
+            pendingSorts.clear();
+            include = null;
+            exclude = null;
+        }
+
+        /**
+         * Adds an INTERSECTION filter, or a DIFFERENCE filter if negate is true.
+         */
+        void narrow(BoundStep bound, boolean negate) {
+            if (bound.getKind() == BoundStep.Kind.MEMBERS) {
+                OrdinalBitmap members = bound.getMembers();
+                if (negate) {
+                    exclude = (exclude == null) ? members.copy() : exclude.or(members);
+                } else {
+                    include = (include == null) ? members.copy() : include.and(members);
+                }
+            } else if (negate) {
+                pendingFilters.add(new Filter(bound.getPredicate().negate(), 1 - bound.getSelectivity(),
+                        bound.getCost()));
+            } else {
+                pendingFilters.add(new Filter(bound.getPredicate(), bound.getSelectivity(), bound.getCost()));
+            }
+        }
+
+        void addSort(OrdinalComparator comparator, boolean total) {
+            if (total) {
+                pendingSorts.clear();
+            }
+            pendingSorts.add(comparator);
+        }
+
+        void addBarrier(Stage stage) {
+            flush();
+            stages.add(stage);
+        }
+
+        List<Stage> finish() {
+            flush();
+            return List.copyOf(stages);
+        }
+
+        private void flush() {
+            if (!pendingFilters.isEmpty() || include != null || exclude != null) {
+                // Cheap, selective predicates first: ascending cost / (1 - selectivity).
+                pendingFilters.sort(Comparator.comparingDouble(Filter::rank));
+                stages.add(new ScanStage(include, exclude, pendingFilters.toArray(new Filter[0])));
+                pendingFilters.clear();
+                include = null;
+                exclude = null;
+            }
+
+            if (!pendingSorts.isEmpty()) {
+                // The last sort decides; earlier sorts only break its ties.
+                OrdinalComparator merged = pendingSorts.get(pendingSorts.size() - 1);
+                for (int i = pendingSorts.size() - 2; i >= 0; i--) {
+                    OrdinalComparator primary = merged;
+                    OrdinalComparator tieBreaker = pendingSorts.get(i);
+                    merged = (left, right) -> {
+                        int result = primary.compare(left, right);
+                        return (result != 0) ? result : tieBreaker.compare(left, right);
+                    };
+                }
+                stages.add(new SortStage(merged, pendingSorts.size()));
+                pendingSorts.clear();
+            }
+        }
+    }
+
+    private record Filter(MemberPredicate predicate, double selectivity, double cost) {
+        double rank() {
+            return (selectivity >= 1) ? Double.POSITIVE_INFINITY : cost / (1 - selectivity);
+        }
+    }
+
+    private interface Stage {
+        int[] apply(int[] selection, int dimensionSize);
+    }
+
+    /**
+     * Keeps the members that are in the combined member sets and satisfy all
+     * the fused predicates, in one pass.
+     */
+    private record ScanStage(OrdinalBitmap include, OrdinalBitmap exclude, Filter[] filters) implements Stage {
+        @Override
+        public int[] apply(int[] selection, int dimensionSize) {
+            if (selection == null && include != null) {
+                // Visit only the included members instead of the whole dimension.
+                int[] result = new int[include.cardinality()];
+                int[] count = {0};
+                include.forEach(member -> {
+                    if (member < dimensionSize && accepts(member)) {
+                        result[count[0]++] = member;
+                    }
+                });
+                return (count[0] == result.length) ? result : Arrays.copyOf(result, count[0]);
+            }
+
+            int length = (selection == null) ? dimensionSize : selection.length;
+            int[] result = new int[length];
+            int count = 0;
+
+            for (int i = 0; i < length; i++) {
+                int member = (selection == null) ? i : selection[i];
+                if (accepts(member)) {
+                    result[count++] = member;
+                }
+            }
+            return (count == length) ? result : Arrays.copyOf(result, count);
+        }
+
+        private boolean accepts(int member) {
+            if ((include != null && !include.contains(member)) || (exclude != null && exclude.contains(member))) {
+                return false;
+            }
+            for (Filter filter : filters) {
+                if (!filter.predicate().test(member)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            int sets = ((include != null) ? 1 : 0) + ((exclude != null) ? 1 : 0);
+            return "scan(" + (filters.length + sets) + ")";
+        }
+    }
+
+    private record SortStage(OrdinalComparator comparator, int mergedSorts) implements Stage {
+        @Override
+        public int[] apply(int[] selection, int dimensionSize) {
+            int[] result = (selection == null) ? allMembers(dimensionSize) : selection.clone();
+            Ordinals.sort(result, 0, result.length, comparator);
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return "sort(" + mergedSorts + ")";
+        }
+    }
+
+    /**
+     * Adds the members that a filter matches and that are not selected yet,
+     * at an insert position.
+     * The matched members are either known as a bitmap or found by testing
+     * the unselected members of the dimension with a predicate.
+     */
+    private record UnionStage(MemberPredicate predicate, OrdinalBitmap members, String name, int position,
+                              int beforeMember) implements Stage {
+        @Override
+        public int[] apply(int[] selection, int dimensionSize) {
+            MemberSelection current =
+                    MemberSelection.ofOrdered((selection == null) ? allMembers(dimensionSize) : selection);
+
+            OrdinalBitmap added = members;
+            if (added == null) {
+                added = new OrdinalBitmap();
+                for (int member = 0; member < dimensionSize; member++) {
+                    if (!current.contains(member) && predicate.test(member)) {
+                        added.add(member);
+                    }
+                }
+            }
+
+            int at = position;
+            if (beforeMember >= 0) {
+                int index = current.indexOf(beforeMember);
+                if (index >= 0) {
+                    at = index;
+                }
+            }
+            return current.insert(added, at).toArray();
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private record OperatorStage(SelectionOperator operator) implements Stage {
+        @Override
+        public int[] apply(int[] selection, int dimensionSize) {
+            return operator.apply((selection == null) ? allMembers(dimensionSize) : selection);
+        }
+
+        @Override
+        public String toString() {
+            return "operator";
+        }
+    }
+}
@@ -0,0 +1,479 @@
+package acme.jolap.engine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * Generates a hidden class that evaluates a numeric expression over primitive
+ * double columns.
+ * The expression tree becomes the straight-line bytecode of one
+ * applyAsDouble method: columns are read from a double[][] field, constants
+ * are loaded from the constant pool, arithmetic operators are single
+ * instructions, and functions are static calls. The class is defined with
+ * Lookup.defineHiddenClass in this package, so it can be unloaded with the
+ * function and calls the package-private helpers of this class.
+ * <p>
+ * An expression whose method would exceed the size that the JIT compiles is
+ * evaluated by a tree of lambdas instead.
+ */
+final class ExpressionClassGenerator {
+    /**
+     * The largest bytecode method that HotSpot compiles by default.
+     */
+    private static final int MAX_CODE_LENGTH = 8000;
+
+    private static final int CLASS_FILE_VERSION = 61;
+    private static final String CLASS_NAME = "acme/jolap/engine/DerivedAttributeKernel";
+    private static final String HELPER = "acme/jolap/engine/ExpressionClassGenerator";
+    private static final String MATH = "java/lang/Math";
+    private static final String COLUMNS = "columns";
+    private static final String COLUMNS_DESCRIPTOR = "[[D";
+
+    private static final int DCONST_0 = 0x0e;
+    private static final int DCONST_1 = 0x0f;
+    private static final int ICONST_0 = 0x03;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC_W = 0x13;
+    private static final int LDC2_W = 0x14;
+    private static final int ILOAD_1 = 0x1b;
+    private static final int ALOAD_0 = 0x2a;
+    private static final int ALOAD_1 = 0x2b;
+    private static final int AALOAD = 0x32;
+    private static final int DADD = 0x63;
+    private static final int DSUB = 0x67;
+    private static final int DMUL = 0x6b;
+    private static final int DREM = 0x73;
+    private static final int DNEG = 0x77;
+    private static final int DRETURN = 0xaf;
+    private static final int RETURN = 0xb1;
+    private static final int GETFIELD = 0xb4;
+    private static final int PUTFIELD = 0xb5;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKESTATIC = 0xb8;
+
+    /**
+     * A numeric operator, with its Java implementation for constant folding
+     * and for the lambda fallback, and its bytecode: an instruction, or a
+     * static method with double parameters.
+     */
+    enum Operation {
+        ABSOLUTE_VALUE(Math::abs, MATH, "abs"),
+        CEILING(Math::ceil, MATH, "ceil"),
+        COSINE(Math::cos, MATH, "cos"),
+        EXP(Math::exp, MATH, "exp"),
+        FLOOR(Math::floor, MATH, "floor"),
+        LOG(Math::log, MATH, "log"),
+        SINE(Math::sin, MATH, "sin"),
+        SQUARE_ROOT(Math::sqrt, MATH, "sqrt"),
+        TANGENT(Math::tan, MATH, "tan"),
+        NEGATE(x -> -x, DNEG),
+        ADD((x, y) -> x + y, DADD),
+        SUBTRACT((x, y) -> x - y, DSUB),
+        MULTIPLY((x, y) -> x * y, DMUL),
+        REMAINDER((x, y) -> x % y, DREM),
+        DIVIDE(ExpressionClassGenerator::divide, HELPER, "divide"),
+        POWER(Math::pow, MATH, "pow"),
+        ROUND(ExpressionClassGenerator::roundHalfUp, HELPER, "roundHalfUp");
+
+        private final DoubleUnaryOperator unary;
+        private final DoubleBinaryOperator binary;
+        private final int opcode;
+        private final String owner;
+        private final String method;
+
+        Operation(DoubleUnaryOperator unary, int opcode) {
+            this(unary, null, opcode, null, null);
+        }
+
+        Operation(DoubleUnaryOperator unary, String owner, String method) {
+            this(unary, null, -1, owner, method);
+        }
+
+        Operation(DoubleBinaryOperator binary, int opcode) {
+            this(null, binary, opcode, null, null);
+        }
+
+        Operation(DoubleBinaryOperator binary, String owner, String method) {
+            this(null, binary, -1, owner, method);
+        }
+
+        Operation(DoubleUnaryOperator unary, DoubleBinaryOperator binary, int opcode, String owner, String method) {
+            this.unary = unary;
+            this.binary = binary;
+            this.opcode = opcode;
+            this.owner = owner;
+            this.method = method;
+        }
+
+        boolean isUnary() {
+            return unary != null;
+        }
+    }
+
+    /**
+     * A numeric expression: a constant, a column or an operation.
+     */
+    sealed interface Expr permits ConstantValue, Column, Apply {
+    }
+
+    /**
+     * A constant value, NaN for null.
+     */
+    record ConstantValue(double value) implements Expr {
+    }
+
+    /**
+     * The values of an attribute, indexed by member ordinal, NaN for null.
+     */
+    record Column(double[] values) implements Expr {
+    }
+
+    /**
+     * An operation on one operand, or on two if right is not null.
+     */
+    record Apply(Operation operation, Expr left, Expr right) implements Expr {
+    }
+
+    private ExpressionClassGenerator() {
+    }
+
+    /**
+     * Creates the expression of an operation, folding it into a constant if
+     * its operands are constants.
+     *
+     * @param operation The operation.
+     * @param left      The first operand.
+     * @param right     The second operand, or null for a unary operation.
+     * @return The expression.
+     */
+    static Expr apply(Operation operation, Expr left, Expr right) {
+        if (operation.isUnary() != (right == null)) {
+            throw new IllegalArgumentException(operation + " takes " + (operation.isUnary() ? 1 : 2) + " operands");
+        }
+
+        Expr expr = new Apply(operation, left, right);
+        if (left instanceof ConstantValue && (right == null || right instanceof ConstantValue)) {
+            return new ConstantValue(toLambda(expr).applyAsDouble(0));
+        }
+        return expr;
+    }
+
+    /**
+     * Gets a function that evaluates an expression, generating its class
+     * unless it is a constant or too large.
+     *
+     * @param expr The expression.
+     * @return The function of the member ordinal.
+     */
+    static IntToDoubleFunction function(Expr expr) {
+        if (expr instanceof ConstantValue constant) {
+            double value = constant.value();
+            return member -> value;
+        }
+
+        ClassWriter writer = new ClassWriter();
+        byte[] bytes = writer.write(expr);
+        if (bytes == null) {
+            return toLambda(expr);
+        }
+
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+            MethodHandle constructor = lookup.findConstructor(lookup.lookupClass(),
+                    MethodType.methodType(void.class, double[][].class));
+            return (IntToDoubleFunction) constructor.invoke(writer.columns.toArray(new double[0][]));
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Cannot define the class of a derived attribute", e);
+        }
+    }
+
+    /**
+     * Gets a tree of lambdas that evaluates an expression.
+     */
+    static IntToDoubleFunction toLambda(Expr expr) {
+        if (expr instanceof ConstantValue constant) {
+            double value = constant.value();
+            return member -> value;
+        } else if (expr instanceof Column column) {
+            double[] values = column.values();
+            return member -> column(values, member);
+        }
+
+        Apply apply = (Apply) expr;
+        IntToDoubleFunction x = toLambda(apply.left());
+        if (apply.operation().isUnary()) {
+            DoubleUnaryOperator op = apply.operation().unary;
+            return member -> op.applyAsDouble(x.applyAsDouble(member));
+        }
+        IntToDoubleFunction y = toLambda(apply.right());
+        DoubleBinaryOperator op = apply.operation().binary;
+        return member -> op.applyAsDouble(x.applyAsDouble(member), y.applyAsDouble(member));
+    }
+
+    /**
+     * Reads a column value; members beyond the loaded values are null.
+     * Called by generated classes.
+     */
+    static double column(double[] values, int member) {
+        return (member < values.length) ? values[member] : Double.NaN;
+    }
+
+    /**
+     * Divides, giving null for a division by zero. Called by generated
+     * classes.
+     */
+    static double divide(double x, double y) {
+        return (y == 0) ? Double.NaN : x / y;
+    }
+
+    /**
+     * Rounds half away from zero to a number of decimal digits. Called by
+     * generated classes.
+     */
+    static double roundHalfUp(double value, double digits) {
+        if (Double.isNaN(value) || Double.isNaN(digits) || Double.isInfinite(value)) {
+            return value;
+        }
+
+        double scale = Math.pow(10, Math.rint(digits));
+        return Math.signum(value) * Math.floor(Math.abs(value) * scale + 0.5) / scale;
+    }
+
+    /**
+     * Writes the class file of one expression: a final class that implements
+     * IntToDoubleFunction, with a double[][] field set by its constructor.
+     */
+    private static final class ClassWriter {
+        private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+        private final DataOutputStream pool = new DataOutputStream(poolBytes);
+        private final Map<String, Integer> poolIndex = new HashMap<>();
+        private int poolCount = 1;
+
+        private final ByteArrayOutputStream codeBytes = new ByteArrayOutputStream();
+        private final DataOutputStream code = new DataOutputStream(codeBytes);
+
+        private final Map<double[], Integer> columnIndex = new IdentityHashMap<>();
+        final List<double[]> columns = new ArrayList<>();
+
+        /**
+         * Writes the class file.
+         *
+         * @return The class file, or null if the method would be too large.
+         */
+        byte[] write(Expr expr) {
+            try {
+                int maxStack = emit(expr);
+                code.writeByte(DRETURN);
+                if (codeBytes.size() > MAX_CODE_LENGTH) {
+                    return null;
+                }
+                byte[] applyCode = codeBytes.toByteArray();
+
+                codeBytes.reset();
+                code.writeByte(ALOAD_0);
+                code.writeByte(INVOKESPECIAL);
+                code.writeShort(methodRef("java/lang/Object", "<init>", "()V"));
+                code.writeByte(ALOAD_0);
+                code.writeByte(ALOAD_1);
+                code.writeByte(PUTFIELD);
+                code.writeShort(fieldRef());
+                code.writeByte(RETURN);
+                byte[] constructorCode = codeBytes.toByteArray();
+
+                int thisClass = classRef(CLASS_NAME);
+                int superClass = classRef("java/lang/Object");
+                int intf = classRef("java/util/function/IntToDoubleFunction");
+                int fieldName = utf8(COLUMNS);
+                int fieldDescriptor = utf8(COLUMNS_DESCRIPTOR);
+                int codeName = utf8("Code");
+                int initName = utf8("<init>");
+                int initDescriptor = utf8("(" + COLUMNS_DESCRIPTOR + ")V");
+                int applyName = utf8("applyAsDouble");
+                int applyDescriptor = utf8("(I)D");
+
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bytes);
+                out.writeInt(0xCAFEBABE);
+                out.writeShort(0);
+                out.writeShort(CLASS_FILE_VERSION);
+                out.writeShort(poolCount);
+                poolBytes.writeTo(out);
+                out.writeShort(0x0031); // ACC_PUBLIC | ACC_FINAL | ACC_SUPER
+                out.writeShort(thisClass);
+                out.writeShort(superClass);
+                out.writeShort(1);
+                out.writeShort(intf);
+
+                out.writeShort(1);
+                out.writeShort(0x0012); // ACC_PRIVATE | ACC_FINAL
+                out.writeShort(fieldName);
+                out.writeShort(fieldDescriptor);
+                out.writeShort(0);
+
+                out.writeShort(2);
+                writeMethod(out, initName, initDescriptor, codeName, 2, constructorCode);
+                writeMethod(out, applyName, applyDescriptor, codeName, maxStack, applyCode);
+                out.writeShort(0);
+                return bytes.toByteArray();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private static void writeMethod(DataOutputStream out, int name, int descriptor, int codeName, int maxStack,
+                                        byte[] code) throws IOException {
+            out.writeShort(0x0001); // ACC_PUBLIC
+            out.writeShort(name);
+            out.writeShort(descriptor);
+            out.writeShort(1);
+            out.writeShort(codeName);
+            out.writeInt(12 + code.length);
+            out.writeShort(maxStack);
+            out.writeShort(2); // this and the member ordinal, or the columns
+            out.writeInt(code.length);
+            out.write(code);
+            out.writeShort(0);
+            out.writeShort(0);
+        }
+
+        /**
+         * Emits the code that pushes the value of an expression.
+         *
+         * @return The maximum operand stack depth of the code, in slots.
+         */
+        private int emit(Expr expr) throws IOException {
+            if (expr instanceof ConstantValue constant) {
+                double value = constant.value();
+                if (Double.doubleToRawLongBits(value) == 0L) {
+                    code.writeByte(DCONST_0);
+                } else if (value == 1.0) {
+                    code.writeByte(DCONST_1);
+                } else {
+                    code.writeByte(LDC2_W);
+                    code.writeShort(doubleConstant(value));
+                }
+                return 2;
+            } else if (expr instanceof Column column) {
+                code.writeByte(ALOAD_0);
+                code.writeByte(GETFIELD);
+                code.writeShort(fieldRef());
+                pushInt(columnIndex.computeIfAbsent(column.values(), values -> {
+                    columns.add(values);
+                    return columns.size() - 1;
+                }));
+                code.writeByte(AALOAD);
+                code.writeByte(ILOAD_1);
+                code.writeByte(INVOKESTATIC);
+                code.writeShort(methodRef(HELPER, "column", "([DI)D"));
+                return 2;
+            }
+
+            Apply apply = (Apply) expr;
+            Operation operation = apply.operation();
+            int maxStack = emit(apply.left());
+            if (apply.right() != null) {
+                maxStack = Math.max(maxStack, 2 + emit(apply.right()));
+            }
+
+            if (operation.opcode >= 0) {
+                code.writeByte(operation.opcode);
+            } else {
+                code.writeByte(INVOKESTATIC);
+                code.writeShort(methodRef(operation.owner, operation.method, operation.isUnary() ? "(D)D" : "(DD)D"));
+            }
+            return maxStack;
+        }
+
+        private void pushInt(int value) throws IOException {
+            if (value <= 5) {
+                code.writeByte(ICONST_0 + value);
+            } else if (value <= Byte.MAX_VALUE) {
+                code.writeByte(BIPUSH);
+                code.writeByte(value);
+            } else if (value <= Short.MAX_VALUE) {
+                code.writeByte(SIPUSH);
+                code.writeShort(value);
+            } else {
+                code.writeByte(LDC_W);
+                code.writeShort(constant("I" + value, 3, () -> pool.writeInt(value)));
+            }
+        }
+
+        private int fieldRef() throws IOException {
+            int owner = classRef(CLASS_NAME);
+            int nameAndType = nameAndType(COLUMNS, COLUMNS_DESCRIPTOR);
+            return constant("F", 9, () -> {
+                pool.writeShort(owner);
+                pool.writeShort(nameAndType);
+            });
+        }
+
+        private int methodRef(String ownerName, String name, String descriptor) throws IOException {
+            int owner = classRef(ownerName);
+            int nameAndType = nameAndType(name, descriptor);
+            return constant("M" + ownerName + "." + name + descriptor, 10, () -> {
+                pool.writeShort(owner);
+                pool.writeShort(nameAndType);
+            });
+        }
+
+        private int nameAndType(String name, String descriptor) throws IOException {
+            int nameIndex = utf8(name);
+            int descriptorIndex = utf8(descriptor);
+            return constant("N" + name + ":" + descriptor, 12, () -> {
+                pool.writeShort(nameIndex);
+                pool.writeShort(descriptorIndex);
+            });
+        }
+
+        private int classRef(String name) throws IOException {
+            int nameIndex = utf8(name);
+            return constant("C" + name, 7, () -> pool.writeShort(nameIndex));
+        }
+
+        private int utf8(String value) throws IOException {
+            return constant("U" + value, 1, () -> pool.writeUTF(value));
+        }
+
+        private int doubleConstant(double value) throws IOException {
+            long bits = Double.doubleToRawLongBits(value);
+            Integer index = poolIndex.get("D" + bits);
+            if (index == null) {
+                index = constant("D" + bits, 6, () -> pool.writeLong(bits));
+                poolCount++; // A double takes two entries.
+            }
+            return index;
+        }
+
+        @FunctionalInterface
+        private interface PoolEntry {
+            void write() throws IOException;
+        }
+
+        private int constant(String key, int tag, PoolEntry entry) throws IOException {
+            Integer index = poolIndex.get(key);
+            if (index == null) {
+                index = poolCount++;
+                pool.writeByte(tag);
+                entry.write();
+                poolIndex.put(key, index);
+            }
+            return index;
+        }
+    }
+}
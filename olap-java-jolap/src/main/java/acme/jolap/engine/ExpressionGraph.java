@@ -0,0 +1,408 @@
+package acme.jolap.engine;
+
+import javax.olap.OLAPException;
+import javax.olap.query.calculatedmembers.CalculatedMember;
+import javax.olap.query.calculatedmembers.NullHandling;
+import javax.olap.query.calculatedmembers.OrdinateOperator;
+import javax.olap.query.querycoremodel.AttributeReference;
+import javax.olap.query.querycoremodel.Constant;
+import javax.olap.query.querycoremodel.DerivedAttributeReference;
+import javax.olap.query.querycoremodel.LiteralReference;
+import javax.olap.query.querycoremodel.MemberReference;
+import javax.olap.query.querycoremodel.OperatorReference;
+import javax.olap.query.querycoremodel.QualifiedMemberReference;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The expressions of the calculated members of a CubeView as one graph in
+ * which identical subexpressions are shared.
+ * Each OrdinateOperator and each operator input is reduced to a canonical
+ * key: the operator name, its null handling and the node ids of its inputs,
+ * sorted for commutative operators. Nodes are hash-consed on that key, so
+ * two ratios with the same denominator, or a calculated member referenced
+ * by several others, are one node.
+ * <p>
+ * Node ids are assigned after the ids of their inputs, so evaluating the
+ * nodes in id order computes every shared subexpression once per cell
+ * block and before its consumers. See {@link #compile}.
+ */
+public final class ExpressionGraph {
+    /**
+     * The operators whose inputs can be reordered, by name.
+     */
+    public static final Set<String> DEFAULT_COMMUTATIVE = Set.of("Add", "Multiply");
+
+    /**
+     * The kinds of leaves of the graph.
+     */
+    public enum LeafKind {
+        MEMBER, QUALIFIED_MEMBER, ATTRIBUTE, DERIVED_ATTRIBUTE
+    }
+
+    /**
+     * A leaf of the graph, read from the cube by a LeafLoader.
+     *
+     * @param kind  The kind of the leaf.
+     * @param value The Member, the Collection of members of a
+     *              QualifiedMemberReference, the Attribute or the
+     *              DerivedAttribute.
+     */
+    public record Leaf(LeafKind kind, Object value) {
+    }
+
+    /**
+     * Computes one operator over a block of cells.
+     */
+    @FunctionalInterface
+    public interface Kernel {
+        /**
+         * Computes the operator for each cell of a block.
+         *
+         * @param inputs The values of each input, NaN for null cells.
+         * @param output The array receiving the result, NaN for null.
+         * @param length The number of cells of the block.
+         */
+        void apply(double[][] inputs, double[] output, int length);
+    }
+
+    /**
+     * Resolves the Kernel of an operator.
+     */
+    @FunctionalInterface
+    public interface KernelResolver {
+        /**
+         * Gets the Kernel of an operator.
+         *
+         * @param operator The name of the operator.
+         * @param arity    The number of inputs.
+         * @return The Kernel.
+         * @throws OLAPException If the operator is not supported.
+         */
+        Kernel resolve(String operator, int arity) throws OLAPException;
+    }
+
+    /**
+     * Reads the values of a leaf for a block of cells.
+     */
+    @FunctionalInterface
+    public interface LeafLoader {
+        /**
+         * Reads the values of a leaf.
+         *
+         * @param leaf   The leaf.
+         * @param from   The position of the first cell of the block.
+         * @param output The array receiving the values, NaN for null.
+         * @param length The number of cells of the block.
+         * @throws OLAPException If the values cannot be read.
+         */
+        void load(Leaf leaf, int from, double[] output, int length) throws OLAPException;
+    }
+
+    /**
+     * Evaluates the graph block by block. The nodes and roots are those of
+     * the graph when it was compiled; members added later are not evaluated.
+     * Not thread safe; compile one BlockEvaluator per thread.
+     */
+    public static final class BlockEvaluator {
+        private final Node[] nodes;
+        private final int[] lastUse;
+        private final int[] roots;
+        private final Kernel[] kernels;
+        private final LeafLoader leaves;
+
+        private BlockEvaluator(Node[] nodes, int[] lastUse, int[] roots, Kernel[] kernels, LeafLoader leaves) {
+            this.nodes = nodes;
+            this.lastUse = lastUse;
+            this.roots = roots;
+            this.kernels = kernels;
+            this.leaves = leaves;
+        }
+
+        /**
+         * Evaluates every node once for a block of cells.
+         *
+         * @param from   The position of the first cell of the block.
+         * @param length The number of cells of the block.
+         * @return The values of each calculated member, in the order of
+         *         {@link ExpressionGraph#getMembers()} at compile time.
+         * @throws OLAPException If a leaf cannot be read.
+         */
+        public double[][] evaluate(int from, int length) throws OLAPException {
+            int n = nodes.length;
+            double[][] values = new double[n][];
+            ArrayDeque<double[]> pool = new ArrayDeque<>();
+
+            for (int id = 0; id < n; id++) {
+                Node node = nodes[id];
+                double[] output = pool.isEmpty() ? new double[length] : pool.pop();
+
+                if (node.leaf != null) {
+                    leaves.load(node.leaf, from, output, length);
+                } else if (node.operator == null) {
+                    Arrays.fill(output, 0, length, node.constant);
+                } else {
+                    double[][] inputs = new double[node.inputs.length][];
+                    for (int i = 0; i < inputs.length; i++) {
+                        inputs[i] = values[node.inputs[i]];
+                        if (node.nullAsZero) {
+                            inputs[i] = nullAsZero(inputs[i], length);
+                        }
+                    }
+                    kernels[id].apply(inputs, output, length);
+                }
+                values[id] = output;
+
+                // Recycle the inputs that no later node reads.
+                for (int input : node.inputs) {
+                    if (lastUse[input] == id && values[input] != null) {
+                        pool.push(values[input]);
+                        values[input] = null;
+                    }
+                }
+            }
+
+            double[][] result = new double[roots.length][];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = values[roots[i]];
+            }
+            return result;
+        }
+
+        private double[] nullAsZero(double[] values, int length) {
+            double[] copy = null;
+            for (int i = 0; i < length; i++) {
+                if (Double.isNaN(values[i])) {
+                    if (copy == null) {
+                        copy = Arrays.copyOf(values, length);
+                    }
+                    copy[i] = 0;
+                }
+            }
+            return (copy == null) ? values : copy;
+        }
+    }
+
+    private static final int ROOT = Integer.MAX_VALUE;
+
+    /**
+     * A node: a leaf, a literal, or an operator over the nodes in inputs.
+     */
+    private record Node(String operator, boolean nullAsZero, int[] inputs, Leaf leaf, double constant) {
+    }
+
+    /**
+     * The canonical key of a node.
+     */
+    private record Key(String operator, boolean nullAsZero, List<Integer> inputs, Object leaf) {
+    }
+
+    private final Set<String> commutative;
+    private final List<Node> nodes = new ArrayList<>();
+    private final Map<Key, Integer> ids = new HashMap<>();
+    private final Map<OrdinateOperator, Integer> operators = new IdentityHashMap<>();
+    private final Map<CalculatedMember, Integer> memberRoots = new IdentityHashMap<>();
+    private final Set<OrdinateOperator> active = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    private final List<CalculatedMember> members = new ArrayList<>();
+    private final List<Integer> roots = new ArrayList<>();
+    private int sharedCount;
+
+    /**
+     * Creates an empty graph.
+     *
+     * @param commutative The names of the operators whose inputs can be
+     *                    reordered.
+     */
+    public ExpressionGraph(Set<String> commutative) {
+        this.commutative = Set.copyOf(commutative);
+    }
+
+    /**
+     * Builds the graph of the calculated members of a plan, in solve order,
+     * so that a calculated member referenced by another one is shared
+     * instead of being recomputed.
+     *
+     * @param plan The CalculationPlan.
+     * @return The graph.
+     * @throws OLAPException If an expression cannot be read.
+     */
+    public static ExpressionGraph build(CalculationPlan plan) throws OLAPException {
+        ExpressionGraph graph = new ExpressionGraph(DEFAULT_COMMUTATIVE);
+        for (List<CalculatedMember> level : plan.getLevels()) {
+            for (CalculatedMember member : level) {
+                graph.add(member);
+            }
+        }
+        return graph;
+    }
+
+    /**
+     * Adds the expression of a calculated member.
+     *
+     * @param member The calculated member.
+     * @return The id of the root node of its expression.
+     * @throws OLAPException If the expression cannot be read or is not
+     *                       supported.
+     */
+    public int add(CalculatedMember member) throws OLAPException {
+        Integer root = memberRoots.get(member);
+        if (root != null) {
+            return root;
+        }
+
+        OrdinateOperator operator = member.getOperator();
+        if (operator == null) {
+            throw new OLAPException("Calculated member " + member.getName() + " has no operator");
+        }
+
+        root = intern(operator);
+        memberRoots.put(member, root);
+        members.add(member);
+        roots.add(root);
+        return root;
+    }
+
+    /**
+     * Gets the calculated members, in the order of the results of a
+     * BlockEvaluator.
+     *
+     * @return The calculated members.
+     */
+    public List<CalculatedMember> getMembers() {
+        return Collections.unmodifiableList(members);
+    }
+
+    /**
+     * Gets the number of distinct nodes.
+     *
+     * @return The number of nodes.
+     */
+    public int getNodeCount() {
+        return nodes.size();
+    }
+
+    /**
+     * Gets the number of times an input resolved to an existing node
+     * instead of a new one.
+     *
+     * @return The number of shared inputs.
+     */
+    public int getSharedCount() {
+        return sharedCount;
+    }
+
+    /**
+     * Resolves the Kernel of every operator node once and prepares the
+     * evaluation of the graph.
+     *
+     * @param kernels The KernelResolver.
+     * @param leaves  The LeafLoader.
+     * @return The BlockEvaluator.
+     * @throws OLAPException If an operator is not supported.
+     */
+    public BlockEvaluator compile(KernelResolver kernels, LeafLoader leaves) throws OLAPException {
+        Node[] snapshot = nodes.toArray(new Node[0]);
+        Kernel[] resolved = new Kernel[snapshot.length];
+        for (int id = 0; id < resolved.length; id++) {
+            Node node = snapshot[id];
+            if (node.operator != null) {
+                resolved[id] = kernels.resolve(node.operator, node.inputs.length);
+            }
+        }
+
+        int[] rootIds = roots.stream().mapToInt(Integer::intValue).toArray();
+        int[] lastUse = new int[snapshot.length];
+        for (int id = 0; id < lastUse.length; id++) {
+            for (int input : snapshot[id].inputs) {
+                lastUse[input] = id;
+            }
+        }
+        for (int root : rootIds) {
+            lastUse[root] = ROOT;
+        }
+        return new BlockEvaluator(snapshot, lastUse, rootIds, resolved, leaves);
+    }
+
+    private int intern(OrdinateOperator operator) throws OLAPException {
+        Integer known = operators.get(operator);
+        if (known != null) {
+            sharedCount++;
+            return known;
+        }
+        if (!active.add(operator)) {
+            throw new OLAPException("Operator " + operator.getName() + " references itself");
+        }
+
+        List<?> inputs = operator.getInput();
+        Integer[] children = new Integer[inputs.size()];
+        for (int i = 0; i < children.length; i++) {
+            children[i] = internInput(inputs.get(i));
+        }
+        active.remove(operator);
+
+        String name = String.valueOf(operator.getOperator());
+        if (commutative.contains(name)) {
+            Arrays.sort(children);
+        }
+
+        NullHandling nullHandling = operator.getNullHandling();
+        boolean nullAsZero = nullHandling != null && nullHandling.isNullAsZero();
+        int[] ints = Arrays.stream(children).mapToInt(Integer::intValue).toArray();
+        int id = node(new Key(name, nullAsZero, List.of(children), null),
+                new Node(name, nullAsZero, ints, null, Double.NaN));
+        operators.put(operator, id);
+        return id;
+    }
+
+    private int internInput(Object input) throws OLAPException {
+        if (input instanceof OperatorReference reference) {
+            return intern(reference.getOperator());
+        } else if (input instanceof MemberReference reference) {
+            if (reference.getMember() instanceof CalculatedMember calculated) {
+                return add(calculated);
+            }
+            return leaf(new Leaf(LeafKind.MEMBER, reference.getMember()));
+        } else if (input instanceof QualifiedMemberReference reference) {
+            @SuppressWarnings("unchecked")
+            List<Object> qualified = List.copyOf(reference.getMember());
+            return leaf(new Leaf(LeafKind.QUALIFIED_MEMBER, qualified));
+        } else if (input instanceof AttributeReference reference) {
+            return leaf(new Leaf(LeafKind.ATTRIBUTE, reference.getAttribute()));
+        } else if (input instanceof DerivedAttributeReference reference) {
+            return leaf(new Leaf(LeafKind.DERIVED_ATTRIBUTE, reference.getDerivedAttribute()));
+        } else if (input instanceof LiteralReference reference) {
+            Constant literal = reference.getLiteral();
+            Object value = (literal == null) ? null : literal.getValue();
+            double constant = (value instanceof Number number) ? number.doubleValue() : Double.NaN;
+            // Keyed by the bits so that NaN and -0.0 are distinct and equal to themselves.
+            return node(new Key(null, false, List.of(), Double.doubleToLongBits(constant)),
+                    new Node(null, false, new int[0], null, constant));
+        }
+        throw new OLAPException("Unsupported operator input " + input);
+    }
+
+    private int leaf(Leaf leaf) {
+        return node(new Key(null, false, List.of(), leaf), new Node(null, false, new int[0], leaf, Double.NaN));
+    }
+
+    private int node(Key key, Node node) {
+        Integer id = ids.get(key);
+        if (id != null) {
+            sharedCount++;
+            return id;
+        }
+
+        id = nodes.size();
+        nodes.add(node);
+        ids.put(key, id);
+        return id;
+    }
+}
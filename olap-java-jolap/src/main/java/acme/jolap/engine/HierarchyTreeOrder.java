@@ -0,0 +1,255 @@
+package acme.jolap.engine;
+
+import javax.olap.query.enumerations.HierarchicalSortType;
+import javax.olap.query.enumerations.HierarchicalSortTypeEnum;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.function.IntConsumer;
+
+/**
+ * The tree order of the members of one hierarchy.
+ * Members are identified by their ordinals, from 0 to size() - 1.
+ * Stores the children of every member and the pre-order and post-order
+ * position of every member, so that a HierarchicalSort can be produced by a
+ * single walk of the tree instead of a global sort with comparisons that walk
+ * up the ancestors of each member.
+ * <p>
+ * When a DataBasedSort or an AttributeSort applies within the hierarchy, only
+ * the children of one parent are sorted at a time, so ordering n members
+ * costs O(n log k), where k is the largest number of siblings.
+ * <p>
+ * Instances are immutable and can be shared between threads.
+ */
+public final class HierarchyTreeOrder {
+    /**
+     * The parent ordinal of each member, or -1 for a root member.
+     */
+    private final int[] parents;
+
+    /**
+     * The offsets of the child lists in the children array.
+     * The children of the member with ordinal m are at
+     * [childStart[m + 1], childStart[m + 2]); the roots are at
+     * [childStart[0], childStart[1]).
+     */
+    private final int[] childStart;
+    private final int[] children;
+
+    private final int[] preOrder;
+    private final int[] postOrder;
+    private final int maxDepth;
+
+    /**
+     * Creates the tree order of a hierarchy.
+     *
+     * @param parents The parent ordinal of each member, or -1 for a root member.
+     * @throws IllegalArgumentException If a parent ordinal is out of range or
+     *                                  the parents do not form a tree.
+     */
+    public HierarchyTreeOrder(int[] parents) {
+        int size = parents.length;
+        this.parents = parents.clone();
+
+        childStart = new int[size + 2];
+        for (int parent : this.parents) {
+            if (parent < -1 || parent >= size) {
+                throw new IllegalArgumentException("Parent ordinal " + parent + " is out of range");
+            }
+            childStart[parent + 2]++;
+        }
+        for (int i = 1; i < childStart.length; i++) {
+            childStart[i] += childStart[i - 1];
+        }
+
+        children = new int[size];
+        int[] fill = new int[size + 1];
+        for (int member = 0; member < size; member++) {
+            int slot = this.parents[member] + 1;
+            children[childStart[slot] + fill[slot]++] = member;
+        }
+
+        preOrder = new int[size];
+        postOrder = new int[size];
+
+        int[] depth = {0};
+        int[] counters = new int[2];
+        walk(true, null, null, member -> preOrder[member] = counters[0]++, depth);
+        walk(false, null, null, member -> postOrder[member] = counters[1]++, depth);
+
+        if (counters[0] != size) {
+            throw new IllegalArgumentException("The parent ordinals contain a cycle");
+        }
+        maxDepth = depth[0];
+    }
+
+    /**
+     * Gets the number of members in the hierarchy.
+     *
+     * @return The number of members.
+     */
+    public int size() {
+        return parents.length;
+    }
+
+    /**
+     * Gets the parent of a member.
+     *
+     * @param member The ordinal of the member.
+     * @return The ordinal of the parent, or -1 if the member is a root.
+     */
+    public int getParent(int member) {
+        return parents[member];
+    }
+
+    /**
+     * Gets the position of a member in a parents-first walk of the hierarchy.
+     *
+     * @param member The ordinal of the member.
+     * @return The pre-order position of the member.
+     */
+    public int getPreOrder(int member) {
+        return preOrder[member];
+    }
+
+    /**
+     * Gets the position of a member in a children-first walk of the hierarchy.
+     *
+     * @param member The ordinal of the member.
+     * @return The post-order position of the member.
+     */
+    public int getPostOrder(int member) {
+        return postOrder[member];
+    }
+
+    /**
+     * Gets the depth of the deepest member; root members have depth 1.
+     *
+     * @return The depth of the hierarchy.
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Specifies whether one member is an ancestor of another member.
+     * Answered in constant time from the pre-order and post-order positions.
+     *
+     * @param ancestor   The ordinal of the possible ancestor.
+     * @param descendant The ordinal of the possible descendant.
+     * @return true if ancestor is a proper ancestor of descendant.
+     */
+    public boolean isAncestor(int ancestor, int descendant) {
+        return preOrder[ancestor] < preOrder[descendant] && postOrder[descendant] < postOrder[ancestor];
+    }
+
+    /**
+     * Gets the members of the hierarchy in hierarchical order.
+     *
+     * @param type         PARENTS_FIRST or CHILDREN_FIRST.
+     * @param siblingOrder The order of the children of the same parent, or null
+     *                     to keep the natural ordinal order.
+     * @return The ordinals of all members in hierarchical order.
+     */
+    public int[] order(HierarchicalSortType type, OrdinalComparator siblingOrder) {
+        return order(type, siblingOrder, null);
+    }
+
+    /**
+     * Gets the selected members of the hierarchy in hierarchical order.
+     * Members that are not selected are not returned, but their selected
+     * descendants keep their place under them.
+     *
+     * @param type         PARENTS_FIRST or CHILDREN_FIRST.
+     * @param siblingOrder The order of the children of the same parent, or null
+     *                     to keep the natural ordinal order.
+     * @param selected     The selected ordinals, or null to select all members.
+     * @return The ordinals of the selected members in hierarchical order.
+     */
+    public int[] order(HierarchicalSortType type, OrdinalComparator siblingOrder, BitSet selected) {
+        int[] result = new int[selected == null ? size() : selected.cardinality()];
+        int[] count = {0};
+        forEach(type, siblingOrder, selected, member -> result[count[0]++] = member);
+        return (count[0] == result.length) ? result : Arrays.copyOf(result, count[0]);
+    }
+
+    /**
+     * Passes the selected members of the hierarchy to an action in
+     * hierarchical order, without materializing the ordered list.
+     *
+     * @param type         PARENTS_FIRST or CHILDREN_FIRST.
+     * @param siblingOrder The order of the children of the same parent, or null
+     *                     to keep the natural ordinal order.
+     * @param selected     The selected ordinals, or null to select all members.
+     * @param action       The action that receives each member ordinal.
+     */
+    public void forEach(HierarchicalSortType type, OrdinalComparator siblingOrder, BitSet selected,
+                        IntConsumer action) {
+        boolean parentsFirst = !HierarchicalSortTypeEnum.CHILDREN_FIRST.equals(type);
+        IntConsumer emit = (selected == null) ? action : member -> {
+            if (selected.get(member)) {
+                action.accept(member);
+            }
+        };
+
+        walk(parentsFirst, siblingOrder, new int[size()], emit, null);
+    }
+
+    /**
+     * Walks the tree without recursion, so that deep parent-child hierarchies
+     * cannot overflow the stack.
+     * The sorted children of every member on the current path are kept in
+     * one work array, used as a stack of sibling groups.
+     */
+    private void walk(boolean parentsFirst, OrdinalComparator siblingOrder, int[] scratch,
+                      IntConsumer action, int[] depthOut) {
+        int size = size();
+        int[] work = new int[size];
+        int frames = (maxDepth > 0 ? maxDepth : size) + 1;
+        int[] frameMember = new int[frames];
+        int[] frameCursor = new int[frames];
+        int[] frameEnd = new int[frames];
+
+        int top = 0;
+        int deepest = 0;
+        frameMember[0] = -1;
+        frameCursor[0] = 0;
+        frameEnd[0] = pushChildren(-1, work, 0, siblingOrder, scratch);
+
+        while (top >= 0) {
+            if (frameCursor[top] < frameEnd[top]) {
+                int member = work[frameCursor[top]++];
+                if (parentsFirst) {
+                    action.accept(member);
+                }
+
+                int start = frameEnd[top];
+                top++;
+                deepest = Math.max(deepest, top);
+                frameMember[top] = member;
+                frameCursor[top] = start;
+                frameEnd[top] = pushChildren(member, work, start, siblingOrder, scratch);
+            } else {
+                int member = frameMember[top];
+                if (!parentsFirst && member >= 0) {
+                    action.accept(member);
+                }
+                top--;
+            }
+        }
+
+        if (depthOut != null) {
+            depthOut[0] = deepest;
+        }
+    }
+
+    private int pushChildren(int member, int[] work, int free, OrdinalComparator siblingOrder, int[] scratch) {
+        int from = childStart[member + 1];
+        int count = childStart[member + 2] - from;
+        System.arraycopy(children, from, work, free, count);
+
+        if (siblingOrder != null) {
+            Ordinals.sort(work, free, free + count, siblingOrder, scratch);
+        }
+        return free + count;
+    }
+}
@@ -0,0 +1,81 @@
+package acme.jolap.engine;
+
+import javax.olap.OLAPException;
+import javax.olap.metadata.LevelBasedHierarchy;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Keeps the HierarchyTreeOrder of each LevelBasedHierarchy, so that the tree
+ * is walked once per hierarchy rather than once per HierarchicalSort.
+ * Entries are released when their hierarchy is no longer referenced.
+ */
+public class HierarchyTreeOrders {
+    /**
+     * Loads the parent ordinals of the members of a hierarchy.
+     */
+    @FunctionalInterface
+    public interface ParentLoader {
+        /**
+         * Gets the parent ordinal of each member of the hierarchy.
+         *
+         * @param hierarchy The hierarchy whose members to load.
+         * @return The parent ordinal of each member, or -1 for a root member.
+         * @throws OLAPException If the members cannot be read.
+         */
+        int[] loadParents(LevelBasedHierarchy hierarchy) throws OLAPException;
+    }
+
+    private final Map<LevelBasedHierarchy, HierarchyTreeOrder> orders =
+            Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final ParentLoader loader;
+
+    /**
+     * Creates an empty set of tree orders.
+     *
+     * @param loader The ParentLoader used for hierarchies that have no tree
+     *               order yet.
+     */
+    public HierarchyTreeOrders(ParentLoader loader) {
+        this.loader = loader;
+    }
+
+    /**
+     * Gets the tree order of a hierarchy, building it on first use.
+     *
+     * @param hierarchy The hierarchy.
+     * @return The tree order of the hierarchy.
+     * @throws OLAPException If the members of the hierarchy cannot be read.
+     */
+    public HierarchyTreeOrder get(LevelBasedHierarchy hierarchy) throws OLAPException {
+        HierarchyTreeOrder order = orders.get(hierarchy);
+
+        if (order == null) {
+            // Built outside the lock; a concurrent builder produces an equal order.
+            order = new HierarchyTreeOrder(loader.loadParents(hierarchy));
+            HierarchyTreeOrder existing = orders.putIfAbsent(hierarchy, order);
+            if (existing != null) {
+                order = existing;
+            }
+        }
+        return order;
+    }
+
+    /**
+     * Discards the tree order of a hierarchy whose members have changed.
+     *
+     * @param hierarchy The hierarchy.
+     */
+    public void invalidate(LevelBasedHierarchy hierarchy) {
+        orders.remove(hierarchy);
+    }
+
+    /**
+     * Discards all tree orders.
+     */
+    public void clear() {
+        orders.clear();
+    }
+}
@@ -0,0 +1,174 @@
+package acme.jolap.engine;
+
+import javax.olap.OLAPException;
+import javax.olap.query.querycoremodel.DimensionStep;
+import javax.olap.query.querycoremodel.DimensionStepManager;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The member selection of one DimensionView and the cells computed for it,
+ * maintained across edits of its steps.
+ * When the new steps start with the steps of the previous evaluation, as
+ * after DimensionStepManager.createDimensionStepAfter on the last step,
+ * only the added steps are compiled and applied to the previous selection.
+ * When the new selection is contained in the previous one, the previous
+ * CellBlock is sliced instead of being discarded, so a drill-and-filter
+ * edit does not recompute the cube.
+ * <p>
+ * Steps are compared by identity: a step modified in place is not
+ * detected, and {@link #invalidate} must be called after such a change.
+ * This class is not thread safe.
+ */
+public final class IncrementalSelection {
+    private final StepBinder binder;
+
+    private List<DimensionStep> steps;
+    private int[] selection;
+    private CellBlock block;
+    private int blockDimension;
+    private boolean incremental;
+
+    /**
+     * Creates an empty selection.
+     *
+     * @param binder The StepBinder of the dimension.
+     */
+    public IncrementalSelection(StepBinder binder) {
+        this.binder = binder;
+    }
+
+    /**
+     * Evaluates the steps of a DimensionStepManager, reusing the previous
+     * evaluation when the steps were only appended to.
+     *
+     * @param manager       The DimensionStepManager.
+     * @param dimensionSize The number of members in the dimension.
+     * @return The ordinals of the selected members, in order. The array
+     *         must not be modified.
+     * @throws OLAPException If a step cannot be read or bound.
+     */
+    public int[] update(DimensionStepManager manager, int dimensionSize) throws OLAPException {
+        List<DimensionStep> newSteps = new ArrayList<>();
+        DimensionStepPipeline.flatten(manager.getDimensionStep(), newSteps);
+        return update(newSteps, dimensionSize);
+    }
+
+    /**
+     * Evaluates an ordered list of steps, reusing the previous evaluation
+     * when the steps were only appended to.
+     *
+     * @param newSteps      The steps, with CompoundDimensionStep objects
+     *                      already expanded.
+     * @param dimensionSize The number of members in the dimension.
+     * @return The ordinals of the selected members, in order. The array
+     *         must not be modified.
+     * @throws OLAPException If a step cannot be read or bound.
+     */
+    public int[] update(List<DimensionStep> newSteps, int dimensionSize) throws OLAPException {
+        int[] previous = selection;
+        incremental = previous != null && isPrefix(steps, newSteps);
+
+        if (incremental) {
+            if (newSteps.size() > steps.size()) {
+                DimensionStepPipeline delta =
+                        DimensionStepPipeline.compile(newSteps.subList(steps.size(), newSteps.size()), binder);
+                selection = delta.evaluate(previous, dimensionSize);
+            }
+        } else {
+            selection = DimensionStepPipeline.compile(newSteps, binder).evaluate(dimensionSize);
+        }
+        steps = List.copyOf(newSteps);
+
+        if (block != null && previous != null && selection != previous) {
+            block = narrow(block, previous, selection);
+        }
+        return selection;
+    }
+
+    /**
+     * Specifies whether the last update reused the previous selection.
+     *
+     * @return true if only the added steps were evaluated.
+     */
+    public boolean wasIncremental() {
+        return incremental;
+    }
+
+    /**
+     * Gets the current selection.
+     *
+     * @return The ordinals of the selected members, or null before the first
+     *         update.
+     */
+    public int[] getSelection() {
+        return selection;
+    }
+
+    /**
+     * Gets the cells of the current selection.
+     *
+     * @return The cells, or null if they must be computed because the
+     *         selection gained members since they were set.
+     */
+    public CellBlock getBlock() {
+        return block;
+    }
+
+    /**
+     * Sets the cells computed for the current selection.
+     *
+     * @param block     The cells.
+     * @param dimension The index of this DimensionView in the storage order
+     *                  of the block; its positions follow the selection.
+     */
+    public void setBlock(CellBlock block, int dimension) {
+        this.block = block;
+        blockDimension = dimension;
+    }
+
+    /**
+     * Discards the selection and the cells, so that the next update
+     * evaluates all steps.
+     */
+    public void invalidate() {
+        steps = null;
+        selection = null;
+        block = null;
+    }
+
+    /**
+     * Slices the block down to a new selection contained in the previous
+     * one, or returns null if a member was added.
+     */
+    private CellBlock narrow(CellBlock cells, int[] previous, int[] current) {
+        Map<Integer, Integer> positions = new HashMap<>(previous.length * 2);
+        for (int i = 0; i < previous.length; i++) {
+            positions.put(previous[i], i);
+        }
+
+        int[] kept = new int[current.length];
+        for (int i = 0; i < current.length; i++) {
+            Integer position = positions.get(current[i]);
+            if (position == null) {
+                return null;
+            }
+            kept[i] = position;
+        }
+        return cells.slice(blockDimension, kept);
+    }
+
+    private static boolean isPrefix(List<DimensionStep> prefix, List<DimensionStep> steps) {
+        if (prefix == null || prefix.size() > steps.size()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.size(); i++) {
+            if (prefix.get(i) != steps.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
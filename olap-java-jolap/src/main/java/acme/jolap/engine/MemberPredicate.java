@@ -0,0 +1,26 @@
+package acme.jolap.engine;
+
+/**
+ * Tests whether a dimension member, identified by its ordinal, satisfies a
+ * filter condition.
+ */
+@FunctionalInterface
+public interface MemberPredicate {
+    /**
+     * Tests the member with the specified ordinal.
+     *
+     * @param member The ordinal of the member.
+     * @return true if the member satisfies the condition.
+     */
+    boolean test(int member);
+
+    /**
+     * Gets a predicate that is satisfied by the members that do not satisfy
+     * this predicate.
+     *
+     * @return The negated predicate.
+     */
+    default MemberPredicate negate() {
+        return member -> !test(member);
+    }
+}
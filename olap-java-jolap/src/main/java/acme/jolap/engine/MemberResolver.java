@@ -0,0 +1,20 @@
+package acme.jolap.engine;
+
+import javax.olap.OLAPException;
+import javax.olap.metadata.Member;
+
+/**
+ * Resolves the members of a dimension to their ordinals.
+ */
+@FunctionalInterface
+public interface MemberResolver {
+    /**
+     * Gets the ordinal of a member of the dimension.
+     *
+     * @param member The member.
+     * @return The ordinal of the member, or -1 if it is not a member of the
+     * dimension.
+     * @throws OLAPException If the member cannot be resolved.
+     */
+    int getOrdinal(Member member) throws OLAPException;
+}
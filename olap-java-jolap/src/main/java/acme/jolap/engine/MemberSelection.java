@@ -0,0 +1,209 @@
+package acme.jolap.engine;
+
+import javax.olap.query.enumerations.SetActionType;
+import javax.olap.query.enumerations.SetActionTypeEnum;
+import java.util.Arrays;
+
+/**
+ * An ordered selection of the members of a dimension.
+ * Membership is kept in an OrdinalBitmap and the order in an array of
+ * ordinals. The set actions of a DimensionFilter are applied to the bitmap;
+ * INTERSECTION and DIFFERENCE only mark the order as stale, and the order is
+ * compacted once when it is next read or when members are inserted at a
+ * position. A run of narrowing filters therefore costs bitmap operations
+ * only.
+ * <p>
+ * This class is not thread safe.
+ */
+public final class MemberSelection {
+    private OrdinalBitmap members;
+    private int[] order;
+    private int length;
+
+    /**
+     * true if order may contain members that are no longer selected.
+     */
+    private boolean stale;
+
+    private MemberSelection(OrdinalBitmap members, int[] order, int length) {
+        this.members = members;
+        this.order = order;
+        this.length = length;
+    }
+
+    /**
+     * Creates a selection of the specified members, in ordinal order.
+     *
+     * @param members The members to select. The bitmap is copied.
+     * @return The selection.
+     */
+    public static MemberSelection of(OrdinalBitmap members) {
+        int[] order = members.toArray();
+        return new MemberSelection(members.copy(), order, order.length);
+    }
+
+    /**
+     * Creates a selection of the specified members, in the specified order.
+     * Repeated ordinals are selected once, at their first position.
+     *
+     * @param ordered The ordinals of the members, in order.
+     * @return The selection.
+     */
+    public static MemberSelection ofOrdered(int[] ordered) {
+        OrdinalBitmap members = new OrdinalBitmap();
+        int[] order = new int[ordered.length];
+        int length = 0;
+
+        for (int member : ordered) {
+            if (members.add(member)) {
+                order[length++] = member;
+            }
+        }
+        return new MemberSelection(members, order, length);
+    }
+
+    /**
+     * Applies the set action of a DimensionFilter.
+     *
+     * @param action   The set action of the filter; null is treated as
+     *                 INTERSECTION.
+     * @param matched  The members that the filter matches. Not modified.
+     * @param position The insert position for INSERT, from 0, or -1 to insert
+     *                 at the end.
+     * @return This selection.
+     */
+    public MemberSelection apply(SetActionType action, OrdinalBitmap matched, int position) {
+        if (SetActionTypeEnum.INITIAL.equals(action)) {
+            members = matched.copy();
+            order = members.toArray();
+            length = order.length;
+            stale = false;
+        } else if (SetActionTypeEnum.APPEND.equals(action)) {
+            insert(matched, Integer.MAX_VALUE);
+        } else if (SetActionTypeEnum.PREPEND.equals(action)) {
+            insert(matched, 0);
+        } else if (SetActionTypeEnum.INSERT.equals(action)) {
+            insert(matched, (position < 0) ? Integer.MAX_VALUE : position);
+        } else if (SetActionTypeEnum.DIFFERENCE.equals(action)) {
+            members.andNot(matched);
+            stale = true;
+        } else {
+            members.and(matched);
+            stale = true;
+        }
+        return this;
+    }
+
+    /**
+     * Adds the members of a bitmap that are not selected yet, in ordinal
+     * order, at a position.
+     *
+     * @param added    The members to add. Not modified.
+     * @param position The position, from 0; clamped to the selection size.
+     * @return This selection.
+     */
+    public MemberSelection insert(OrdinalBitmap added, int position) {
+        compact();
+
+        int[] fresh = added.copy().andNot(members).toArray();
+        if (fresh.length == 0) {
+            return this;
+        }
+        members.or(added);
+
+        int at = Math.min(position, length);
+        int[] result = (length + fresh.length <= order.length) ? order : new int[length + fresh.length];
+        System.arraycopy(order, at, result, at + fresh.length, length - at);
+        if (result != order) {
+            System.arraycopy(order, 0, result, 0, at);
+        }
+        System.arraycopy(fresh, 0, result, at, fresh.length);
+
+        order = result;
+        length += fresh.length;
+        return this;
+    }
+
+    /**
+     * Gets the position of a member in the selection.
+     *
+     * @param member The ordinal of the member.
+     * @return The position, from 0, or -1 if the member is not selected.
+     */
+    public int indexOf(int member) {
+        if (!members.contains(member)) {
+            return -1;
+        }
+
+        compact();
+        for (int i = 0; i < length; i++) {
+            if (order[i] == member) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Specifies whether a member is selected.
+     *
+     * @param member The ordinal of the member.
+     * @return true if the member is selected.
+     */
+    public boolean contains(int member) {
+        return members.contains(member);
+    }
+
+    /**
+     * Gets the number of selected members.
+     *
+     * @return The number of selected members.
+     */
+    public int size() {
+        compact();
+        return length;
+    }
+
+    /**
+     * Gets the selected members as a bitmap. The bitmap must not be modified.
+     *
+     * @return The selected members.
+     */
+    public OrdinalBitmap getMembers() {
+        return members;
+    }
+
+    /**
+     * Gets the ordinals of the selected members, in order.
+     *
+     * @return A new array with the ordinals.
+     */
+    public int[] toArray() {
+        compact();
+        return Arrays.copyOf(order, length);
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+
+    /**
+     * Drops the members that are no longer selected from the order, in one
+     * pass over the previous order.
+     */
+    private void compact() {
+        if (!stale) {
+            return;
+        }
+
+        int count = 0;
+        for (int i = 0; i < length; i++) {
+            if (members.contains(order[i])) {
+                order[count++] = order[i];
+            }
+        }
+        length = count;
+        stale = false;
+    }
+}
@@ -0,0 +1,548 @@
+package acme.jolap.engine;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * A compressed set of non-negative member ordinals.
+ * Ordinals are split into chunks of 65536 by their high 16 bits. A chunk
+ * with few members is stored as a sorted array of the low 16 bits, a dense
+ * chunk as a bitmap of 1024 words, and an empty chunk is not stored at all,
+ * so sparse and dense selections both stay small.
+ * <p>
+ * Union, intersection and difference are done in place, chunk by chunk,
+ * without visiting the individual members of dense chunks.
+ * <p>
+ * This class is not thread safe.
+ */
+public final class OrdinalBitmap {
+    /**
+     * A chunk with more members than this is stored as a bitmap.
+     */
+    private static final int MAX_ARRAY_SIZE = 4096;
+    private static final int BITMAP_WORDS = 1024;
+
+    private char[] keys = new char[4];
+    private Chunk[] chunks = new Chunk[4];
+    private int size;
+
+    /**
+     * Creates an empty bitmap.
+     */
+    public OrdinalBitmap() {
+    }
+
+    /**
+     * Creates a bitmap that contains the specified ordinals.
+     *
+     * @param ordinals The ordinals.
+     * @return The bitmap.
+     */
+    public static OrdinalBitmap of(int... ordinals) {
+        OrdinalBitmap bitmap = new OrdinalBitmap();
+        for (int ordinal : ordinals) {
+            bitmap.add(ordinal);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Creates a bitmap that contains a range of ordinals.
+     *
+     * @param from The first ordinal, inclusive.
+     * @param to   The last ordinal, exclusive.
+     * @return The bitmap.
+     */
+    public static OrdinalBitmap range(int from, int to) {
+        OrdinalBitmap bitmap = new OrdinalBitmap();
+        for (int start = from; start < to; ) {
+            int key = start >>> 16;
+            int end = Math.min(to, (key + 1) << 16);
+            if (end <= 0) {
+                // The last chunk ends at 2^31.
+                end = to;
+            }
+
+            Chunk chunk = new Chunk(new long[BITMAP_WORDS], end - start);
+            for (int i = start & 0xFFFF, last = i + (end - start); i < last; i++) {
+                chunk.bits[i >>> 6] |= 1L << i;
+            }
+            bitmap.append((char) key, chunk.normalize());
+            start = end;
+        }
+        return bitmap;
+    }
+
+    /**
+     * Creates a copy of this bitmap.
+     *
+     * @return The copy.
+     */
+    public OrdinalBitmap copy() {
+        OrdinalBitmap copy = new OrdinalBitmap();
+        copy.keys = Arrays.copyOf(keys, Math.max(4, size));
+        copy.chunks = new Chunk[copy.keys.length];
+        for (int i = 0; i < size; i++) {
+            copy.chunks[i] = chunks[i].copy();
+        }
+        copy.size = size;
+        return copy;
+    }
+
+    /**
+     * Adds an ordinal.
+     *
+     * @param ordinal The ordinal, greater than or equal to 0.
+     * @return true if the ordinal was not in the bitmap.
+     */
+    public boolean add(int ordinal) {
+        if (ordinal < 0) {
+            throw new IllegalArgumentException("Negative ordinal " + ordinal);
+        }
+
+        char key = (char) (ordinal >>> 16);
+        int index = Arrays.binarySearch(keys, 0, size, key);
+        if (index < 0) {
+            index = -index - 1;
+            insert(index, key, new Chunk(new char[4], 0));
+        }
+
+        Chunk chunk = chunks[index];
+        boolean added = chunk.add((char) ordinal);
+        if (added && chunk.array != null && chunk.cardinality > MAX_ARRAY_SIZE) {
+            chunks[index] = chunk.toBitmap();
+        }
+        return added;
+    }
+
+    /**
+     * Removes an ordinal.
+     *
+     * @param ordinal The ordinal.
+     * @return true if the ordinal was in the bitmap.
+     */
+    public boolean remove(int ordinal) {
+        if (ordinal < 0) {
+            return false;
+        }
+
+        int index = Arrays.binarySearch(keys, 0, size, (char) (ordinal >>> 16));
+        if (index < 0 || !chunks[index].remove((char) ordinal)) {
+            return false;
+        }
+
+        chunks[index] = chunks[index].normalize();
+        if (chunks[index].cardinality == 0) {
+            delete(index);
+        }
+        return true;
+    }
+
+    /**
+     * Specifies whether the bitmap contains an ordinal.
+     *
+     * @param ordinal The ordinal.
+     * @return true if the ordinal is in the bitmap.
+     */
+    public boolean contains(int ordinal) {
+        if (ordinal < 0) {
+            return false;
+        }
+
+        int index = Arrays.binarySearch(keys, 0, size, (char) (ordinal >>> 16));
+        return index >= 0 && chunks[index].contains((char) ordinal);
+    }
+
+    /**
+     * Gets the number of ordinals in the bitmap.
+     *
+     * @return The number of ordinals.
+     */
+    public int cardinality() {
+        int cardinality = 0;
+        for (int i = 0; i < size; i++) {
+            cardinality += chunks[i].cardinality;
+        }
+        return cardinality;
+    }
+
+    /**
+     * Specifies whether the bitmap is empty.
+     *
+     * @return true if the bitmap has no ordinals.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Adds the ordinals of another bitmap to this bitmap.
+     *
+     * @param other The other bitmap.
+     * @return This bitmap.
+     */
+    public OrdinalBitmap or(OrdinalBitmap other) {
+        int i = 0;
+        int j = 0;
+        OrdinalBitmap result = new OrdinalBitmap();
+
+        while (i < size || j < other.size) {
+            if (j == other.size || (i < size && keys[i] < other.keys[j])) {
+                result.append(keys[i], chunks[i++]);
+            } else if (i == size || other.keys[j] < keys[i]) {
+                result.append(other.keys[j], other.chunks[j++].copy());
+            } else {
+                result.append(keys[i], chunks[i++].or(other.chunks[j++]));
+            }
+        }
+        return replaceWith(result);
+    }
+
+    /**
+     * Keeps only the ordinals that are also in another bitmap.
+     *
+     * @param other The other bitmap.
+     * @return This bitmap.
+     */
+    public OrdinalBitmap and(OrdinalBitmap other) {
+        int i = 0;
+        int j = 0;
+        OrdinalBitmap result = new OrdinalBitmap();
+
+        while (i < size && j < other.size) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (other.keys[j] < keys[i]) {
+                j++;
+            } else {
+                Chunk chunk = chunks[i].and(other.chunks[j]);
+                if (chunk.cardinality > 0) {
+                    result.append(keys[i], chunk);
+                }
+                i++;
+                j++;
+            }
+        }
+        return replaceWith(result);
+    }
+
+    /**
+     * Removes the ordinals that are in another bitmap.
+     *
+     * @param other The other bitmap.
+     * @return This bitmap.
+     */
+    public OrdinalBitmap andNot(OrdinalBitmap other) {
+        int i = 0;
+        int j = 0;
+        OrdinalBitmap result = new OrdinalBitmap();
+
+        while (i < size) {
+            if (j == other.size || keys[i] < other.keys[j]) {
+                result.append(keys[i], chunks[i++]);
+            } else if (other.keys[j] < keys[i]) {
+                j++;
+            } else {
+                Chunk chunk = chunks[i++].andNot(other.chunks[j++]);
+                if (chunk.cardinality > 0) {
+                    result.append(keys[i - 1], chunk);
+                }
+            }
+        }
+        return replaceWith(result);
+    }
+
+    /**
+     * Passes the ordinals of the bitmap to an action in ascending order.
+     *
+     * @param action The action.
+     */
+    public void forEach(IntConsumer action) {
+        for (int i = 0; i < size; i++) {
+            chunks[i].forEach(keys[i] << 16, action);
+        }
+    }
+
+    /**
+     * Gets the ordinals of the bitmap in ascending order.
+     *
+     * @return The ordinals.
+     */
+    public int[] toArray() {
+        int[] result = new int[cardinality()];
+        int[] count = {0};
+        forEach(ordinal -> result[count[0]++] = ordinal);
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof OrdinalBitmap bitmap) || bitmap.size != size) {
+            return false;
+        }
+        for (int i = 0; i < size; i++) {
+            if (keys[i] != bitmap.keys[i] || !chunks[i].sameMembers(bitmap.chunks[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int[] hash = {1};
+        forEach(ordinal -> hash[0] = 31 * hash[0] + ordinal);
+        return hash[0];
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+
+    private OrdinalBitmap replaceWith(OrdinalBitmap result) {
+        keys = result.keys;
+        chunks = result.chunks;
+        size = result.size;
+        return this;
+    }
+
+    private void append(char key, Chunk chunk) {
+        insert(size, key, chunk);
+    }
+
+    private void insert(int index, char key, Chunk chunk) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            chunks = Arrays.copyOf(chunks, size * 2);
+        }
+        System.arraycopy(keys, index, keys, index + 1, size - index);
+        System.arraycopy(chunks, index, chunks, index + 1, size - index);
+        keys[index] = key;
+        chunks[index] = chunk;
+        size++;
+    }
+
+    private void delete(int index) {
+        System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+        System.arraycopy(chunks, index + 1, chunks, index, size - index - 1);
+        chunks[--size] = null;
+    }
+
+    /**
+     * The members of one chunk of 65536 ordinals: either a sorted array of
+     * the low 16 bits or a bitmap.
+     */
+    private static final class Chunk {
+        char[] array;
+        long[] bits;
+        int cardinality;
+
+        Chunk(char[] array, int cardinality) {
+            this.array = array;
+            this.cardinality = cardinality;
+        }
+
+        Chunk(long[] bits, int cardinality) {
+            this.bits = bits;
+            this.cardinality = cardinality;
+        }
+
+        Chunk copy() {
+            return (array != null)
+                    ? new Chunk(Arrays.copyOf(array, Math.max(4, cardinality)), cardinality)
+                    : new Chunk(bits.clone(), cardinality);
+        }
+
+        boolean contains(char low) {
+            if (array != null) {
+                return Arrays.binarySearch(array, 0, cardinality, low) >= 0;
+            }
+            return (bits[low >>> 6] & (1L << low)) != 0;
+        }
+
+        boolean add(char low) {
+            if (array == null) {
+                long before = bits[low >>> 6];
+                bits[low >>> 6] = before | (1L << low);
+                if (before == bits[low >>> 6]) {
+                    return false;
+                }
+                cardinality++;
+                return true;
+            }
+
+            int index = Arrays.binarySearch(array, 0, cardinality, low);
+            if (index >= 0) {
+                return false;
+            }
+            index = -index - 1;
+            if (cardinality == array.length) {
+                array = Arrays.copyOf(array, Math.min(cardinality * 2, MAX_ARRAY_SIZE + 1));
+            }
+            System.arraycopy(array, index, array, index + 1, cardinality - index);
+            array[index] = low;
+            cardinality++;
+            return true;
+        }
+
+        boolean remove(char low) {
+            if (array == null) {
+                long before = bits[low >>> 6];
+                bits[low >>> 6] = before & ~(1L << low);
+                if (before == bits[low >>> 6]) {
+                    return false;
+                }
+                cardinality--;
+                return true;
+            }
+
+            int index = Arrays.binarySearch(array, 0, cardinality, low);
+            if (index < 0) {
+                return false;
+            }
+            System.arraycopy(array, index + 1, array, index, cardinality - index - 1);
+            cardinality--;
+            return true;
+        }
+
+        long[] words() {
+            if (bits != null) {
+                return bits;
+            }
+            long[] words = new long[BITMAP_WORDS];
+            for (int i = 0; i < cardinality; i++) {
+                words[array[i] >>> 6] |= 1L << array[i];
+            }
+            return words;
+        }
+
+        Chunk toBitmap() {
+            return new Chunk(words(), cardinality);
+        }
+
+        /**
+         * Stores the chunk as an array when it has become sparse.
+         */
+        Chunk normalize() {
+            if (bits == null || cardinality > MAX_ARRAY_SIZE) {
+                return this;
+            }
+
+            char[] values = new char[Math.max(4, cardinality)];
+            int count = 0;
+            for (int w = 0; w < BITMAP_WORDS; w++) {
+                long word = bits[w];
+                while (word != 0) {
+                    values[count++] = (char) ((w << 6) + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return new Chunk(values, count);
+        }
+
+        Chunk or(Chunk other) {
+            if (array != null && other.array != null && cardinality + other.cardinality <= MAX_ARRAY_SIZE) {
+                char[] merged = new char[Math.max(4, cardinality + other.cardinality)];
+                int i = 0;
+                int j = 0;
+                int k = 0;
+                while (i < cardinality && j < other.cardinality) {
+                    char a = array[i];
+                    char b = other.array[j];
+                    if (a == b) {
+                        i++;
+                        j++;
+                    } else if (a < b) {
+                        i++;
+                    } else {
+                        j++;
+                    }
+                    merged[k++] = (a <= b) ? a : b;
+                }
+                while (i < cardinality) {
+                    merged[k++] = array[i++];
+                }
+                while (j < other.cardinality) {
+                    merged[k++] = other.array[j++];
+                }
+                return new Chunk(merged, k);
+            }
+
+            long[] result = (bits != null) ? bits : words();
+            long[] words = other.words();
+            int count = 0;
+            for (int w = 0; w < BITMAP_WORDS; w++) {
+                result[w] |= words[w];
+                count += Long.bitCount(result[w]);
+            }
+            return new Chunk(result, count);
+        }
+
+        Chunk and(Chunk other) {
+            if (array != null || other.array != null) {
+                Chunk sparse = (array != null) ? this : other;
+                Chunk probe = (sparse == this) ? other : this;
+                char[] values = new char[Math.max(4, sparse.cardinality)];
+                int count = 0;
+                for (int i = 0; i < sparse.cardinality; i++) {
+                    if (probe.contains(sparse.array[i])) {
+                        values[count++] = sparse.array[i];
+                    }
+                }
+                return new Chunk(values, count);
+            }
+
+            int count = 0;
+            for (int w = 0; w < BITMAP_WORDS; w++) {
+                bits[w] &= other.bits[w];
+                count += Long.bitCount(bits[w]);
+            }
+            cardinality = count;
+            return normalize();
+        }
+
+        Chunk andNot(Chunk other) {
+            if (array != null) {
+                int count = 0;
+                for (int i = 0; i < cardinality; i++) {
+                    if (!other.contains(array[i])) {
+                        array[count++] = array[i];
+                    }
+                }
+                cardinality = count;
+                return this;
+            }
+
+            long[] words = other.words();
+            int count = 0;
+            for (int w = 0; w < BITMAP_WORDS; w++) {
+                bits[w] &= ~words[w];
+                count += Long.bitCount(bits[w]);
+            }
+            cardinality = count;
+            return normalize();
+        }
+
+        void forEach(int base, IntConsumer action) {
+            if (array != null) {
+                for (int i = 0; i < cardinality; i++) {
+                    action.accept(base | array[i]);
+                }
+                return;
+            }
+
+            for (int w = 0; w < BITMAP_WORDS; w++) {
+                long word = bits[w];
+                while (word != 0) {
+                    action.accept(base | ((w << 6) + Long.numberOfTrailingZeros(word)));
+                    word &= word - 1;
+                }
+            }
+        }
+
+        boolean sameMembers(Chunk other) {
+            return cardinality == other.cardinality && Arrays.equals(words(), other.words());
+        }
+    }
+}
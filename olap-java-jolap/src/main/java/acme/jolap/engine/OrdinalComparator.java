@@ -0,0 +1,28 @@
+package acme.jolap.engine;
+
+/**
+ * Compares two dimension members identified by their ordinals.
+ * Used instead of a Comparator of boxed values so that sorts over member
+ * ordinals do not allocate.
+ */
+@FunctionalInterface
+public interface OrdinalComparator {
+    /**
+     * Compares the members with the specified ordinals.
+     *
+     * @param left  The ordinal of the first member.
+     * @param right The ordinal of the second member.
+     * @return A negative integer, zero, or a positive integer as the first
+     * member sorts before, together with, or after the second member.
+     */
+    int compare(int left, int right);
+
+    /**
+     * Gets a comparator that imposes the reverse ordering of this comparator.
+     *
+     * @return The reversed comparator.
+     */
+    default OrdinalComparator reversed() {
+        return (left, right) -> compare(right, left);
+    }
+}
@@ -0,0 +1,86 @@
+package acme.jolap.engine;
+
+/**
+ * Helper methods for arrays of member ordinals.
+ */
+public final class Ordinals {
+    /**
+     * Ranges shorter than this are sorted by insertion.
+     */
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    private Ordinals() {
+    }
+
+    /**
+     * Sorts a range of an array of ordinals with the specified comparator.
+     * The sort is stable, so members that compare equal keep their order.
+     *
+     * @param ordinals   The array to sort.
+     * @param from       The index of the first element to sort, inclusive.
+     * @param to         The index of the last element to sort, exclusive.
+     * @param comparator The comparator that orders the members.
+     */
+    public static void sort(int[] ordinals, int from, int to, OrdinalComparator comparator) {
+        sort(ordinals, from, to, comparator, new int[to - from]);
+    }
+
+    /**
+     * Sorts a range of an array of ordinals with the specified comparator,
+     * using the specified array as scratch space.
+     *
+     * @param ordinals   The array to sort.
+     * @param from       The index of the first element to sort, inclusive.
+     * @param to         The index of the last element to sort, exclusive.
+     * @param comparator The comparator that orders the members.
+     * @param scratch    An array with at least {@code to - from} elements.
+     */
+    public static void sort(int[] ordinals, int from, int to, OrdinalComparator comparator, int[] scratch) {
+        if (to - from < 2) {
+            return;
+        }
+
+        mergeSort(ordinals, from, to, comparator, scratch);
+    }
+
+    private static void mergeSort(int[] a, int from, int to, OrdinalComparator c, int[] scratch) {
+        if (to - from <= INSERTION_SORT_THRESHOLD) {
+            for (int i = from + 1; i < to; i++) {
+                int value = a[i];
+                int j = i - 1;
+
+                while (j >= from && c.compare(a[j], value) > 0) {
+                    a[j + 1] = a[j];
+                    j--;
+                }
+
+                a[j + 1] = value;
+            }
+            return;
+        }
+
+        int mid = (from + to) >>> 1;
+        mergeSort(a, from, mid, c, scratch);
+        mergeSort(a, mid, to, c, scratch);
+
+        // Already in order.
+        if (c.compare(a[mid - 1], a[mid]) <= 0) {
+            return;
+        }
+
+        int length = mid - from;
+        System.arraycopy(a, from, scratch, 0, length);
+
+        int i = 0;
+        int j = mid;
+        int k = from;
+
+        while (i < length && j < to) {
+            a[k++] = (c.compare(a[j], scratch[i]) < 0) ? a[j++] : scratch[i++];
+        }
+
+        while (i < length) {
+            a[k++] = scratch[i++];
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package acme.jolap.engine;
+
+/**
+ * Transforms an ordered member selection as a whole.
+ * Used for dimension steps, such as drills and ranking filters, whose result
+ * depends on the complete current selection rather than on one member at a
+ * time.
+ */
+@FunctionalInterface
+public interface SelectionOperator {
+    /**
+     * Applies the step to the current selection.
+     *
+     * @param selection The ordinals of the currently selected members, in
+     *                  order. The array must not be modified.
+     * @return The ordinals of the selected members after the step, in order.
+     */
+    int[] apply(int[] selection);
+}
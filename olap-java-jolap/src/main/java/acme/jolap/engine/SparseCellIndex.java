@@ -0,0 +1,299 @@
+package acme.jolap.engine;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The existence index of the non-empty cells of a sparse cube.
+ * Each non-empty cell is stored once as a packed key of its member ordinals.
+ * The projection of the cells onto a combination of dimensions (for example
+ * the customer and product dimensions of a cross-join edge) is computed
+ * once and kept, so the existing combinations of that edge are known
+ * without looking at the empty ones.
+ * <p>
+ * A SuppressEdgeMemberFilter (NON EMPTY) is evaluated with
+ * {@link #nonEmptyTuples}, which visits only non-empty cells or their
+ * projection, so suppressing the empty tuples of a customer x product edge
+ * costs O(non-empty cells) instead of O(customers x products).
+ * <p>
+ * This class is not thread safe.
+ */
+public final class SparseCellIndex {
+    private final int[] sizes;
+
+    /**
+     * The weight of each dimension in a packed cell key; the last dimension
+     * varies fastest.
+     */
+    private final long[] radix;
+
+    private long[] keys = new long[16];
+    private int count;
+
+    /**
+     * true if keys[0..count) is sorted and has no duplicates.
+     */
+    private boolean normalized = true;
+
+    private final Map<String, long[]> projections = new HashMap<>();
+
+    /**
+     * Creates an empty index.
+     *
+     * @param sizes The number of members of each dimension of the cube.
+     * @throws IllegalArgumentException If the cube has more cells than a
+     *                                  long can address.
+     */
+    public SparseCellIndex(int... sizes) {
+        this.sizes = sizes.clone();
+        radix = radixOf(this.sizes);
+    }
+
+    /**
+     * Records a non-empty cell.
+     *
+     * @param coordinates The member ordinal of the cell in each dimension.
+     */
+    public void add(int... coordinates) {
+        long key = key(coordinates);
+
+        if (count == keys.length) {
+            keys = Arrays.copyOf(keys, count * 2);
+        }
+        if (count > 0 && key <= keys[count - 1]) {
+            normalized = false;
+        }
+        keys[count++] = key;
+        projections.clear();
+    }
+
+    /**
+     * Specifies whether a cell is non-empty.
+     *
+     * @param coordinates The member ordinal of the cell in each dimension.
+     * @return true if the cell has been recorded.
+     */
+    public boolean contains(int... coordinates) {
+        normalize();
+        return Arrays.binarySearch(keys, 0, count, key(coordinates)) >= 0;
+    }
+
+    /**
+     * Gets the number of non-empty cells.
+     *
+     * @return The number of non-empty cells.
+     */
+    public int size() {
+        normalize();
+        return count;
+    }
+
+    /**
+     * Gets the non-empty tuples of an edge, in edge order.
+     * A tuple is non-empty if at least one non-empty cell has its members
+     * and, for the dimensions not on the edge, members allowed by the
+     * context. Tuples are ordered by the position of their members in the
+     * edge selections, the first edge dimension varying slowest.
+     *
+     * @param edgeDimensions The indexes of the dimensions of the edge, in
+     *                       edge order.
+     * @param selections     The ordered member selection of each edge
+     *                       dimension.
+     * @param context        For each dimension of the cube, the allowed
+     *                       members, or null if any member is allowed.
+     *                       May be null. Entries for edge dimensions are
+     *                       ignored.
+     * @return The member ordinals of each non-empty tuple.
+     */
+    public int[][] nonEmptyTuples(int[] edgeDimensions, int[][] selections, OrdinalBitmap[] context) {
+        int arity = edgeDimensions.length;
+
+        // The position of each member in its edge selection.
+        int[][] positions = new int[arity][];
+        int[] lengths = new int[arity];
+        for (int i = 0; i < arity; i++) {
+            positions[i] = new int[sizes[edgeDimensions[i]]];
+            Arrays.fill(positions[i], -1);
+            for (int j = selections[i].length - 1; j >= 0; j--) {
+                positions[i][selections[i][j]] = j;
+            }
+            lengths[i] = selections[i].length;
+        }
+        long[] edgeRadix = radixOf(lengths);
+
+        boolean restricted = false;
+        if (context != null) {
+            for (int d = 0; d < sizes.length; d++) {
+                restricted |= context[d] != null && !contains(edgeDimensions, d);
+            }
+        }
+
+        long[] found;
+        int foundCount = 0;
+        if (restricted) {
+            normalize();
+            found = new long[count];
+            for (int c = 0; c < count; c++) {
+                long key = keys[c];
+                if (allowed(key, edgeDimensions, context)) {
+                    long position = position(key, radix, edgeDimensions, positions, edgeRadix);
+                    if (position >= 0) {
+                        found[foundCount++] = position;
+                    }
+                }
+            }
+        } else {
+            long[] projected = project(edgeDimensions);
+            long[] projectedRadix = radixOf(sizesOf(edgeDimensions));
+            int[] identity = new int[arity];
+            for (int i = 0; i < arity; i++) {
+                identity[i] = i;
+            }
+
+            found = new long[projected.length];
+            for (long key : projected) {
+                long position = position(key, projectedRadix, identity, positions, edgeRadix);
+                if (position >= 0) {
+                    found[foundCount++] = position;
+                }
+            }
+        }
+
+        Arrays.sort(found, 0, foundCount);
+        int unique = dedupe(found, foundCount);
+
+        int[][] tuples = new int[unique][arity];
+        for (int t = 0; t < unique; t++) {
+            for (int i = 0; i < arity; i++) {
+                int position = (int) ((found[t] / edgeRadix[i]) % lengths[i]);
+                tuples[t][i] = selections[i][position];
+            }
+        }
+        return tuples;
+    }
+
+    /**
+     * Gets the distinct combinations of members of some dimensions that
+     * occur in non-empty cells, as sorted packed keys over those dimensions.
+     *
+     * @param dimensions The indexes of the dimensions.
+     * @return The packed keys. The array must not be modified.
+     */
+    public long[] project(int[] dimensions) {
+        String id = Arrays.toString(dimensions);
+        long[] projected = projections.get(id);
+
+        if (projected == null) {
+            normalize();
+            long[] subRadix = radixOf(sizesOf(dimensions));
+            projected = new long[count];
+            for (int c = 0; c < count; c++) {
+                long key = 0;
+                for (int i = 0; i < dimensions.length; i++) {
+                    key += coordinate(keys[c], dimensions[i]) * subRadix[i];
+                }
+                projected[c] = key;
+            }
+
+            Arrays.sort(projected);
+            projected = Arrays.copyOf(projected, dedupe(projected, projected.length));
+            projections.put(id, projected);
+        }
+        return projected;
+    }
+
+    private long key(int[] coordinates) {
+        if (coordinates.length != sizes.length) {
+            throw new IllegalArgumentException("Expected " + sizes.length + " coordinates");
+        }
+
+        long key = 0;
+        for (int d = 0; d < sizes.length; d++) {
+            if (coordinates[d] < 0 || coordinates[d] >= sizes[d]) {
+                throw new IllegalArgumentException("Ordinal " + coordinates[d] + " is out of range");
+            }
+            key += coordinates[d] * radix[d];
+        }
+        return key;
+    }
+
+    private long coordinate(long key, int dimension) {
+        return (key / radix[dimension]) % sizes[dimension];
+    }
+
+    private boolean allowed(long key, int[] edgeDimensions, OrdinalBitmap[] context) {
+        for (int d = 0; d < sizes.length; d++) {
+            if (context[d] != null && !contains(edgeDimensions, d) && !context[d].contains((int) coordinate(key, d))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Maps a key to the packed position of its tuple on the edge, or -1 if a
+     * member is not in its edge selection.
+     */
+    private long position(long key, long[] keyRadix, int[] keyDimensions, int[][] positions, long[] edgeRadix) {
+        long position = 0;
+        for (int i = 0; i < positions.length; i++) {
+            int member = (int) ((key / keyRadix[keyDimensions[i]]) % positions[i].length);
+            int p = positions[i][member];
+            if (p < 0) {
+                return -1;
+            }
+            position += p * edgeRadix[i];
+        }
+        return position;
+    }
+
+    private void normalize() {
+        if (!normalized) {
+            Arrays.sort(keys, 0, count);
+            count = dedupe(keys, count);
+            normalized = true;
+        }
+    }
+
+    private int[] sizesOf(int[] dimensions) {
+        int[] result = new int[dimensions.length];
+        for (int i = 0; i < dimensions.length; i++) {
+            result[i] = sizes[dimensions[i]];
+        }
+        return result;
+    }
+
+    private static boolean contains(int[] values, int value) {
+        for (int v : values) {
+            if (v == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int dedupe(long[] sorted, int length) {
+        int unique = 0;
+        for (int i = 0; i < length; i++) {
+            if (unique == 0 || sorted[i] != sorted[unique - 1]) {
+                sorted[unique++] = sorted[i];
+            }
+        }
+        return unique;
+    }
+
+    private static long[] radixOf(int[] sizes) {
+        long[] radix = new long[sizes.length];
+        long weight = 1;
+        for (int d = sizes.length - 1; d >= 0; d--) {
+            radix[d] = weight;
+            try {
+                weight = Math.multiplyExact(weight, Math.max(1, sizes[d]));
+            } catch (ArithmeticException e) {
+                throw new IllegalArgumentException("Too many cells to address: " + Arrays.toString(sizes));
+            }
+        }
+        return radix;
+    }
+}
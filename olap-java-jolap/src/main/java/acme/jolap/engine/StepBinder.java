@@ -0,0 +1,21 @@
+package acme.jolap.engine;
+
+import javax.olap.OLAPException;
+import javax.olap.query.querycoremodel.DimensionStep;
+
+/**
+ * Binds the DimensionStep objects of a DimensionStepManager to executable
+ * operations over the member ordinals of one dimension.
+ * Implemented by the engine that owns the dimension data.
+ */
+public interface StepBinder extends MemberResolver {
+    /**
+     * Binds a step. CompoundDimensionStep objects are expanded by the
+     * DimensionStepPipeline and are never passed to this method.
+     *
+     * @param step The step to bind.
+     * @return The bound step.
+     * @throws OLAPException If the step cannot be evaluated.
+     */
+    BoundStep bind(DimensionStep step) throws OLAPException;
+}
@@ -0,0 +1,305 @@
+package acme.jolap.engine;
+
+import javax.olap.OLAPException;
+import javax.olap.metadata.Member;
+import javax.olap.query.querycoremodel.Tuple;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A set of edge tuples, such as the tuples pinned onto an EdgeView by
+ * TupleFilter objects.
+ * Each tuple is packed into a long key of its member ordinals and stored in
+ * an open-addressing hash table that also records the position of the tuple
+ * in insertion order. Membership tests for a TupleFilter and position lookups
+ * for a TupleInsertOffset are constant time; iteration in key order uses a
+ * sorted copy of the keys that is kept until the set changes.
+ * <p>
+ * This class is not thread safe.
+ */
+public final class TupleSet {
+    private static final long EMPTY = -1L;
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private final int[] sizes;
+    private final long[] radix;
+
+    /**
+     * The hash table of keys, EMPTY for a free slot, and the index in order
+     * of the key in each slot.
+     */
+    private long[] table;
+    private int[] entries;
+    private int mask;
+
+    /**
+     * The keys in insertion order; removed keys are EMPTY until compaction.
+     */
+    private long[] order = new long[16];
+    private int orderLength;
+    private int size;
+
+    private long[] sorted;
+
+    /**
+     * Creates an empty tuple set.
+     *
+     * @param sizes The number of members of each dimension of the edge.
+     * @throws IllegalArgumentException If the tuples cannot be packed into a
+     *                                  long.
+     */
+    public TupleSet(int... sizes) {
+        this.sizes = sizes.clone();
+        radix = new long[sizes.length];
+
+        long weight = 1;
+        for (int d = sizes.length - 1; d >= 0; d--) {
+            radix[d] = weight;
+            if (weight > Long.MAX_VALUE / Math.max(1, sizes[d])) {
+                throw new IllegalArgumentException("Too many tuples to address: " + Arrays.toString(sizes));
+            }
+            weight *= Math.max(1, sizes[d]);
+        }
+        allocate(16);
+    }
+
+    /**
+     * Packs the member ordinals of a tuple into a key.
+     *
+     * @param members The member ordinal in each dimension of the edge.
+     * @return The key.
+     */
+    public long key(int... members) {
+        if (members.length != sizes.length) {
+            throw new IllegalArgumentException("Expected " + sizes.length + " members");
+        }
+
+        long key = 0;
+        for (int d = 0; d < sizes.length; d++) {
+            if (members[d] < 0 || members[d] >= sizes[d]) {
+                throw new IllegalArgumentException("Ordinal " + members[d] + " is out of range");
+            }
+            key += members[d] * radix[d];
+        }
+        return key;
+    }
+
+    /**
+     * Packs a JOLAP Tuple into a key.
+     *
+     * @param tuple     The tuple.
+     * @param resolvers The MemberResolver of each dimension of the edge.
+     * @return The key, or -1 if a member is not in its dimension.
+     * @throws OLAPException If the members of the tuple cannot be read.
+     */
+    public long key(Tuple tuple, MemberResolver[] resolvers) throws OLAPException {
+        List<?> members = tuple.getMember();
+        int[] ordinals = new int[members.size()];
+
+        for (int d = 0; d < ordinals.length; d++) {
+            ordinals[d] = resolvers[d].getOrdinal((Member) members.get(d));
+            if (ordinals[d] < 0) {
+                return EMPTY;
+            }
+        }
+        return key(ordinals);
+    }
+
+    /**
+     * Unpacks the member ordinals of a key.
+     *
+     * @param key The key.
+     * @return The member ordinal in each dimension of the edge.
+     */
+    public int[] members(long key) {
+        int[] members = new int[sizes.length];
+        for (int d = 0; d < sizes.length; d++) {
+            members[d] = (int) ((key / radix[d]) % Math.max(1, sizes[d]));
+        }
+        return members;
+    }
+
+    /**
+     * Adds a tuple at the end of the insertion order.
+     *
+     * @param key The key of the tuple.
+     * @return true if the tuple was not in the set.
+     */
+    public boolean add(long key) {
+        int slot = find(key);
+        if (table[slot] == key) {
+            return false;
+        }
+
+        if (orderLength == order.length) {
+            compact();
+            if (orderLength == order.length) {
+                order = Arrays.copyOf(order, orderLength * 2);
+            }
+            slot = find(key);
+        }
+
+        table[slot] = key;
+        entries[slot] = orderLength;
+        order[orderLength++] = key;
+        size++;
+        sorted = null;
+
+        if (size > table.length * LOAD_FACTOR) {
+            rehash(table.length * 2);
+        }
+        return true;
+    }
+
+    /**
+     * Removes a tuple.
+     *
+     * @param key The key of the tuple.
+     * @return true if the tuple was in the set.
+     */
+    public boolean remove(long key) {
+        int slot = find(key);
+        if (table[slot] != key) {
+            return false;
+        }
+
+        order[entries[slot]] = EMPTY;
+        size--;
+        sorted = null;
+
+        // Backward-shift deletion keeps the probe sequences intact.
+        int free = slot;
+        for (int next = (free + 1) & mask; table[next] != EMPTY; next = (next + 1) & mask) {
+            int home = slot(table[next]);
+            if (((next - home) & mask) >= ((next - free) & mask)) {
+                table[free] = table[next];
+                entries[free] = entries[next];
+                free = next;
+            }
+        }
+        table[free] = EMPTY;
+        return true;
+    }
+
+    /**
+     * Specifies whether the set contains a tuple.
+     *
+     * @param key The key of the tuple.
+     * @return true if the tuple is in the set.
+     */
+    public boolean contains(long key) {
+        return key != EMPTY && table[find(key)] == key;
+    }
+
+    /**
+     * Gets the position of a tuple in insertion order, for positioning by a
+     * TupleInsertOffset.
+     *
+     * @param key The key of the tuple.
+     * @return The position, from 0, or -1 if the tuple is not in the set.
+     */
+    public int indexOf(long key) {
+        if (key == EMPTY) {
+            return -1;
+        }
+
+        compact();
+        int slot = find(key);
+        return (table[slot] == key) ? entries[slot] : -1;
+    }
+
+    /**
+     * Gets the number of tuples.
+     *
+     * @return The number of tuples.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the keys in insertion order.
+     *
+     * @return A new array with the keys.
+     */
+    public long[] toArray() {
+        compact();
+        return Arrays.copyOf(order, orderLength);
+    }
+
+    /**
+     * Gets the keys in ascending order, which is the order of the member
+     * ordinals with the first dimension varying slowest.
+     *
+     * @return The sorted keys. The array must not be modified.
+     */
+    public long[] sortedKeys() {
+        if (sorted == null) {
+            sorted = toArray();
+            Arrays.sort(sorted);
+        }
+        return sorted;
+    }
+
+    /**
+     * Drops removed keys from the insertion order and renumbers the
+     * positions; done once after a run of removals.
+     */
+    private void compact() {
+        if (orderLength == size) {
+            return;
+        }
+
+        int count = 0;
+        for (int i = 0; i < orderLength; i++) {
+            if (order[i] != EMPTY) {
+                long key = order[i];
+                order[count] = key;
+                entries[find(key)] = count;
+                count++;
+            }
+        }
+        orderLength = count;
+    }
+
+    private int find(long key) {
+        int slot = slot(key);
+        while (table[slot] != EMPTY && table[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private int slot(long key) {
+        // The finalizer of MurmurHash3, so that packed keys with regular
+        // strides spread over the table.
+        long h = key;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (int) h & mask;
+    }
+
+    private void allocate(int capacity) {
+        table = new long[capacity];
+        entries = new int[capacity];
+        Arrays.fill(table, EMPTY);
+        mask = capacity - 1;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldTable = table;
+        int[] oldEntries = entries;
+        allocate(capacity);
+
+        for (int i = 0; i < oldTable.length; i++) {
+            if (oldTable[i] != EMPTY) {
+                int slot = find(oldTable[i]);
+                table[slot] = oldTable[i];
+                entries[slot] = oldEntries[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package acme.jolap.engine;
+
+import javax.olap.OLAPException;
+import javax.olap.query.dimensionfilters.ExceptionMemberFilter;
+import javax.olap.query.enumerations.OperatorType;
+import javax.olap.query.enumerations.OperatorTypeEnum;
+
+/**
+ * The values of one measure over a range of cube cells, with a zone map:
+ * the minimum and maximum value of every block of cells.
+ * A threshold test such as "sales &lt; 0" skips every block whose range
+ * cannot contain a qualifying value and does not read its cells, so
+ * exception reports over mostly healthy data read few blocks.
+ * <p>
+ * Empty cells are stored as NaN and never qualify. A block with no values
+ * has a NaN minimum and maximum and is always skipped.
+ * <p>
+ * This class is not thread safe.
+ */
+public final class ZoneMapColumn {
+    /**
+     * The default number of cells per block.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 1024;
+
+    private static final int LT = 0;
+    private static final int LE = 1;
+    private static final int GT = 2;
+    private static final int GE = 3;
+    private static final int EQ = 4;
+    private static final int NE = 5;
+
+    private final double[] cells;
+    private final int blockShift;
+    private final double[] min;
+    private final double[] max;
+
+    /**
+     * true for blocks whose minimum or maximum may be too wide after an
+     * update and must be recomputed before the next lookup.
+     */
+    private final boolean[] stale;
+
+    /**
+     * Creates a column with the default block size.
+     *
+     * @param cells The cell values, NaN for empty cells. The array is copied.
+     */
+    public ZoneMapColumn(double[] cells) {
+        this(cells, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Creates a column.
+     *
+     * @param cells     The cell values, NaN for empty cells. The array is copied.
+     * @param blockSize The number of cells per block, a power of 2.
+     */
+    public ZoneMapColumn(double[] cells, int blockSize) {
+        if (blockSize <= 0 || Integer.bitCount(blockSize) != 1) {
+            throw new IllegalArgumentException("The block size must be a power of 2: " + blockSize);
+        }
+
+        this.cells = cells.clone();
+        blockShift = Integer.numberOfTrailingZeros(blockSize);
+
+        int blocks = (cells.length + blockSize - 1) >>> blockShift;
+        min = new double[blocks];
+        max = new double[blocks];
+        stale = new boolean[blocks];
+        for (int block = 0; block < blocks; block++) {
+            computeZone(block);
+        }
+    }
+
+    /**
+     * Gets the number of cells.
+     *
+     * @return The number of cells.
+     */
+    public int size() {
+        return cells.length;
+    }
+
+    /**
+     * Gets the number of blocks.
+     *
+     * @return The number of blocks.
+     */
+    public int getBlockCount() {
+        return min.length;
+    }
+
+    /**
+     * Gets the value of a cell.
+     *
+     * @param cell The position of the cell.
+     * @return The value, or NaN if the cell is empty.
+     */
+    public double get(int cell) {
+        return cells[cell];
+    }
+
+    /**
+     * Changes the value of a cell and keeps the zone map valid.
+     *
+     * @param cell  The position of the cell.
+     * @param value The new value, or NaN to empty the cell.
+     */
+    public void set(int cell, double value) {
+        int block = cell >>> blockShift;
+        double previous = cells[cell];
+        cells[cell] = value;
+
+        if (previous == min[block] || previous == max[block] || Double.isNaN(min[block])) {
+            // The block may shrink, or had no bounds yet.
+            stale[block] = true;
+        } else if (!Double.isNaN(value)) {
+            min[block] = Math.min(min[block], value);
+            max[block] = Math.max(max[block], value);
+        }
+    }
+
+    /**
+     * Gets the cells whose value compares to a threshold with an operator.
+     *
+     * @param op        The comparison operator.
+     * @param threshold The threshold.
+     * @return A new bitmap of the positions of the qualifying cells.
+     */
+    public OrdinalBitmap select(OperatorType op, double threshold) {
+        OrdinalBitmap result = new OrdinalBitmap();
+        scan(op, threshold, 0, 1, result);
+        return result;
+    }
+
+    /**
+     * Gets the members of one dimension that have at least one qualifying
+     * cell. The cells are laid out so that the member ordinal of a cell is
+     * (cell / stride) % dimensionSize.
+     *
+     * @param op            The comparison operator.
+     * @param threshold     The threshold.
+     * @param stride        The number of cells between consecutive members of
+     *                      the dimension.
+     * @param dimensionSize The number of members of the dimension.
+     * @return A new bitmap of the ordinals of the qualifying members.
+     */
+    public OrdinalBitmap selectMembers(OperatorType op, double threshold, int stride, int dimensionSize) {
+        OrdinalBitmap result = new OrdinalBitmap();
+        scan(op, threshold, stride, dimensionSize, result);
+        return result;
+    }
+
+    /**
+     * Gets the number of blocks that a threshold test has to read.
+     *
+     * @param op        The comparison operator.
+     * @param threshold The threshold.
+     * @return The number of blocks that may contain qualifying cells.
+     */
+    public int countCandidateBlocks(OperatorType op, double threshold) {
+        int code = opCode(op);
+        int count = 0;
+        for (int block = 0; block < min.length; block++) {
+            if (mayQualify(block, code, threshold)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Gets the members that an ExceptionMemberFilter matches, for a column
+     * whose cell positions are the member ordinals of the filtered dimension.
+     *
+     * @param filter The filter; its right-hand side must be a Number.
+     * @return A new bitmap of the ordinals of the qualifying members.
+     * @throws OLAPException If the filter cannot be read.
+     */
+    public OrdinalBitmap evaluate(ExceptionMemberFilter filter) throws OLAPException {
+        Object rhs = filter.getRhs();
+        if (!(rhs instanceof Number number)) {
+            throw new OLAPException("The right-hand side of an exception filter must be a number: " + rhs);
+        }
+        return select(filter.getOp(), number.doubleValue());
+    }
+
+    private void scan(OperatorType op, double threshold, int stride, int dimensionSize, OrdinalBitmap result) {
+        int blockSize = 1 << blockShift;
+        int code = opCode(op);
+
+        for (int block = 0; block < min.length; block++) {
+            if (!mayQualify(block, code, threshold)) {
+                continue;
+            }
+
+            int from = block << blockShift;
+            int to = Math.min(cells.length, from + blockSize);
+            for (int cell = from; cell < to; cell++) {
+                if (qualifies(cells[cell], code, threshold)) {
+                    result.add((stride == 0) ? cell : (cell / stride) % dimensionSize);
+                }
+            }
+        }
+    }
+
+    private boolean mayQualify(int block, int code, double threshold) {
+        if (stale[block]) {
+            computeZone(block);
+        }
+
+        double low = min[block];
+        double high = max[block];
+        if (Double.isNaN(low)) {
+            return false;
+        }
+
+        return switch (code) {
+            case LT -> low < threshold;
+            case LE -> low <= threshold;
+            case GT -> high > threshold;
+            case GE -> high >= threshold;
+            case EQ -> low <= threshold && threshold <= high;
+            default -> low != threshold || high != threshold;
+        };
+    }
+
+    private static boolean qualifies(double value, int code, double threshold) {
+        // Comparisons with NaN are false, except NE.
+        return switch (code) {
+            case LT -> value < threshold;
+            case LE -> value <= threshold;
+            case GT -> value > threshold;
+            case GE -> value >= threshold;
+            case EQ -> value == threshold;
+            default -> !Double.isNaN(value) && value != threshold;
+        };
+    }
+
+    /**
+     * Resolves an operator once per lookup, so that the cell loop does not
+     * compare enumeration objects.
+     */
+    private static int opCode(OperatorType op) {
+        if (OperatorTypeEnum.LT.equals(op)) {
+            return LT;
+        } else if (OperatorTypeEnum.LE.equals(op)) {
+            return LE;
+        } else if (OperatorTypeEnum.GT.equals(op)) {
+            return GT;
+        } else if (OperatorTypeEnum.GE.equals(op)) {
+            return GE;
+        } else if (OperatorTypeEnum.EQ.equals(op)) {
+            return EQ;
+        } else if (OperatorTypeEnum.NE.equals(op)) {
+            return NE;
+        }
+        throw new IllegalArgumentException("Unsupported operator " + op);
+    }
+
+    private void computeZone(int block) {
+        int from = block << blockShift;
+        int to = Math.min(cells.length, from + (1 << blockShift));
+        double low = Double.NaN;
+        double high = Double.NaN;
+
+        for (int cell = from; cell < to; cell++) {
+            double value = cells[cell];
+            if (!Double.isNaN(value)) {
+                low = Double.isNaN(low) ? value : Math.min(low, value);
+                high = Double.isNaN(high) ? value : Math.max(high, value);
+            }
+        }
+
+        min[block] = low;
+        max[block] = high;
+        stale[block] = false;
+    }
+}
@@ -0,0 +1,81 @@
+package acme.jolap.transaction;
+
+import java.util.Arrays;
+
+/**
+ * An immutable sparse array indexed by int, stored as a 32-way trie.
+ * An update copies only the path from the root to the changed slot, so a
+ * new version costs O(log32 n) and shares every other node with the
+ * previous version.
+ */
+final class PersistentArray {
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+
+    static final PersistentArray EMPTY = new PersistentArray(new Object[WIDTH], 0);
+
+    /**
+     * The root node: at shift 0 its slots are values, otherwise they are
+     * child nodes.
+     */
+    private final Object[] root;
+    private final int shift;
+
+    private PersistentArray(Object[] root, int shift) {
+        this.root = root;
+        this.shift = shift;
+    }
+
+    /**
+     * Gets the value at an index.
+     *
+     * @param index The index, not negative.
+     * @return The value, or null if none was set.
+     */
+    Object get(int index) {
+        if (index >>> shift >>> BITS != 0) {
+            return null;
+        }
+
+        Object[] node = root;
+        for (int level = shift; level > 0; level -= BITS) {
+            node = (Object[]) node[(index >>> level) & MASK];
+            if (node == null) {
+                return null;
+            }
+        }
+        return node[index & MASK];
+    }
+
+    /**
+     * Gets a version with a changed value.
+     *
+     * @param index The index, not negative.
+     * @param value The new value.
+     * @return The new version.
+     */
+    PersistentArray with(int index, Object value) {
+        Object[] newRoot = root;
+        int newShift = shift;
+        while (index >>> newShift >>> BITS != 0) {
+            // Grow by one level; the old root becomes the first child.
+            Object[] grown = new Object[WIDTH];
+            grown[0] = newRoot;
+            newRoot = grown;
+            newShift += BITS;
+        }
+        return new PersistentArray(with(newRoot, newShift, index, value), newShift);
+    }
+
+    private static Object[] with(Object[] node, int level, int index, Object value) {
+        Object[] copy = (node == null) ? new Object[WIDTH] : Arrays.copyOf(node, WIDTH);
+        if (level == 0) {
+            copy[index & MASK] = value;
+        } else {
+            int slot = (index >>> level) & MASK;
+            copy[slot] = with((Object[]) copy[slot], level - BITS, index, value);
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,50 @@
+package acme.jolap.transaction;
+
+/**
+ * A transactional property of a query-model object, such as the edges of a
+ * CubeView or the steps of a DimensionStepManager.
+ * The value seen is the one of the current transaction of its
+ * VersionedTransactionManager; a change is only visible to the transaction
+ * that made it and its children until that transaction is committed.
+ * <p>
+ * Values should be immutable: a transaction shares the values of its
+ * parent, so a value that is modified in place is modified in every
+ * version.
+ *
+ * @param <T> The type of the value.
+ */
+public final class Versioned<T> {
+    private final VersionedTransactionManager manager;
+    private final int id;
+    private final T initial;
+
+    Versioned(VersionedTransactionManager manager, int id, T initial) {
+        this.manager = manager;
+        this.id = id;
+        this.initial = initial;
+    }
+
+    /**
+     * Gets the value in the current transaction.
+     *
+     * @return The value.
+     */
+    @SuppressWarnings("unchecked")
+    public T get() {
+        Object value = manager.read(id);
+        if (value == null) {
+            return initial;
+        }
+        return (value == VersionedTransactionManager.NULL) ? null : (T) value;
+    }
+
+    /**
+     * Changes the value in the current transaction, or in the committed
+     * state if no transaction is open.
+     *
+     * @param value The new value.
+     */
+    public void set(T value) {
+        manager.write(id, (value == null) ? VersionedTransactionManager.NULL : value);
+    }
+}
@@ -0,0 +1,96 @@
+package acme.jolap.transaction;
+
+import javax.olap.OLAPException;
+import javax.olap.query.querytransaction.QueryTransaction;
+import javax.olap.query.querytransaction.QueryTransactionManager;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A transaction of a VersionedTransactionManager: a pointer to a version of
+ * the query model. The structure of transactions is maintained by the
+ * manager, so the structural setters are not supported.
+ */
+final class VersionedTransaction implements QueryTransaction {
+    private final VersionedTransactionManager manager;
+    final VersionedTransaction parent;
+    VersionedTransaction child;
+
+    /**
+     * The version of the query model seen by this transaction, null once
+     * the transaction is closed.
+     */
+    PersistentArray version;
+
+    final List<Object> elements = new ArrayList<>();
+
+    private String name;
+    private String id;
+
+    VersionedTransaction(VersionedTransactionManager manager, VersionedTransaction parent, PersistentArray version) {
+        this.manager = manager;
+        this.parent = parent;
+        this.version = version;
+    }
+
+    @Override
+    public Collection getTransactionElement() throws OLAPException {
+        synchronized (manager) {
+            return Collections.unmodifiableList(new ArrayList<>(elements));
+        }
+    }
+
+    @Override
+    public QueryTransaction getChild() throws OLAPException {
+        synchronized (manager) {
+            return child;
+        }
+    }
+
+    @Override
+    public void setChild(QueryTransaction value) throws OLAPException {
+        throw new OLAPException("Use beginChildSubTransaction");
+    }
+
+    @Override
+    public QueryTransaction getParent() throws OLAPException {
+        return parent;
+    }
+
+    @Override
+    public void setParent(QueryTransaction value) throws OLAPException {
+        throw new OLAPException("The parent of a transaction cannot be changed");
+    }
+
+    @Override
+    public QueryTransactionManager getTransactionManager() throws OLAPException {
+        return manager;
+    }
+
+    @Override
+    public void setTransactionManager(QueryTransactionManager value) throws OLAPException {
+        throw new OLAPException("The manager of a transaction cannot be changed");
+    }
+
+    @Override
+    public String getName() throws OLAPException {
+        return name;
+    }
+
+    @Override
+    public void setName(String value) throws OLAPException {
+        name = value;
+    }
+
+    @Override
+    public String getId() throws OLAPException {
+        return id;
+    }
+
+    @Override
+    public void setId(String value) throws OLAPException {
+        id = value;
+    }
+}
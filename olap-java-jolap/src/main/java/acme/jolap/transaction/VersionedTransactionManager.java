@@ -0,0 +1,191 @@
+package acme.jolap.transaction;
+
+import javax.olap.OLAPException;
+import javax.olap.query.querytransaction.QueryTransaction;
+import javax.olap.query.querytransaction.QueryTransactionManager;
+import javax.olap.query.querytransaction.TransactionalObject;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A QueryTransactionManager whose transactions are versions of the
+ * query model rather than copies of it.
+ * The state of every Versioned property created by this manager lives in
+ * one persistent array; each open transaction points to its own version of
+ * that array. Beginning a child transaction copies a pointer, a write copies
+ * one path of the array (O(log n)), committing moves the child's pointer to
+ * its parent and rolling back drops it. Nested subtransactions opened on
+ * every pivot therefore cost nothing until they change something.
+ * <p>
+ * Instances are thread safe; there is one current transaction per manager.
+ */
+public class VersionedTransactionManager implements QueryTransactionManager {
+    /**
+     * Stands for a null value, which is distinct from a property that was
+     * never set.
+     */
+    static final Object NULL = new Object();
+
+    private PersistentArray committed = PersistentArray.EMPTY;
+    private VersionedTransaction current;
+    private int nextId;
+
+    private String name;
+    private String id;
+
+    /**
+     * Creates a manager with no open transaction.
+     */
+    public VersionedTransactionManager() {
+    }
+
+    /**
+     * Creates a transactional property.
+     *
+     * @param initial The value of the property until it is set.
+     * @param <T>     The type of the value.
+     * @return The property.
+     */
+    public synchronized <T> Versioned<T> newVersioned(T initial) {
+        return new Versioned<>(this, nextId++, initial);
+    }
+
+    /**
+     * Records that an object was changed in the current transaction, so that
+     * it is listed by getTransactionElement of the transaction and, after a
+     * commit, of its parent.
+     *
+     * @param element The changed object.
+     */
+    public synchronized void register(TransactionalObject element) {
+        if (current != null) {
+            current.elements.add(element);
+        }
+    }
+
+    synchronized Object read(int index) {
+        return ((current == null) ? committed : current.version).get(index);
+    }
+
+    synchronized void write(int index, Object value) {
+        if (current == null) {
+            committed = committed.with(index, value);
+        } else {
+            current.version = current.version.with(index, value);
+        }
+    }
+
+    @Override
+    public synchronized QueryTransaction beginRootTransaction() throws OLAPException {
+        if (current != null) {
+            throw new OLAPException("A transaction is already open");
+        }
+        current = new VersionedTransaction(this, null, committed);
+        return current;
+    }
+
+    @Override
+    public synchronized QueryTransaction beginChildSubTransaction() throws OLAPException {
+        if (current == null) {
+            throw new OLAPException("No transaction is open");
+        }
+
+        VersionedTransaction child = new VersionedTransaction(this, current, current.version);
+        current.child = child;
+        current = child;
+        return child;
+    }
+
+    @Override
+    public synchronized void prepareCurrentTransaction() throws OLAPException {
+        requireCurrent();
+    }
+
+    @Override
+    public synchronized void commitCurrentTransaction() throws OLAPException {
+        VersionedTransaction transaction = requireCurrent();
+        if (transaction.parent == null) {
+            committed = transaction.version;
+        } else {
+            transaction.parent.version = transaction.version;
+            transaction.parent.elements.addAll(transaction.elements);
+        }
+        close(transaction);
+    }
+
+    @Override
+    public synchronized void rollbackCurrentTransaction() throws OLAPException {
+        close(requireCurrent());
+    }
+
+    @Override
+    public synchronized Collection getQueryTransaction() throws OLAPException {
+        List<QueryTransaction> open = new ArrayList<>();
+        for (VersionedTransaction t = current; t != null; t = t.parent) {
+            open.add(0, t);
+        }
+        return Collections.unmodifiableList(open);
+    }
+
+    @Override
+    public synchronized QueryTransaction getCurrentTransaction() throws OLAPException {
+        return current;
+    }
+
+    /**
+     * Makes an open transaction current. The transactions nested in it are
+     * rolled back.
+     *
+     * @param value An open transaction of this manager.
+     * @throws OLAPException If the transaction is not open in this manager.
+     */
+    @Override
+    public synchronized void setCurrentTransaction(QueryTransaction value) throws OLAPException {
+        for (VersionedTransaction t = current; t != null; t = t.parent) {
+            if (t == value) {
+                while (current != t) {
+                    close(current);
+                }
+                return;
+            }
+        }
+        throw new OLAPException("Not an open transaction of this manager: " + value);
+    }
+
+    @Override
+    public synchronized String getName() throws OLAPException {
+        return name;
+    }
+
+    @Override
+    public synchronized void setName(String value) throws OLAPException {
+        name = value;
+    }
+
+    @Override
+    public synchronized String getId() throws OLAPException {
+        return id;
+    }
+
+    @Override
+    public synchronized void setId(String value) throws OLAPException {
+        id = value;
+    }
+
+    private VersionedTransaction requireCurrent() throws OLAPException {
+        if (current == null) {
+            throw new OLAPException("No transaction is open");
+        }
+        return current;
+    }
+
+    private void close(VersionedTransaction transaction) {
+        transaction.version = null;
+        current = transaction.parent;
+        if (current != null) {
+            current.child = null;
+        }
+    }
+}
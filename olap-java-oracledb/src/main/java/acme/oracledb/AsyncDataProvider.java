@@ -0,0 +1,194 @@
+package acme.oracledb;
+
+import oracle.olapi.data.cursor.CursorManager;
+import oracle.olapi.data.cursor.NoDataAvailableException;
+import oracle.olapi.data.source.DataProvider;
+import oracle.olapi.data.source.Source;
+import oracle.olapi.transaction.NotCommittableException;
+import oracle.olapi.transaction.TransactionProvider;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Evaluates Source objects of a DataProvider without blocking the caller.
+ * Every call runs on one thread dedicated to the DataProvider session, so
+ * calls on a session never overlap, and returns a CompletableFuture that can
+ * be composed, given a timeout with orTimeout, or cancelled.
+ * <p>
+ * When the future of an evaluation is cancelled or times out, reading stops
+ * before the next row and the CursorManager is closed.
+ * <p>
+ * Closing an AsyncDataProvider cancels the pending calls, stops the streams
+ * of its publishers, including those waiting for the subscriber to request
+ * more batches, and waits for the session thread to stop, so the
+ * DataProvider can be closed or its session reused once close returns.
+ * <p>
+ * Instances are thread safe.
+ */
+public class AsyncDataProvider implements AutoCloseable {
+    private final DataProvider dp;
+    private final ExecutorService executor;
+    private final Set<CompletableFuture<?>> pending = ConcurrentHashMap.newKeySet();
+    private final Set<CursorPublisher> streams = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+
+    /**
+     * Creates an AsyncDataProvider with its own session thread.
+     *
+     * @param dp The DataProvider.
+     */
+    public AsyncDataProvider(DataProvider dp) {
+        this.dp = dp;
+        executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "AsyncDataProvider");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Evaluates a Source and reads all its values.
+     *
+     * @param source The Source.
+     * @return A future of the values; an empty block if no data is available.
+     */
+    public CompletableFuture<ResultBlock> evaluate(Source source) {
+        return evaluate(source, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Evaluates a Source and reads at most a number of rows of its values.
+     *
+     * @param source  The Source.
+     * @param maxRows The maximum number of rows.
+     * @return A future of the values; an empty block if no data is available.
+     */
+    public CompletableFuture<ResultBlock> evaluate(Source source, int maxRows) {
+        CompletableFuture<ResultBlock> result = track(new CompletableFuture<>());
+        executor.execute(() -> {
+            if (result.isDone()) {
+                return;
+            }
+
+            CursorManager cursorManager = null;
+            try {
+                cursorManager = dp.createCursorManager(source);
+                ResultBlock block;
+                try {
+                    block = ResultBlock.read(cursorManager.createCursor(), maxRows, result::isDone);
+                } catch (NoDataAvailableException e) {
+                    block = ResultBlock.EMPTY;
+                }
+                result.complete(block);
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            } finally {
+                if (cursorManager != null) {
+                    cursorManager.close();
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Creates a Flow.Publisher that streams the values of a Source in
+     * batches of rows, read on the session thread as the subscriber requests
+     * them.
+     *
+     * @param source    The Source.
+     * @param batchSize The maximum number of rows of a batch, which is also
+     *                  the fetch size of the CursorManager.
+     * @return The publisher.
+     */
+    public CursorPublisher publish(Source source, int batchSize) {
+        return new CursorPublisher(dp, source, batchSize, executor, () -> closed, streams);
+    }
+
+    /**
+     * Prepares and commits the current Transaction.
+     *
+     * @return A future that completes when the Transaction is committed.
+     */
+    public CompletableFuture<Void> commit() {
+        return call(dataProvider -> {
+            TransactionProvider tp = dataProvider.getTransactionProvider();
+            try {
+                tp.prepareCurrentTransaction();
+            } catch (NotCommittableException e) {
+                throw new IllegalStateException("Cannot prepare the current Transaction", e);
+            }
+            tp.commitCurrentTransaction();
+            return null;
+        });
+    }
+
+    /**
+     * Runs a function on the session thread, for example to define the
+     * Source objects of a query before evaluating them.
+     *
+     * @param function The function, which receives the DataProvider.
+     * @param <T>      The type of the result.
+     * @return A future of the result of the function.
+     */
+    public <T> CompletableFuture<T> call(Function<DataProvider, T> function) {
+        return track(CompletableFuture.supplyAsync(() -> function.apply(dp), executor));
+    }
+
+    /**
+     * Cancels the pending calls, stops the streams of the publishers and
+     * waits for the session thread to stop. An evaluation that is reading
+     * stops before the next row, and a stream stops before the next batch,
+     * or at once if no batch is requested, and closes its CursorManager. The
+     * DataProvider is not closed.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (CompletableFuture<?> future : pending) {
+            future.cancel(false);
+        }
+        try {
+            // A stream without demand has no drain left to notice the close.
+            // The task is the last one before the shutdown, and the wait for
+            // the termination waits for it.
+            executor.execute(() -> {
+                for (CursorPublisher stream : streams) {
+                    try {
+                        stream.stop();
+                    } catch (RuntimeException e) {
+                        // Thrown by the subscriber; the stream is stopped.
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Already closed.
+        }
+        executor.shutdown();
+
+        boolean interrupted = false;
+        while (!executor.isTerminated()) {
+            try {
+                executor.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private <T> CompletableFuture<T> track(CompletableFuture<T> future) {
+        pending.add(future);
+        future.whenComplete((value, error) -> pending.remove(future));
+        return future;
+    }
+}
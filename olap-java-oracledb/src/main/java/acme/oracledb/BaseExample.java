@@ -15,6 +15,13 @@ public abstract class BaseExample {
     public static final String KEY_LOGFILE = "logfile";
     public static final String VALUE_YES = "yes";
     public static final String KEY_VERBOSE = "verbose";
+    /**
+     * When yes, Cursor values written to the log file are flushed by size
+     * and time instead of after every row.
+     */
+    public static final String KEY_LOGBUFFERED = "logbuffered";
+    private static final int LOG_BUFFER_SIZE = 64 * 1024;
+    private static final long LOG_FLUSH_INTERVAL_MILLIS = 1000;
     public static final Properties props = new Properties();
 
     private Context context;
@@ -99,6 +106,8 @@ public abstract class BaseExample {
 
         if (null == logFile) {
             cpw = CursorPrintWriter.getStandardOutput(); // default to Stdout
+        } else if (VALUE_YES.equalsIgnoreCase(properties.getProperty(KEY_LOGBUFFERED))) {
+            cpw = new CursorPrintWriter(new FileWriter(logFile), LOG_BUFFER_SIZE, LOG_FLUSH_INTERVAL_MILLIS);
         } else {
             PrintWriter writer = new PrintWriter(new FileWriter(logFile));
             cpw = new CursorPrintWriter(writer);
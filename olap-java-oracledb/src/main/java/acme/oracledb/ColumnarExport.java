@@ -0,0 +1,920 @@
+package acme.oracledb;
+
+import oracle.olapi.data.cursor.Cursor;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Exports the values of a CompoundCursor or a ValueCursor to a file in the
+ * Apache Arrow IPC file format, which is smaller than the text of
+ * CursorPrintWriter and is loaded without parsing by Arrow readers.
+ * The rows are those of ResultBlock, one for each position of the root
+ * Cursor, and are written in record batches.
+ * <p>
+ * The file is the magic "ARROW1", a Schema message, a RecordBatch message
+ * for each batch, the end-of-stream marker and a Footer that locates the
+ * record batches. Each message is the continuation marker, the length of
+ * its metadata, a Message Flatbuffer of metadata version V5 and, for a
+ * record batch, the body of the batch. This class writes the Flatbuffers
+ * itself, so that no Arrow library is needed.
+ * <p>
+ * Every column is nullable. Boolean values are written as Bool, Long,
+ * Integer, Short and Byte values as a signed 64-bit Int, other Number
+ * values as a double-precision FloatingPoint, and any other value as Utf8.
+ * A column has the type of its first non-null value; a column without
+ * values in the first batch is a Utf8 column. When an Int column receives a
+ * value that is not integral, the column becomes a FloatingPoint column,
+ * including the batches already written.
+ * <p>
+ * BigDecimal and BigInteger values, and long values beyond 2^53 in a
+ * FloatingPoint column, are rounded to the nearest double; the number of
+ * values of each column that were not exact is logged.
+ */
+public final class ColumnarExport {
+    private static final org.slf4j.Logger log = LoggerFactory.getLogger(ColumnarExport.class);
+
+    private static final byte[] MAGIC = "ARROW1".getBytes(StandardCharsets.US_ASCII);
+    private static final int CONTINUATION = -1;
+    private static final int ALIGNMENT = 8;
+    private static final int WRITE_BUFFER_SIZE = 1 << 20;
+
+    // Values and struct sizes of the Arrow schema files Schema.fbs,
+    // Message.fbs and File.fbs.
+    private static final short METADATA_VERSION_V5 = 4;
+    private static final byte HEADER_SCHEMA = 1;
+    private static final byte HEADER_RECORD_BATCH = 3;
+    private static final short PRECISION_DOUBLE = 2;
+    private static final int BLOCK_SIZE = 24;
+    private static final int FIELD_NODE_SIZE = 16;
+    private static final int BUFFER_SIZE = 16;
+
+    /**
+     * The default number of rows of a record batch.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 64 * 1024;
+
+    /**
+     * The type of the values of a column.
+     */
+    public enum Type {
+        BOOLEAN(6), INT64(2), FLOAT64(3), UTF8(5);
+
+        /**
+         * The tag of the type in the Type union of the Arrow schema.
+         */
+        private final byte arrowType;
+
+        Type(int arrowType) {
+            this.arrowType = (byte) arrowType;
+        }
+    }
+
+    private ColumnarExport() {
+    }
+
+    /**
+     * Writes the values of a Cursor, from its current position, to a file
+     * with columns named c1, c2 and so on.
+     *
+     * @param rootCursor The Cursor.
+     * @param path       The file, which is replaced atomically.
+     * @return The number of rows written.
+     * @throws IOException If the file cannot be written, or if a value does
+     *                     not have the type of its column.
+     */
+    public static long write(Cursor rootCursor, Path path) throws IOException {
+        return write(rootCursor, null, DEFAULT_BATCH_SIZE, path);
+    }
+
+    /**
+     * Writes the values of a Cursor, from its current position, to a file.
+     *
+     * @param rootCursor  The Cursor.
+     * @param columnNames The names of the columns, in the order of
+     *                    ResultBlock, or null for c1, c2 and so on.
+     * @param batchSize   The maximum number of rows of a record batch, which
+     *                    bounds the memory used by the export.
+     * @param path        The file, which is replaced atomically.
+     * @return The number of rows written.
+     * @throws IOException If the file cannot be written, or if a value does
+     *                     not have the type of its column.
+     */
+    public static long write(Cursor rootCursor, List<String> columnNames, int batchSize, Path path)
+            throws IOException {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+        int columnCount = ResultBlock.countColumns(rootCursor);
+        if (columnNames == null) {
+            columnNames = new ArrayList<>(columnCount);
+            for (int c = 1; c <= columnCount; c++) {
+                columnNames.add("c" + c);
+            }
+        } else if (columnNames.size() != columnCount) {
+            throw new IllegalArgumentException("The Cursor has " + columnCount + " columns, not "
+                    + columnNames.size());
+        }
+
+        Path dir = path.toAbsolutePath().getParent();
+        String prefix = path.getFileName().toString();
+        Path temp = Files.createTempFile(dir, prefix, ".tmp");
+        Path spool = Files.createTempFile(dir, prefix, ".batches");
+        try {
+            long rowCount = 0;
+            BatchWriter batches;
+            // The Schema message precedes the record batches, but the types
+            // are final only once every batch is read, so the batches are
+            // written to a spool file and copied after the schema.
+            try (FileChannel spoolChannel = FileChannel.open(spool, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                batches = new BatchWriter(spoolChannel, columnCount);
+                List<Object[]> rows = new ArrayList<>(Math.min(batchSize, DEFAULT_BATCH_SIZE));
+                boolean more = true;
+
+                while (more) {
+                    rows.clear();
+                    while (more && rows.size() < batchSize) {
+                        Object[] row = new Object[columnCount];
+                        ResultBlock.readRow(rootCursor, row);
+                        rows.add(row);
+                        more = rootCursor.next();
+                    }
+                    batches.write(rows);
+                    rowCount += rows.size();
+                }
+                batches.flush();
+
+                try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING)) {
+                    ChannelWriter out = new ChannelWriter(channel);
+                    out.putBytes(MAGIC, MAGIC.length);
+                    out.align();
+                    FlatTable schema = schema(columnNames, batches.types);
+                    writeMessage(out, message(HEADER_SCHEMA, schema, 0));
+                    long batchesStart = out.position();
+                    out.transferFrom(spoolChannel);
+                    out.putInt(CONTINUATION);
+                    out.putInt(0);
+
+                    byte[] footer = footer(schema, batches.blocks, batchesStart);
+                    out.putBytes(footer, footer.length);
+                    out.putInt(footer.length);
+                    out.putBytes(MAGIC, MAGIC.length);
+                    out.flush();
+                }
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            for (int c = 0; c < columnCount; c++) {
+                if (batches.rounded[c] > 0) {
+                    log.warn("{} values of column {} were rounded to the nearest double.", batches.rounded[c],
+                            columnNames.get(c));
+                }
+            }
+            return rowCount;
+        } finally {
+            Files.deleteIfExists(spool);
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Reads a file written by write into memory.
+     *
+     * @param path The file.
+     * @return The rows, with Long, Double, Boolean and String values.
+     * @throws IOException If the file cannot be read, is larger than 2 GB,
+     *                     is not an Arrow file or has a column of a type that
+     *                     write does not produce.
+     */
+    public static ResultBlock read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(path + " is too large to be read into memory");
+            }
+            int size = (int) channel.size();
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            in.order(ByteOrder.LITTLE_ENDIAN);
+
+            if (size < 2 * ALIGNMENT + 4 || !hasMagic(in, 0) || !hasMagic(in, size - MAGIC.length)) {
+                throw new IOException(path + " is not an Arrow file");
+            }
+            try {
+                int footer = size - MAGIC.length - 4 - in.getInt(size - MAGIC.length - 4);
+                int footerRoot = footer + in.getInt(footer);
+                Type[] types = readSchema(in, child(in, footerRoot, 1));
+
+                List<Object[]> rows = new ArrayList<>();
+                int blocks = child(in, footerRoot, 3);
+                for (int b = 0; b < in.getInt(blocks); b++) {
+                    int block = blocks + 4 + BLOCK_SIZE * b;
+                    int offset = (int) in.getLong(block);
+                    int metadataLength = in.getInt(block + 8);
+                    if (in.getInt(offset) != CONTINUATION) {
+                        throw new IOException(path + " has a record batch without a continuation marker");
+                    }
+                    int message = offset + 8 + in.getInt(offset + 8);
+                    int headerType = field(in, message, 1);
+                    if (headerType < 0 || in.get(headerType) != HEADER_RECORD_BATCH) {
+                        throw new IOException(path + " has a block that is not a record batch");
+                    }
+                    readBatch(in, types, child(in, message, 2), offset + metadataLength, rows);
+                }
+                return new ResultBlock(types.length, Collections.unmodifiableList(rows), true);
+            } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+                throw new IOException(path + " is not a valid Arrow file", e);
+            }
+        }
+    }
+
+    private static Type typeOf(Object value) {
+        if (value instanceof Boolean) {
+            return Type.BOOLEAN;
+        }
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return Type.INT64;
+        }
+        // BigDecimal and BigInteger too; they are rounded to the nearest double.
+        if (value instanceof Number) {
+            return Type.FLOAT64;
+        }
+        return Type.UTF8;
+    }
+
+    /**
+     * Gets the type of a column that receives a value.
+     *
+     * @param type  The type of the column, or null if it has no values yet.
+     * @param value The value.
+     * @return The new type of the column.
+     * @throws IOException If the value does not fit in the column.
+     */
+    private static Type merge(Type type, Object value, int column) throws IOException {
+        Type valueType = typeOf(value);
+        if (type == null) {
+            return valueType;
+        }
+        if (type == valueType || type == Type.UTF8) {
+            return type;
+        }
+        if ((type == Type.INT64 || type == Type.FLOAT64) && (valueType == Type.INT64 || valueType == Type.FLOAT64)) {
+            return Type.FLOAT64;
+        }
+        throw new IOException("Column " + (column + 1) + " has a " + value.getClass().getSimpleName()
+                + " value in a column of type " + type);
+    }
+
+    private static FlatTable schema(List<String> columnNames, Type[] types) {
+        List<FlatTable> fields = new ArrayList<>(types.length);
+        for (int c = 0; c < types.length; c++) {
+            FlatTable type = new FlatTable();
+            if (types[c] == Type.INT64) {
+                type.addInt(0, 64).addBoolean(1, true);
+            } else if (types[c] == Type.FLOAT64) {
+                type.addShort(0, PRECISION_DOUBLE);
+            }
+            fields.add(new FlatTable()
+                    .addChild(0, columnNames.get(c))
+                    .addBoolean(1, true)
+                    .addByte(2, types[c].arrowType)
+                    .addChild(3, type)
+                    .addChild(5, List.of()));
+        }
+        return new FlatTable().addChild(1, fields);
+    }
+
+    private static FlatTable message(byte headerType, FlatTable header, long bodyLength) {
+        return new FlatTable()
+                .addShort(0, METADATA_VERSION_V5)
+                .addByte(1, headerType)
+                .addChild(2, header)
+                .addLong(3, bodyLength);
+    }
+
+    /**
+     * Writes the continuation marker, the length and the metadata of a
+     * message, padded so that the body starts on an 8-byte boundary.
+     *
+     * @return The length of the message without its body.
+     */
+    private static int writeMessage(ChannelWriter out, FlatTable message) throws IOException {
+        byte[] metadata = message.toByteArray();
+        int length = (int) padded(metadata.length);
+        out.putInt(CONTINUATION);
+        out.putInt(length);
+        out.putBytes(metadata, metadata.length);
+        out.align();
+        return 8 + length;
+    }
+
+    /**
+     * Builds the Footer of the file.
+     *
+     * @param blocks       The offset in the spool file, the metadata length
+     *                     and the body length of each record batch.
+     * @param batchesStart The offset of the first record batch in the file.
+     */
+    private static byte[] footer(FlatTable schema, List<long[]> blocks, long batchesStart) {
+        ByteBuffer data = ByteBuffer.allocate(BLOCK_SIZE * blocks.size()).order(ByteOrder.LITTLE_ENDIAN);
+        for (long[] block : blocks) {
+            data.putLong(batchesStart + block[0]).putInt((int) block[1]).putInt(0).putLong(block[2]);
+        }
+        return new FlatTable()
+                .addShort(0, METADATA_VERSION_V5)
+                .addChild(1, schema)
+                .addChild(2, new Structs(new byte[0], 0))
+                .addChild(3, new Structs(data.array(), blocks.size()))
+                .toByteArray();
+    }
+
+    private static long padded(long length) {
+        return (length + ALIGNMENT - 1) & -ALIGNMENT;
+    }
+
+    private static boolean hasMagic(ByteBuffer in, int position) {
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (in.get(position + i) != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Type[] readSchema(ByteBuffer in, int schema) throws IOException {
+        int fields = child(in, schema, 1);
+        Type[] types = new Type[in.getInt(fields)];
+        for (int c = 0; c < types.length; c++) {
+            int field = fields + 4 + 4 * c;
+            field += in.getInt(field);
+            int tag = field(in, field, 2);
+            int type = child(in, field, 3);
+            int parameter = field(in, type, 0);
+
+            types[c] = switch ((tag < 0) ? 0 : in.get(tag)) {
+                case 2 -> (parameter >= 0 && in.getInt(parameter) == 64) ? Type.INT64 : null;
+                case 3 -> (parameter >= 0 && in.getShort(parameter) == PRECISION_DOUBLE) ? Type.FLOAT64 : null;
+                case 5 -> Type.UTF8;
+                case 6 -> Type.BOOLEAN;
+                default -> null;
+            };
+            if (types[c] == null) {
+                throw new IOException("Column " + (c + 1) + " has an unsupported Arrow type");
+            }
+        }
+        return types;
+    }
+
+    private static void readBatch(ByteBuffer in, Type[] types, int batch, int body, List<Object[]> rows) {
+        int rowCount = (int) in.getLong(field(in, batch, 0));
+        int buffers = child(in, batch, 2) + 4;
+        int buffer = 0;
+        int first = rows.size();
+        for (int r = 0; r < rowCount; r++) {
+            rows.add(new Object[types.length]);
+        }
+
+        for (int c = 0; c < types.length; c++) {
+            // An empty validity buffer means that every value is set.
+            boolean allValid = in.getLong(buffers + BUFFER_SIZE * buffer + 8) == 0;
+            int validity = body + (int) in.getLong(buffers + BUFFER_SIZE * buffer++);
+            int values = body + (int) in.getLong(buffers + BUFFER_SIZE * buffer++);
+            int data = (types[c] == Type.UTF8) ? body + (int) in.getLong(buffers + BUFFER_SIZE * buffer++) : 0;
+
+            for (int r = 0; r < rowCount; r++) {
+                if (!allValid && (in.get(validity + (r >> 3)) & (1 << (r & 7))) == 0) {
+                    continue;
+                }
+                rows.get(first + r)[c] = switch (types[c]) {
+                    case BOOLEAN -> (in.get(values + (r >> 3)) & (1 << (r & 7))) != 0;
+                    case INT64 -> in.getLong(values + 8 * r);
+                    case FLOAT64 -> in.getDouble(values + 8 * r);
+                    case UTF8 -> {
+                        int start = in.getInt(values + 4 * r);
+                        int end = in.getInt(values + 4 * (r + 1));
+                        byte[] bytes = new byte[end - start];
+                        in.get(data + start, bytes);
+                        yield new String(bytes, StandardCharsets.UTF_8);
+                    }
+                };
+            }
+        }
+    }
+
+    /**
+     * Gets the position of a field of a Flatbuffer table.
+     *
+     * @return The position, or -1 if the field is not set.
+     */
+    private static int field(ByteBuffer in, int table, int id) {
+        int vtable = table - in.getInt(table);
+        int slot = 4 + 2 * id;
+        if (slot >= Short.toUnsignedInt(in.getShort(vtable))) {
+            return -1;
+        }
+        int offset = Short.toUnsignedInt(in.getShort(vtable + slot));
+        return (offset == 0) ? -1 : table + offset;
+    }
+
+    /**
+     * Gets the position of the table, vector or string that a field of a
+     * Flatbuffer table refers to.
+     */
+    private static int child(ByteBuffer in, int table, int id) {
+        int field = field(in, table, id);
+        if (field < 0) {
+            throw new IllegalArgumentException("The Arrow metadata has no field " + id + " at " + table);
+        }
+        return field + in.getInt(field);
+    }
+
+    /**
+     * Writes the RecordBatch messages to the spool file and tracks the types
+     * of the columns.
+     */
+    private static final class BatchWriter {
+        private final FileChannel channel;
+        private final ChannelWriter out;
+        private final Type[] types;
+        private final long[] rounded;
+
+        /**
+         * The offset, metadata length and body length of each batch.
+         */
+        private final List<long[]> blocks = new ArrayList<>();
+
+        /**
+         * For each column, the offset and the value count of the values
+         * buffers written while the column was an Int column.
+         */
+        private final List<List<long[]>> integerBuffers;
+
+        BatchWriter(FileChannel channel, int columnCount) {
+            this.channel = channel;
+            out = new ChannelWriter(channel);
+            types = new Type[columnCount];
+            rounded = new long[columnCount];
+            integerBuffers = new ArrayList<>(columnCount);
+            for (int c = 0; c < columnCount; c++) {
+                integerBuffers.add(new ArrayList<>());
+            }
+        }
+
+        void write(List<Object[]> rows) throws IOException {
+            resolveTypes(rows);
+            int rowCount = rows.size();
+            int columnCount = types.length;
+
+            byte[][] validity = new byte[columnCount][];
+            byte[][][] strings = new byte[columnCount][][];
+            ByteBuffer nodes = ByteBuffer.allocate(FIELD_NODE_SIZE * columnCount).order(ByteOrder.LITTLE_ENDIAN);
+            List<Long> bufferLengths = new ArrayList<>(3 * columnCount);
+            for (int c = 0; c < columnCount; c++) {
+                validity[c] = new byte[(rowCount + 7) / 8];
+                long nullCount = 0;
+                for (int r = 0; r < rowCount; r++) {
+                    if (rows.get(r)[c] == null) {
+                        nullCount++;
+                    } else {
+                        validity[c][r >> 3] |= (byte) (1 << (r & 7));
+                    }
+                }
+                nodes.putLong(rowCount).putLong(nullCount);
+                bufferLengths.add((long) validity[c].length);
+
+                switch (types[c]) {
+                    case BOOLEAN -> bufferLengths.add((long) validity[c].length);
+                    case INT64, FLOAT64 -> bufferLengths.add(8L * rowCount);
+                    case UTF8 -> {
+                        strings[c] = encode(rows, c);
+                        long length = 0;
+                        for (byte[] value : strings[c]) {
+                            length += value.length;
+                        }
+                        bufferLengths.add(4L * (rowCount + 1));
+                        bufferLengths.add(length);
+                    }
+                }
+            }
+
+            ByteBuffer buffers = ByteBuffer.allocate(BUFFER_SIZE * bufferLengths.size())
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            long bodyLength = 0;
+            for (long length : bufferLengths) {
+                buffers.putLong(bodyLength).putLong(length);
+                bodyLength += padded(length);
+            }
+            FlatTable batch = new FlatTable()
+                    .addLong(0, rowCount)
+                    .addChild(1, new Structs(nodes.array(), columnCount))
+                    .addChild(2, new Structs(buffers.array(), bufferLengths.size()));
+
+            long offset = out.position();
+            int metadataLength = writeMessage(out, message(HEADER_RECORD_BATCH, batch, bodyLength));
+            blocks.add(new long[]{offset, metadataLength, bodyLength});
+
+            for (int c = 0; c < columnCount; c++) {
+                out.putBytes(validity[c], validity[c].length);
+                out.align();
+                switch (types[c]) {
+                    case BOOLEAN -> {
+                        byte[] bits = new byte[validity[c].length];
+                        for (int r = 0; r < rowCount; r++) {
+                            if (Boolean.TRUE.equals(rows.get(r)[c])) {
+                                bits[r >> 3] |= (byte) (1 << (r & 7));
+                            }
+                        }
+                        out.putBytes(bits, bits.length);
+                        out.align();
+                    }
+                    case INT64 -> {
+                        integerBuffers.get(c).add(new long[]{out.position(), rowCount});
+                        for (Object[] row : rows) {
+                            out.putLong(row[c] == null ? 0 : ((Number) row[c]).longValue());
+                        }
+                    }
+                    case FLOAT64 -> {
+                        for (Object[] row : rows) {
+                            out.putDouble(row[c] == null ? 0 : toDouble((Number) row[c], c));
+                        }
+                    }
+                    case UTF8 -> {
+                        int position = 0;
+                        out.putInt(position);
+                        for (byte[] value : strings[c]) {
+                            position += value.length;
+                            out.putInt(position);
+                        }
+                        out.align();
+                        for (byte[] value : strings[c]) {
+                            out.putBytes(value, value.length);
+                        }
+                        out.align();
+                    }
+                }
+            }
+        }
+
+        void flush() throws IOException {
+            out.flush();
+        }
+
+        /**
+         * Updates the types of the columns with the values of a batch. A
+         * column without values in the first batch is a Utf8 column.
+         */
+        private void resolveTypes(List<Object[]> rows) throws IOException {
+            for (int c = 0; c < types.length; c++) {
+                Type type = types[c];
+                for (Object[] row : rows) {
+                    if (row[c] != null) {
+                        type = merge(type, row[c], c);
+                    }
+                }
+                if (type == null) {
+                    type = Type.UTF8;
+                }
+                if (types[c] == Type.INT64 && type == Type.FLOAT64) {
+                    widen(c);
+                }
+                types[c] = type;
+            }
+        }
+
+        /**
+         * Rewrites the values of an Int column in the batches already
+         * written as doubles, which have the same size, so that the offsets
+         * of the buffers do not change.
+         */
+        private void widen(int column) throws IOException {
+            out.flush();
+            ByteBuffer values = ByteBuffer.allocate(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            for (long[] buffer : integerBuffers.get(column)) {
+                long position = buffer[0];
+                long end = position + 8 * buffer[1];
+                while (position < end) {
+                    values.clear().limit((int) Math.min(values.capacity(), end - position));
+                    while (values.hasRemaining()) {
+                        if (channel.read(values, position + values.position()) < 0) {
+                            throw new IOException("The spool file of the export is truncated");
+                        }
+                    }
+                    for (int i = 0; i < values.limit(); i += 8) {
+                        values.putDouble(i, toDouble(values.getLong(i), column));
+                    }
+                    values.flip();
+                    while (values.hasRemaining()) {
+                        channel.write(values, position + values.position());
+                    }
+                    position += values.limit();
+                }
+            }
+            integerBuffers.get(column).clear();
+        }
+
+        private double toDouble(Number value, int column) {
+            if (value instanceof Long longValue) {
+                return toDouble(longValue.longValue(), column);
+            }
+            double result = value.doubleValue();
+            BigDecimal exact = null;
+            if (value instanceof BigDecimal decimal) {
+                exact = decimal;
+            } else if (value instanceof BigInteger integer) {
+                exact = new BigDecimal(integer);
+            }
+            if (exact != null && (!Double.isFinite(result) || new BigDecimal(result).compareTo(exact) != 0)) {
+                rounded[column]++;
+            }
+            return result;
+        }
+
+        private double toDouble(long value, int column) {
+            double result = value;
+            if (Math.abs(value) > (1L << 53) && (result == 0x1p63 || (long) result != value)) {
+                rounded[column]++;
+            }
+            return result;
+        }
+
+        private static byte[][] encode(List<Object[]> rows, int column) {
+            byte[][] values = new byte[rows.size()][];
+            for (int r = 0; r < values.length; r++) {
+                Object value = rows.get(r)[column];
+                values[r] = value == null ? new byte[0] : String.valueOf(value).getBytes(StandardCharsets.UTF_8);
+            }
+            return values;
+        }
+    }
+
+    /**
+     * A vector of Flatbuffer structs of 8-byte alignment.
+     *
+     * @param data  The structs.
+     * @param count The number of structs.
+     */
+    private record Structs(byte[] data, int count) {
+    }
+
+    /**
+     * A field of a FlatTable: a scalar of 1, 2, 4 or 8 bytes, or the offset
+     * of a child, which is a FlatTable, a String, a List of FlatTable or
+     * Structs.
+     */
+    private record FlatField(int id, int size, long bits, Object child) {
+    }
+
+    /**
+     * A Flatbuffer table, with its fields in the order in which they are
+     * laid out.
+     */
+    private static final class FlatTable {
+        private final List<FlatField> fields = new ArrayList<>();
+
+        FlatTable addByte(int id, byte value) {
+            fields.add(new FlatField(id, 1, value, null));
+            return this;
+        }
+
+        FlatTable addBoolean(int id, boolean value) {
+            fields.add(new FlatField(id, 1, value ? 1 : 0, null));
+            return this;
+        }
+
+        FlatTable addShort(int id, short value) {
+            fields.add(new FlatField(id, 2, value, null));
+            return this;
+        }
+
+        FlatTable addInt(int id, int value) {
+            fields.add(new FlatField(id, 4, value, null));
+            return this;
+        }
+
+        FlatTable addLong(int id, long value) {
+            fields.add(new FlatField(id, 8, value, null));
+            return this;
+        }
+
+        FlatTable addChild(int id, Object child) {
+            fields.add(new FlatField(id, 4, 0, child));
+            return this;
+        }
+
+        /**
+         * Serializes the table as the root of a Flatbuffer.
+         */
+        byte[] toByteArray() {
+            FlatBufferWriter out = new FlatBufferWriter();
+            out.skip(4);
+            out.patchOffset(0, out.write(this));
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Serializes a Flatbuffer front to back: each vtable just before its
+     * table, and each child after its parent, so that every offset to a
+     * child is positive, as the format requires.
+     */
+    private static final class FlatBufferWriter {
+        private ByteBuffer buffer = ByteBuffer.allocate(256).order(ByteOrder.LITTLE_ENDIAN);
+
+        int write(Object object) {
+            if (object instanceof FlatTable table) {
+                return writeTable(table);
+            }
+            if (object instanceof String text) {
+                byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+                align(4);
+                int start = buffer.position();
+                ensure(bytes.length + 5);
+                buffer.putInt(bytes.length).put(bytes).put((byte) 0);
+                return start;
+            }
+            if (object instanceof Structs structs) {
+                // The length precedes the structs, which start on an 8-byte boundary.
+                align(ALIGNMENT);
+                skip(4);
+                int start = buffer.position();
+                ensure(structs.data().length + 4);
+                buffer.putInt(structs.count()).put(structs.data());
+                return start;
+            }
+
+            List<?> tables = (List<?>) object;
+            align(4);
+            int start = buffer.position();
+            ensure(4);
+            buffer.putInt(tables.size());
+            skip(4 * tables.size());
+            for (int i = 0; i < tables.size(); i++) {
+                patchOffset(start + 4 + 4 * i, write(tables.get(i)));
+            }
+            return start;
+        }
+
+        private int writeTable(FlatTable table) {
+            int slotCount = 0;
+            for (FlatField field : table.fields) {
+                slotCount = Math.max(slotCount, field.id() + 1);
+            }
+            align(2);
+            int vtable = buffer.position();
+            int vtableSize = 4 + 2 * slotCount;
+            skip(vtableSize);
+
+            align(ALIGNMENT);
+            int start = buffer.position();
+            ensure(4);
+            buffer.putInt(start - vtable);
+            int[] positions = new int[table.fields.size()];
+            for (int i = 0; i < positions.length; i++) {
+                FlatField field = table.fields.get(i);
+                align(field.size());
+                positions[i] = buffer.position();
+                buffer.putShort(vtable + 4 + 2 * field.id(), (short) (positions[i] - start));
+                ensure(field.size());
+                switch (field.size()) {
+                    case 1 -> buffer.put((byte) field.bits());
+                    case 2 -> buffer.putShort((short) field.bits());
+                    case 4 -> buffer.putInt((int) field.bits());
+                    default -> buffer.putLong(field.bits());
+                }
+            }
+            buffer.putShort(vtable, (short) vtableSize);
+            buffer.putShort(vtable + 2, (short) (buffer.position() - start));
+
+            for (int i = 0; i < positions.length; i++) {
+                Object child = table.fields.get(i).child();
+                if (child != null) {
+                    patchOffset(positions[i], write(child));
+                }
+            }
+            return start;
+        }
+
+        void patchOffset(int position, int target) {
+            buffer.putInt(position, target - position);
+        }
+
+        void skip(int length) {
+            ensure(length);
+            buffer.position(buffer.position() + length);
+        }
+
+        private void align(int alignment) {
+            skip((alignment - buffer.position() % alignment) % alignment);
+        }
+
+        private void ensure(int length) {
+            if (buffer.remaining() < length) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(2 * buffer.capacity(), buffer.position() + length))
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                larger.put(buffer.array(), 0, buffer.position());
+                buffer = larger;
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer.array(), buffer.position());
+        }
+    }
+
+    /**
+     * Writes little-endian values to a FileChannel through a direct buffer,
+     * keeping track of the position for alignment.
+     */
+    private static final class ChannelWriter {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        private long position;
+
+        ChannelWriter(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        long position() {
+            return position;
+        }
+
+        void putInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+            position += 4;
+        }
+
+        void putLong(long value) throws IOException {
+            ensure(8);
+            buffer.putLong(value);
+            position += 8;
+        }
+
+        void putDouble(double value) throws IOException {
+            ensure(8);
+            buffer.putDouble(value);
+            position += 8;
+        }
+
+        void putBytes(byte[] bytes, int length) throws IOException {
+            int offset = 0;
+            while (offset < length) {
+                ensure(1);
+                int n = Math.min(buffer.remaining(), length - offset);
+                buffer.put(bytes, offset, n);
+                offset += n;
+            }
+            position += length;
+        }
+
+        void align() throws IOException {
+            while (position % ALIGNMENT != 0) {
+                ensure(1);
+                buffer.put((byte) 0);
+                position++;
+            }
+        }
+
+        /**
+         * Appends the content of a file.
+         */
+        void transferFrom(FileChannel source) throws IOException {
+            flush();
+            long size = source.size();
+            long transferred = 0;
+            while (transferred < size) {
+                transferred += source.transferTo(transferred, size - transferred, channel);
+            }
+            position += size;
+        }
+
+        private void ensure(int length) throws IOException {
+            if (buffer.remaining() < length) {
+                flush();
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+}
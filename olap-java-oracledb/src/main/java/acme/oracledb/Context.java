@@ -10,8 +10,13 @@ import oracle.olapi.session.UserSession;
 import oracle.olapi.transaction.NotCommittableException;
 import oracle.olapi.transaction.TransactionProvider;
 
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Creates and stores various objects that are commonly used by the example
@@ -26,6 +31,22 @@ import java.util.*;
  * This class is created by a BaseExample instance.
  */
 public class Context {
+    /**
+     * Receives the Cursor of each Source of a batch.
+     */
+    @FunctionalInterface
+    public interface CursorHandler {
+        /**
+         * Processes the Cursor of a Source of a batch.
+         *
+         * @param index  The index of the Source in the batch.
+         * @param cursor The Cursor for the Source, or null if no data is
+         *               available for it. The Cursor is closed after this
+         *               method returns.
+         */
+        void handle(int index, Cursor cursor);
+    }
+
     /**
      * The CursorPrintWriter for this session.
      */
@@ -45,6 +66,11 @@ public class Context {
      */
     private DataProvider dp = null;
 
+    /**
+     * The AsyncDataProvider for this session, created on first use.
+     */
+    private AsyncDataProvider asyncDp = null;
+
     /**
      * The Oracle JDBC OracleConnection for this session.
      */
@@ -55,6 +81,12 @@ public class Context {
      */
     private MdmMetadataProvider mp = null;
 
+    /**
+     * The PooledSession that provides the connection and the providers, or
+     * null if this Context opened its own connection.
+     */
+    private PooledSession pooledSession = null;
+
     /**
      * The Properties object for storing the command-line arguments and other
      * parameters to use when creating the connection to the database.
@@ -62,12 +94,9 @@ public class Context {
     private Properties props = new Properties();
 
     /**
-     * The HashMap to store the metadata objects and their names.
+     * The catalog of the metadata objects of the schema of the user.
      */
-    private Map m_hashMap = null;
-
-    private List m_dimensionList = null;
-    private List m_measureList = null;
+    private SharedMetadataCatalog catalog = null;
 
     private String _server;
     private String _user;
@@ -78,14 +107,41 @@ public class Context {
     public Context(Properties properties, Logger logger) {
         props = properties;
         logOutput = logger;
-        cpw = new CursorPrintWriter(logger.getPrintWriter());
+        cpw = _createCursorPrintWriter(logger);
 
         // Connect to the database.
         _connect();
     }
 
+    /**
+     * Creates a new Context object that uses a session borrowed from a
+     * SessionPool instead of opening its own connection.
+     * Closing the Context returns the session to the pool.
+     *
+     * @param pool       The SessionPool from which to borrow the session.
+     * @param properties The command-line arguments.
+     * @param logger     The Logger for this session.
+     * @throws SQLException If no session can be borrowed.
+     */
+    public Context(SessionPool pool, Properties properties, Logger logger) throws SQLException {
+        props = properties;
+        logOutput = logger;
+        cpw = _createCursorPrintWriter(logger);
+
+        _setServerAndUser();
+
+        showInfo("Borrowing a pooled session.");
+        pooledSession = pool.borrow();
+        conn = pooledSession.getConnection();
+        dp = pooledSession.getDataProvider();
+        tp = pooledSession.getTransactionProvider();
+        mp = pooledSession.getMetadataProvider();
+        catalog = pooledSession.getCatalog();
+    }
+
     /**
      * Closes the DataProvider and the connection to the Oracle Database instance.
+     * If the connection was borrowed from a SessionPool, returns it to the pool.
      */
     public void close() {
         _disconnect();
@@ -132,15 +188,7 @@ public class Context {
         //  -url jdbc:oracle:thin:@myOracleServer:1521:orcl -user global
         //  -password whA20eV5r
 
-        String url = props.getProperty("url");
-        String user = props.getProperty("user");
-        String password = props.getProperty("password");
-
-        int indexAtSign = url.indexOf("@");
-        int indexColonAfterServer = url.indexOf(":", indexAtSign);
-        String server = url.substring(indexAtSign + 1, indexColonAfterServer);
-        setServer(server);
-        setUser(user);
+        _setServerAndUser();
 
         showInfo("Connecting to " + getServer() + " as " + getUser() + ".");
         showInfo("Getting the connection.");
@@ -158,10 +206,57 @@ public class Context {
         _createProviders();
     }
 
+    /**
+     * Gets the CursorPrintWriter that displays query results. The writer of
+     * the Logger is used as is if it is a CursorPrintWriter, so that its
+     * buffering mode applies; otherwise it is wrapped.
+     *
+     * @param logger The Logger for this session.
+     * @return The CursorPrintWriter.
+     */
+    private static CursorPrintWriter _createCursorPrintWriter(Logger logger) {
+        PrintWriter writer = logger.getPrintWriter();
+        if (writer instanceof CursorPrintWriter cursorWriter) {
+            return cursorWriter;
+        }
+        return new CursorPrintWriter(writer);
+    }
+
+    /**
+     * Stores the server named in the URL and the username of the
+     * command-line arguments.
+     */
+    private void _setServerAndUser() {
+        String url = props.getProperty("url");
+        int indexAtSign = url.indexOf("@");
+        int indexColonAfterServer = url.indexOf(":", indexAtSign);
+        setServer(url.substring(indexAtSign + 1, indexColonAfterServer));
+        setUser(props.getProperty("user"));
+    }
+
     /**
      * Closes the DataProvider.
      */
     public void _disconnect() {
+        if (null != asyncDp) {
+            asyncDp.close();
+            asyncDp = null;
+        }
+        if (null != pooledSession) {
+            showInfo("Returning the pooled session");
+            pooledSession.close();
+            pooledSession = null;
+            dp = null;
+            tp = null;
+            mp = null;
+            catalog = null;
+            conn = null;
+            return;
+        }
+        if (null != catalog) {
+            catalog.close();
+            catalog = null;
+        }
         if (null != dp) {
             showInfo("Closing DataProvider");
             dp.close();
@@ -210,6 +305,14 @@ public class Context {
         } catch (Exception e) {
             showError("Cannot create the MDM metadata provider." + e);
         }
+
+        // The catalog starts from the metadata snapshot file, if one is
+        // specified and is up to date.
+        String interval = props.getProperty(SessionPool.KEY_CATALOG_REFRESH_INTERVAL, "60");
+        String snapshot = props.getProperty(SessionPool.KEY_METADATA_SNAPSHOT);
+        catalog = new SharedMetadataCatalog(mp, conn, getUser(),
+                TimeUnit.SECONDS.toMillis(Integer.parseInt(interval.trim())),
+                (snapshot == null) ? null : Paths.get(snapshot));
     }
 
     /**
@@ -221,6 +324,20 @@ public class Context {
         return dp;
     }
 
+    /**
+     * Gets the AsyncDataProvider that evaluates Source objects of the stored
+     * DataProvider without blocking the caller.
+     * While asynchronous calls are pending, the other methods of this Context
+     * must not use the DataProvider.
+     *
+     * @return The AsyncDataProvider for this session.
+     */
+    public synchronized AsyncDataProvider getAsyncDataProvider() {
+        if (null == asyncDp)
+            asyncDp = new AsyncDataProvider(dp);
+        return asyncDp;
+    }
+
     /**
      * Gets the FundamentalMetadataProvider.
      *
@@ -249,79 +366,16 @@ public class Context {
     }
 
     /**
-     * From the top-level MdmSchema, gets the subschemas.
-     * If the user is GLOBAL, then the method looks for the GLOBALAWJ
-     * subschema and makes it the schema to use.
-     * If the subschema does not exist, then it uses the MdmDatabaseSchema
-     * for the GLOBAL user.
-     * If the user is not GLOBAL, then it uses the MdmDatabaseSchema
-     * for the current user.
-     * The method gets a list of MdmDimension objects and a list of MdmMeasure
-     * objects from the MdmDatabaseSchema.
-     * From the lists, the method creates a hash map to store the names of the
-     * dimensions and measures.
+     * Gets the catalog of the dimensions and measures of the schema of the
+     * current user. The catalog is built on the first call and is shared by
+     * the Context objects that use the same pooled session.
+     * If the user is GLOBAL, then the catalog is built from the GLOBAL_AWJ
+     * subschema if it exists.
+     *
+     * @return The MetadataCatalog.
      */
-    private Map loadHashMap() {
-        // Get the schema for the current user.
-        MdmRootSchema mdmRootSchema = (MdmRootSchema) mp.getRootSchema();
-        MdmSchema mdmSchema = mdmRootSchema.getDatabaseSchema(getUser());
-
-        // Create an empty HashMap.
-        Map map = new HashMap();
-
-        boolean isGlobal = false;
-        MdmSchema mdmSchemaToUse = null;
-
-        if (getUser().toUpperCase().equals("GLOBAL")) {
-            isGlobal = true;
-
-            List subSchemas = mdmSchema.getSubSchemas();
-            Iterator subSchemasItr = subSchemas.iterator();
-
-            while (subSchemasItr.hasNext()) {
-                MdmOrganizationalSchema schemaToUse =
-                        (MdmOrganizationalSchema) subSchemasItr.next();
-                if (mdmSchemaToUse.getName().equals("GLOBAL_AWJ")) {
-                    mdmSchema = mdmSchemaToUse;
-                    break;
-                }
-            }
-        }
-
-        // Get the dimension list.
-        m_dimensionList = mdmSchema.getDimensions();
-        Iterator objIter = m_dimensionList.iterator();
-        MdmPrimaryDimension mdmPDim = null;
-
-        // Get the dimensions and put them in the hash map.
-        while (objIter.hasNext()) {
-            mdmPDim = (MdmPrimaryDimension) objIter.next();
-            // Put the upper case name of the dimension into the hash map as the key
-            // with the object as the value.
-            map.put(mdmPDim.getName().toUpperCase(), mdmPDim);
-        }
-
-        // Get the measure list.
-        if (isGlobal) {
-            m_measureList = mdmSchema.getMeasures();
-        } else {
-            MdmMeasureDimension mDim =
-                    (MdmMeasureDimension) mdmSchema.getMeasureDimension();
-            m_measureList = mDim.getMeasures();
-        }
-
-        objIter = m_measureList.iterator();
-
-        MdmMeasure mdmMeasure = null;
-        // Put the measures in the hash map.
-        while (objIter.hasNext()) {
-            mdmMeasure = (MdmMeasure) objIter.next();
-            // Put upper case name of the measure into the hash map as the key
-            // with the object as the value.
-            map.put(mdmMeasure.getName().toUpperCase(), mdmMeasure);
-        }
-
-        return map;
+    public MetadataCatalog getCatalog() {
+        return catalog.get();
     }
 
     /**
@@ -331,46 +385,25 @@ public class Context {
      * @return The MdmMeasure that has the specified name or null.
      */
     public MdmMeasure getMdmMeasureByName(String name) {
-        // If the hash map has not been created yet, create it.
-        if (m_hashMap == null)
-            m_hashMap = loadHashMap();
-
-        MdmMeasure result = null;
-
-        // If the hash map load succeeded, then get the measure.
-        if (m_hashMap != null) {
-            String val = name.toUpperCase();
-            result = (MdmMeasure) m_hashMap.get(val);
-        }
-        return result;
+        return getCatalog().getMeasure(name);
     }
 
     /**
      * Gets an array of MdmMeasure objects that has one MdmMeasure for each
      * specified name.
-     * If the name is not in the hash map of MdmObject objects, then the array
-     * element for that name is null.
+     * If the name is not in the catalog, then the array element for that name
+     * is null.
      *
      * @param names The names of the MdmMeasure objects that you want.
      * @return An array of the MdmMeasure objects that have the specified names.
      */
     public MdmMeasure[] getMdmMeasuresByName(String[] names) {
-        // If the hash map has not been created yet, then create it.
-        if (m_hashMap == null)
-            m_hashMap = loadHashMap();
-
-        // Create an array of nulls.
+        MetadataCatalog mdmCatalog = getCatalog();
         MdmMeasure[] mdmMeasures = new MdmMeasure[names.length];
-        // If the hash map load succeeded, then get the MdmMeasure objects.
-        if (m_hashMap != null) {
-            // Loop over the names...
-            for (int i = 0; i < names.length; i++) {
-                // Get the HashMap value for this name.
-                String val = names[i].toUpperCase();
-                mdmMeasures[i] = (MdmMeasure) m_hashMap.get(val);
-            }
+        for (int i = 0; i < names.length; i++) {
+            mdmMeasures[i] = mdmCatalog.getMeasure(names[i]);
         }
-        return (mdmMeasures);
+        return mdmMeasures;
     }
 
     /**
@@ -380,20 +413,7 @@ public class Context {
      * @return The MdmPrimaryDimension that has the specified name or null.
      */
     public MdmPrimaryDimension getMdmPrimaryDimensionByName(String name) {
-        // If the hash map has not been created yet, then create it.
-        if (m_hashMap == null)
-            m_hashMap = loadHashMap();
-
-        MdmPrimaryDimension result = null;
-
-        // If the hash map load succeeded, then get the dimension.
-        if (m_hashMap != null) {
-            // Loop over the names.
-            String val = name.toUpperCase();
-            // Get the MdmPrimaryDimension with that name.
-            result = (MdmPrimaryDimension) m_hashMap.get(val);
-        }
-        return result;
+        return getCatalog().getDimension(name);
     }
 
     /**
@@ -405,6 +425,11 @@ public class Context {
      */
     public MdmAttribute getAttributeByName(MdmPrimaryDimension mdmPDim,
                                            String name) {
+        MetadataCatalog mdmCatalog = getCatalog();
+        if (mdmCatalog.contains(mdmPDim))
+            return mdmCatalog.getAttribute(mdmPDim, name);
+
+        // The dimension is not in the schema of the user; search its list.
         List mdmAttrs = mdmPDim.getAttributes();
         Iterator mdmAttrsItr = mdmAttrs.iterator();
         while (mdmAttrsItr.hasNext()) {
@@ -424,6 +449,11 @@ public class Context {
      */
     public MdmHierarchy getHierarchyByName(MdmPrimaryDimension mdmPDim,
                                            String name) {
+        MetadataCatalog mdmCatalog = getCatalog();
+        if (mdmCatalog.contains(mdmPDim))
+            return mdmCatalog.getHierarchy(mdmPDim, name);
+
+        // The dimension is not in the schema of the user; search its list.
         List mdmHiers = mdmPDim.getHierarchies();
         Iterator mdmHierItr = mdmHiers.iterator();
         while (mdmHierItr.hasNext()) {
@@ -443,17 +473,17 @@ public class Context {
      */
     public MdmHierarchyLevel getHierLevelByName(MdmLevelHierarchy mdmLvlHier,
                                                 String levelName) {
-        List<MdmHierarchyLevel> hierList = mdmLvlHier.getHierarchyLevels();
-        for (MdmHierarchyLevel mdmHier : hierList) {
-            List<MdmHierarchyLevel> hierLevelList =
-                    mdmLvlHier.getHierarchyLevels();
-            for (MdmHierarchyLevel mdmHierLevel : hierLevelList) {
-                if (mdmHierLevel.getName().equals(levelName)) {
-                    return mdmHierLevel;
-                }
+        MetadataCatalog mdmCatalog = getCatalog();
+        if (mdmCatalog.contains(mdmLvlHier))
+            return mdmCatalog.getLevel(mdmLvlHier, levelName);
+
+        // The hierarchy is not in the schema of the user; search its list.
+        List<MdmHierarchyLevel> hierLevelList = mdmLvlHier.getHierarchyLevels();
+        for (MdmHierarchyLevel mdmHierLevel : hierLevelList) {
+            if (mdmHierLevel.getName().equals(levelName)) {
+                return mdmHierLevel;
             }
         }
-
         return null;
     }
 
@@ -564,6 +594,103 @@ public class Context {
     }
 
 
+    /**
+     * Creates Cursor objects for a batch of Source objects and displays their
+     * values one after the other, with unique values for the dimension
+     * elements.
+     *
+     * @param sources The Source objects whose values you want to display.
+     */
+    public void displayResults(List<? extends Source> sources) {
+        displayResults(sources, false);
+    }
+
+    /**
+     * Creates Cursor objects for a batch of Source objects and displays their
+     * values one after the other.
+     *
+     * @param sources       The Source objects whose values you want to display.
+     * @param displayLocVal A boolean that specifies whether to display
+     *                      unique or local dimension element values.
+     */
+    public void displayResults(List<? extends Source> sources, boolean displayLocVal) {
+        fetchResults(sources, (index, cursor) -> {
+            if (cursor == null)
+                println("No data available.");
+            else
+                cpw.printCursor(cursor, displayLocVal);
+        });
+    }
+
+    /**
+     * Creates Cursor objects for a batch of Source objects, such as the tiles
+     * of a dashboard, and passes them to a CursorHandler in order.
+     * The current Transaction is prepared and committed once for the whole
+     * batch, and the CursorManager objects of all the Source objects are
+     * created, and all the Cursor objects opened, before any Cursor is read,
+     * so the queries are sent one after another without waiting for the
+     * values of the previous Source to be processed.
+     *
+     * @param sources The Source objects.
+     * @param handler The CursorHandler that processes each Cursor.
+     */
+    public void fetchResults(List<? extends Source> sources, CursorHandler handler) {
+        // Commit the Source definitions once for the batch.
+        commit();
+
+        List<CursorManager> cursorManagers = new ArrayList<>(sources.size());
+        try {
+            for (Source source : sources) {
+                cursorManagers.add(dp.createCursorManager(source));
+            }
+
+            // Create all the Cursor objects, which fetch their first blocks of
+            // values, before handing any of them out.
+            List<Cursor> cursors = new ArrayList<>(cursorManagers.size());
+            for (CursorManager cursorManager : cursorManagers) {
+                try {
+                    cursors.add(cursorManager.createCursor());
+                } catch (NoDataAvailableException ex) {
+                    cursors.add(null);
+                }
+            }
+
+            for (int i = 0; i < cursors.size(); i++) {
+                handler.handle(i, cursors.get(i));
+            }
+        } finally {
+            // Close the CursorManager objects.
+            for (CursorManager cursorManager : cursorManagers) {
+                cursorManager.close();
+            }
+        }
+    }
+
+    /**
+     * Creates a Cursor for the specified Source and exports its values to a
+     * file in the Arrow IPC file format, for consumers that would otherwise
+     * parse the output of printAsCrosstab.
+     *
+     * @param source The Source whose values you want to export.
+     * @param path   The file, which is replaced atomically.
+     * @return The number of rows written; 0 if no data is available, in
+     *         which case no file is written.
+     * @throws IOException If the file cannot be written.
+     * @see ColumnarExport
+     */
+    public long exportResult(Source source, Path path) throws IOException {
+        CursorManager cursorManager = dp.createCursorManager(source);
+        try {
+            return ColumnarExport.write(cursorManager.createCursor(), path);
+        } catch (NoDataAvailableException ex) {
+            println("No data available.");
+            return 0;
+        } finally {
+            // Close the CursorManager.
+            cursorManager.close();
+        }
+    }
+
     /**
      * Displays the values of the specified Cursor.
      * This method displays the unique value of dimension elements.
@@ -6,7 +6,8 @@ import java.io.BufferedWriter;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
-import java.util.ArrayList;
+import java.io.Writer;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 
@@ -24,8 +25,47 @@ public class CursorPrintWriter extends PrintWriter
   public CursorPrintWriter(PrintWriter dataWriter)
   {
     super(dataWriter, true);
+    buffered = false;
+    flushIntervalNanos = 0;
   }
 
+  /**
+   * Creates a CursorPrintWriter for high-throughput output, such as dumping
+   * a large Cursor to a file.
+   * The printCursor method of this CursorPrintWriter does not flush after
+   * each row. Its output is flushed when the buffer is full and, checked
+   * after each row, when the flush interval has elapsed since the last
+   * flush.
+   *
+   * @param out The Writer to which the output is written.
+   * @param bufferSize The size of the output buffer, in characters.
+   * @param flushIntervalMillis The maximum time between flushes while rows
+   *                            are printed, in milliseconds.
+   */
+  public CursorPrintWriter(Writer out, int bufferSize,
+                           long flushIntervalMillis)
+  {
+    super(new BufferedWriter(out, bufferSize), false);
+    buffered = true;
+    flushIntervalNanos = flushIntervalMillis * 1_000_000L;
+    lastFlush = System.nanoTime();
+  }
+
+  /**
+   * The row buffer of each thread, reused by printCursor for every row.
+   */
+  private static final ThreadLocal<RowBuffer> rowBuffer =
+    ThreadLocal.withInitial(RowBuffer::new);
+
+  /**
+   * Specifies whether printCursor flushes by size and time only.
+   */
+  private final boolean buffered;
+
+  private final long flushIntervalNanos;
+
+  private long lastFlush;
+
   /**
    * Stores the CursorPrintWriter designated as the standard output device.
    */
@@ -58,58 +98,51 @@ public class CursorPrintWriter extends PrintWriter
    *
    * @param displayLocVal A boolean that specifies whether to display
    *                      unique or local dimension member values.
+   *
+   * @param row The row buffer to which the values are appended.
    */
-  private void _printTuple(Cursor cursor, boolean displayLocVal)
+  private void _printTuple(Cursor cursor, boolean displayLocVal,
+                           RowBuffer row)
   {
     if (cursor instanceof CompoundCursor)
     {
       CompoundCursor compoundCursor = (CompoundCursor)cursor;
-      print("(");
+      row.append('(');
       Iterator iterOutputs = compoundCursor.getOutputs().iterator();
       Cursor output = (Cursor)iterOutputs.next();
-      _printTuple(output, displayLocVal);
+      _printTuple(output, displayLocVal, row);
       while (iterOutputs.hasNext())
       {
-        print(",");
-        _printTuple((Cursor)iterOutputs.next(), displayLocVal);
+        row.append(',');
+        _printTuple((Cursor)iterOutputs.next(), displayLocVal, row);
       }
-      print(",");
-      _printTuple(compoundCursor.getValueCursor(), displayLocVal);
-      print(")");
-      _printParentInfo(cursor);
+      row.append(',');
+      _printTuple(compoundCursor.getValueCursor(), displayLocVal, row);
+      row.append(')');
+      _printParentInfo(cursor, row);
     }
     else if (cursor instanceof ValueCursor)
     {
       ValueCursor valueCursor = (ValueCursor)cursor;
       if (valueCursor.hasCurrentValue())
       {
-        if (!displayLocVal)
-          print(valueCursor.getCurrentValue());
-        else
+        Object value = valueCursor.getCurrentValue();
+        if (displayLocVal && value instanceof String)
         {
-          int index = 0;
-          Object value = valueCursor.getCurrentValue();
-          if (value instanceof String)
-          {
-            String uVal = valueCursor.getCurrentString();
-            if (uVal.indexOf("::") > 0)
-            {
-              index = uVal.lastIndexOf("::");
-              String lVal =
-                uVal.substring((uVal.lastIndexOf("::") + 2), uVal.length());
-              print(lVal);
-            }
-            else
-              print(value);
-          }
+          // Append the local value without creating a substring.
+          String uVal = (String)value;
+          if (uVal.indexOf("::") > 0)
+            row.append(uVal, uVal.lastIndexOf("::") + 2, uVal.length());
           else
-            print(value);
+            row.append(uVal);
         }
+        else
+          row.append(value);
       }
       else
-        print("NA");
+        row.append("NA");
 
-      _printParentInfo(cursor);
+      _printParentInfo(cursor, row);
     }
   }
 
@@ -134,15 +167,40 @@ public class CursorPrintWriter extends PrintWriter
     // line. A tuple is the set of output ValueCursor values specified by one
     // position of the parent CompoundCursor. The method prints one line for
     // each position of the parent CompoundCursor.
-    int i = 1;
+    // Each row is formatted in the row buffer of the thread and written
+    // with a single call. A buffered CursorPrintWriter flushes only when its
+    // buffer is full or the flush interval has elapsed.
+    RowBuffer row = rowBuffer.get();
+    String lineSeparator = System.lineSeparator();
+    long i = 1;
     do
     {
-      print(i++ + ": ");
-      _printTuple(rootCursor, displayLocVal);
-      println();
-      flush();
+      row.reset();
+      row.append(i++);
+      row.append(": ");
+      _printTuple(rootCursor, displayLocVal, row);
+      row.append(lineSeparator);
+      write(row.chars, 0, row.length);
+      if (!buffered)
+        flush();
+      else
+        _flushIfDue();
     }
     while (rootCursor.next());
+    row.trim();
+  }
+
+  /**
+   * Flushes a buffered CursorPrintWriter if the flush interval has elapsed
+   * since the last flush.
+   */
+  private void _flushIfDue()
+  {
+    if (System.nanoTime() - lastFlush >= flushIntervalNanos)
+    {
+      flush();
+      lastFlush = System.nanoTime();
+    }
   }
 
   /**
@@ -151,14 +209,19 @@ public class CursorPrintWriter extends PrintWriter
    *
    * @param cursor The Cursor for which to get the startingending positions
    *               of the parent.
+   * @param row The row buffer to which the positions are appended.
    */
-  private void _printParentInfo(Cursor cursor)
+  private void _printParentInfo(Cursor cursor, RowBuffer row)
   {
     try
     {
       long parentStart = cursor.getParentStart();
       long parentEnd = cursor.getParentEnd();
-      print("{" + parentStart + "," + parentEnd + "}");
+      row.append('{');
+      row.append(parentStart);
+      row.append(',');
+      row.append(parentEnd);
+      row.append('}');
     }
     catch (NotSpecifiedException e) // Ignore the Exception.
     {
@@ -199,6 +262,14 @@ public class CursorPrintWriter extends PrintWriter
   /**
    * Prints the values of a CompoundCursor in a crosstab format with
    * columns and rows and with pages as required.
+   * The last output of the CompoundCursor is the column edge, the next to
+   * last output is the row edge and all other outputs are on the page.
+   * <p>
+   * The column headings are read once and cached, and the values are then
+   * read in a single sequential pass over the positions of the
+   * CompoundCursor, in which the last output varies fastest. Each row is
+   * written as soon as it is complete, so the memory used does not depend
+   * on the number of rows or pages.
    *
    * @param rootCursor The CompoundCursor that has the values to display
    *                   in a crosstab.
@@ -213,73 +284,84 @@ public class CursorPrintWriter extends PrintWriter
     while (outputIter.hasNext())
       ((Cursor)outputIter.next()).setPosition(1);
 
-    // The last output is fastest-varying; it represents columns.
-    // The next to last output represents rows.
-    // All other outputs are on the page.
     Cursor colCursor = (Cursor)outputs.get(nOutputs - 1);
     Cursor rowCursor = (Cursor)outputs.get(nOutputs - 2);
-    ArrayList pageCursors = new ArrayList();
-    for (int i = 0; i < nOutputs - 2; i++)
-    {
-      pageCursors.add(outputs.get(i));
-    }
+    List pageCursors = outputs.subList(0, nOutputs - 2);
 
     // Get the base ValueCursor of the CompoundCursor.
     ValueCursor dataCursor = rootCursor.getValueCursor();
 
-    // Print the pages of the crosstab.
-    printPages(pageCursors, 0, rowCursor, colCursor, dataCursor);
-  }
-
-  /**
-   * Prints the pages of a crosstab.
-   *
-   * @param pageCursors A List of Cursor objects with values that are pages
-   *                    of the crosstab.
-   * @param pageIndex An integer that indicates the page.
-   * @param rowCursor The Cursor for the rows.
-   * @param colCursor The Cursor for the columns.
-   * @param dataCursor The ValueCursor that contains the values of the
-   *                   root CompoundCursor.
-   */
-  private void printPages(List pageCursors, int pageIndex, Cursor rowCursor,
-                          Cursor colCursor, ValueCursor dataCursor)
-  {
-    // Get a Cursor for this page.
-    Cursor pageCursor = (Cursor)pageCursors.get(pageIndex);
+    // Read the column edge once for the headings of every page, and move
+    // it back to the first column.
+    String columnHeadings = _getColumnHeadings(colCursor);
+    colCursor.setPosition(1);
 
-    // Loop over the values of this page dimension
+    RowBuffer row = rowBuffer.get();
+    String lineSeparator = System.lineSeparator();
+    boolean firstTuple = true;
     do
     {
-      // If this is the fastest-varying page dimension, print a page.
-      if (pageIndex == pageCursors.size() - 1)
+      // A new row starts when the column edge is back at its first column,
+      // and a new page when the row edge is also back at its first row.
+      if (colCursor.getPosition() == 1)
       {
-        // Print the values of the page dimensions.
-        printPageHeadings(pageCursors);
+        if (!firstTuple)
+          _writeRow(row, lineSeparator);
 
-        // Print the column headings.
-        printColumnHeadings(colCursor);
-
-        // Print the rows
-        printRows(rowCursor, colCursor, dataCursor);
+        if (rowCursor.getPosition() == 1)
+        {
+          // Print a couple of blank lines to delimit pages.
+          if (!firstTuple)
+          {
+            println();
+            println();
+          }
+          printPageHeadings(pageCursors);
+          print(columnHeadings);
+        }
 
-        // Print a couple of blank lines to delimit pages.
-        println();
-        println();
+        row.reset();
+        row.append(_getLabel(rowCursor));
+        row.append('\t');
       }
 
-      // If this is not the fastest-varying page, recurse to the
-      // next fastest varying dimension.
-      else
+      // Append the data value
+      try
+      {
+        if (!dataCursor.hasCurrentValue())
+          row.append("NULL");
+        else
+          row.append(Math.round(dataCursor.getCurrentDouble()));
+      }
+      catch (IncorrectDataTypeException e)
       {
-        printPages(pageCursors, pageIndex + 1, rowCursor, colCursor,
-                   dataCursor);
+        row.append(dataCursor.getCurrentValue());
       }
+      row.append('\t');
+      firstTuple = false;
     }
-    while (pageCursor.next());
+    while (rootCursor.next());
 
-    // Reset this page dimension Cursor to its first element.
-    pageCursor.setPosition(1);
+    _writeRow(row, lineSeparator);
+    println();
+    println();
+    row.trim();
+  }
+
+  /**
+   * Writes a row of a crosstab from the row buffer.
+   *
+   * @param row The row buffer that has the row.
+   * @param lineSeparator The line separator that ends the row.
+   */
+  private void _writeRow(RowBuffer row, String lineSeparator)
+  {
+    row.append(lineSeparator);
+    write(row.chars, 0, row.length);
+    if (!buffered)
+      flush();
+    else
+      _flushIfDue();
   }
 
   /**
@@ -291,114 +373,51 @@ public class CursorPrintWriter extends PrintWriter
   {
     Iterator pageIter = pageCursors.iterator();
     while (pageIter.hasNext())
-    {
-      Cursor cursor = (Cursor)pageIter.next();
-      if (cursor instanceof CompoundCursor)
-      {
-        CompoundCursor cc = (CompoundCursor)cursor;
-        List outputs = cc.getOutputs();
-        ValueCursor output = (ValueCursor)outputs.get(0);
-        String value = output.getCurrentString();
-        println(value);
-      }
-      else
-      {
-        ValueCursor vc = (ValueCursor)cursor;
-        String value = vc.getCurrentString();
-        println(getLocalValue(value));
-      }
-    }
+      println(_getLabel((Cursor)pageIter.next()));
     println();
   }
 
   /**
-   * Prints the column headings on each page of a crosstab.
+   * Gets the column headings of a crosstab by moving through all the
+   * positions of the column edge.
    *
    * @param colCursor A Cursor for the Dimension objects that specify the
    *                  values in the column headings of a crosstab.
+   *
+   * @return A String that contains the line of column headings.
    */
-  private void printColumnHeadings(Cursor colCursor)
+  private String _getColumnHeadings(Cursor colCursor)
   {
+    StringBuilder headings = new StringBuilder();
     do
     {
-      print("\t");
-      if (colCursor instanceof CompoundCursor)
-      {
-        CompoundCursor cc = (CompoundCursor)colCursor;
-        List outputs = cc.getOutputs();
-        ValueCursor output = (ValueCursor)outputs.get(0);
-        String value = output.getCurrentString();
-        print(value);
-      }
-      else
-      {
-        ValueCursor vc = (ValueCursor)colCursor;
-        String value = vc.getCurrentString();
-        print(getLocalValue(value));
-      }
+      headings.append('\t');
+      headings.append(_getLabel(colCursor));
     }
     while (colCursor.next());
-    println();
-    colCursor.setPosition(1);
+    headings.append(System.lineSeparator());
+    return headings.toString();
   }
 
   /**
-   * Prints the rows of each page of a crosstab.
+   * Gets the label of the current position of an edge of a crosstab: the
+   * value of the first output of a CompoundCursor, or the local value of a
+   * ValueCursor.
    *
-   * @param rowCursor The Cursor for the rows.
-   * @param colCursor The Cursor for the columns.
-   * @param dataCursor The ValueCursor that contains the values of the
-   *                   root CompoundCursor.
+   * @param cursor The Cursor for the edge.
+   *
+   * @return A String that contains the label.
    */
-  private void printRows(Cursor rowCursor, Cursor colCursor,
-                         ValueCursor dataCursor)
+  private String _getLabel(Cursor cursor)
   {
-    // Loop over rows
-    do
+    if (cursor instanceof CompoundCursor)
     {
-      // Print row dimension value
-      if (rowCursor instanceof CompoundCursor)
-      {
-        CompoundCursor cc = (CompoundCursor)rowCursor;
-        List outputs = cc.getOutputs();
-        ValueCursor output = (ValueCursor)outputs.get(0);
-        String value = output.getCurrentString();
-        print(value);
-      }
-      else
-      {
-        ValueCursor vc = (ValueCursor)rowCursor;
-        String value = vc.getCurrentString();
-        print(getLocalValue(value));
-      }
-      print("\t");
-      // Loop over columns
-      do
-      {
-        // Print data value
-        try
-        {
-          if (!dataCursor.hasCurrentValue())
-            print("NULL");
-          else
-            print(Math.round(dataCursor.getCurrentDouble()));
-        }
-        catch (IncorrectDataTypeException e)
-        {
-          print(dataCursor.getCurrentValue());
-        }
-        print("\t");
-      }
-      while (colCursor.next());
-      println();
-
-      // Reset the column Cursor to its first element
-      colCursor.setPosition(1);
+      CompoundCursor cc = (CompoundCursor)cursor;
+      ValueCursor output = (ValueCursor)cc.getOutputs().get(0);
+      return output.getCurrentString();
     }
-    while (rowCursor.next());
-
-    // Reset the row Cursor to its first element
-    rowCursor.setPosition(1);
+    ValueCursor vc = (ValueCursor)cursor;
+    return getLocalValue(vc.getCurrentString());
   }
 
   /**
@@ -441,5 +460,96 @@ public class CursorPrintWriter extends PrintWriter
     {
     } // Ignore.
   }
-}
 
+  /**
+   * An inner class that models a growable character buffer for one row of
+   * output. Integral numbers are formatted directly into the buffer.
+   */
+  private static final class RowBuffer
+  {
+    /**
+     * The capacity above which trim releases the buffer.
+     */
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+    char[] chars = new char[256];
+    int length;
+
+    void reset()
+    {
+      length = 0;
+    }
+
+    /**
+     * Releases a buffer that grew for an unusually long row.
+     */
+    void trim()
+    {
+      if (chars.length > MAX_RETAINED_CAPACITY)
+        chars = new char[256];
+      length = 0;
+    }
+
+    void append(char c)
+    {
+      ensureCapacity(1);
+      chars[length++] = c;
+    }
+
+    void append(String s)
+    {
+      if (s == null)
+        s = "null";
+      append(s, 0, s.length());
+    }
+
+    void append(String s, int start, int end)
+    {
+      ensureCapacity(end - start);
+      s.getChars(start, end, chars, length);
+      length += end - start;
+    }
+
+    void append(Object value)
+    {
+      if (value instanceof Long || value instanceof Integer
+          || value instanceof Short || value instanceof Byte)
+        append(((Number)value).longValue());
+      else
+        append(String.valueOf(value));
+    }
+
+    void append(long value)
+    {
+      if (value == Long.MIN_VALUE)
+      {
+        append(String.valueOf(value));
+        return;
+      }
+      if (value < 0)
+      {
+        append('-');
+        value = -value;
+      }
+
+      int digits = 1;
+      for (long v = value / 10; v != 0; v /= 10)
+        digits++;
+      ensureCapacity(digits);
+      int pos = length + digits;
+      do
+      {
+        chars[--pos] = (char)('0' + (value % 10));
+        value /= 10;
+      }
+      while (value != 0);
+      length += digits;
+    }
+
+    private void ensureCapacity(int extra)
+    {
+      if (length + extra > chars.length)
+        chars = Arrays.copyOf(chars, Math.max(chars.length * 2, length + extra));
+    }
+  }
+}
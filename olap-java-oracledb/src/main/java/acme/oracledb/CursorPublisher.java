@@ -0,0 +1,307 @@
+package acme.oracledb;
+
+import oracle.olapi.data.cursor.Cursor;
+import oracle.olapi.data.cursor.CursorManager;
+import oracle.olapi.data.cursor.NoDataAvailableException;
+import oracle.olapi.data.source.DataProvider;
+import oracle.olapi.data.source.Source;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Streams the rows of a Cursor to a Flow.Subscriber in batches, reading
+ * only as many rows as the subscriber requested.
+ * Each element is a batch of at most batchSize rows, and the fetch size of
+ * the CursorManager is set to batchSize, so request(n) fetches n blocks
+ * from the server. A row holds the values of a tuple in the column order of
+ * ResultBlock.
+ * <p>
+ * The CursorManager and the Cursor are created when the first batch is
+ * requested, and the CursorManager is closed when the rows are exhausted,
+ * the subscription is cancelled or reading fails. A CursorPublisher can be
+ * subscribed to once.
+ * Rows are read on the specified Executor, which should be the only user of
+ * the DataProvider session while the stream is active.
+ * <p>
+ * Instances are thread safe.
+ */
+public class CursorPublisher implements Flow.Publisher<List<Object[]>> {
+    private final DataProvider dp;
+    private final Source source;
+    private final int batchSize;
+    private final Executor executor;
+    private final BooleanSupplier stop;
+
+    /**
+     * The streams of the owner that are subscribed and not finished, or null
+     * if the publisher has no owner.
+     */
+    private final Set<CursorPublisher> streams;
+
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+    private volatile RowSubscription subscription;
+
+    /**
+     * Creates a publisher.
+     *
+     * @param dp        The DataProvider of the Source.
+     * @param source    The Source to stream.
+     * @param batchSize The maximum number of rows of a batch.
+     * @param executor  The Executor on which rows are read.
+     */
+    public CursorPublisher(DataProvider dp, Source source, int batchSize, Executor executor) {
+        this(dp, source, batchSize, executor, () -> false, null);
+    }
+
+    /**
+     * Creates a publisher whose stream stops when its owner is closed.
+     *
+     * @param dp        The DataProvider of the Source.
+     * @param source    The Source to stream.
+     * @param batchSize The maximum number of rows of a batch.
+     * @param executor  The Executor on which rows are read.
+     * @param stop      Checked before each batch; when it returns true, the
+     *                  CursorManager is closed and the subscriber receives
+     *                  onError.
+     * @param streams   The set to which the publisher adds itself while its
+     *                  stream is subscribed and not finished, so that the
+     *                  owner can stop it with {@link #stop}.
+     */
+    CursorPublisher(DataProvider dp, Source source, int batchSize, Executor executor, BooleanSupplier stop,
+                    Set<CursorPublisher> streams) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+        this.dp = dp;
+        this.source = source;
+        this.batchSize = batchSize;
+        this.executor = executor;
+        this.stop = stop;
+        this.streams = streams;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super List<Object[]>> subscriber) {
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("A CursorPublisher can be subscribed to once"));
+            return;
+        }
+        RowSubscription rowSubscription = new RowSubscription(subscriber);
+        subscription = rowSubscription;
+        if (streams != null) {
+            streams.add(this);
+        }
+        subscriber.onSubscribe(rowSubscription);
+    }
+
+    /**
+     * Stops the stream even if the subscriber has no outstanding demand:
+     * closes the CursorManager and signals onError to the subscriber unless
+     * the stream is finished. Must run on the Executor, which must be
+     * single-threaded.
+     */
+    void stop() {
+        RowSubscription rowSubscription = subscription;
+        if (rowSubscription != null) {
+            rowSubscription.stopStream();
+        }
+    }
+
+    /**
+     * Reads batches on the Executor while there is demand. At most one drain
+     * loop runs at a time; request and cancel only record their effect and
+     * schedule a drain.
+     */
+    private final class RowSubscription implements Flow.Subscription, Runnable {
+        private final Flow.Subscriber<? super List<Object[]>> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger pending = new AtomicInteger();
+        private volatile boolean cancelled;
+        private volatile Throwable invalidRequest;
+
+        private CursorManager cursorManager;
+        private Cursor cursor;
+        private int columnCount;
+        private boolean started;
+        private volatile boolean done;
+
+        RowSubscription(Flow.Subscriber<? super List<Object[]>> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                invalidRequest = new IllegalArgumentException("The number of requested batches must be positive");
+            } else {
+                demand.getAndAccumulate(n, (a, b) -> (a + b < 0) ? Long.MAX_VALUE : a + b);
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            schedule();
+        }
+
+        private void schedule() {
+            if (pending.getAndIncrement() == 0) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    // No drain runs, and none will: the Executor is shut down.
+                    if (!done) {
+                        finish();
+                        subscriber.onError(e);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                try {
+                    drain();
+                } catch (RuntimeException e) {
+                    // Thrown by the subscriber, which must not be signalled
+                    // again; the subscription is cancelled.
+                    finish();
+                    throw e;
+                }
+                missed = pending.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void drain() {
+            if (done) {
+                return;
+            }
+            if (cancelled) {
+                finish();
+                return;
+            }
+            if (invalidRequest != null) {
+                finish();
+                subscriber.onError(invalidRequest);
+                return;
+            }
+            if (stop.getAsBoolean()) {
+                stopStream();
+                return;
+            }
+
+            if (!started) {
+                started = true;
+                try {
+                    open();
+                } catch (RuntimeException e) {
+                    finish();
+                    subscriber.onError(e);
+                    return;
+                }
+            }
+
+            while (demand.get() > 0 && !cancelled) {
+                if (stop.getAsBoolean()) {
+                    stopStream();
+                    return;
+                }
+                if (cursor == null) {
+                    finish();
+                    subscriber.onComplete();
+                    return;
+                }
+
+                List<Object[]> batch;
+                try {
+                    batch = readBatch();
+                } catch (RuntimeException e) {
+                    finish();
+                    subscriber.onError(e);
+                    return;
+                }
+
+                demand.decrementAndGet();
+                subscriber.onNext(Collections.unmodifiableList(batch));
+                if (cursor == null) {
+                    finish();
+                    subscriber.onComplete();
+                    return;
+                }
+            }
+            if (cancelled) {
+                finish();
+            }
+        }
+
+        private void open() {
+            cursorManager = dp.createCursorManager(source);
+            cursorManager.setFetchSize(batchSize);
+            try {
+                cursor = cursorManager.createCursor();
+                columnCount = ResultBlock.countColumns(cursor);
+            } catch (NoDataAvailableException e) {
+                cursor = null;
+            }
+        }
+
+        /**
+         * Reads the next batch, and sets cursor to null after the last row.
+         */
+        private List<Object[]> readBatch() {
+            List<Object[]> batch = new ArrayList<>(batchSize);
+            boolean more = true;
+            while (more && batch.size() < batchSize) {
+                Object[] row = new Object[columnCount];
+                ResultBlock.readRow(cursor, row);
+                batch.add(row);
+                more = cursor.next();
+            }
+            if (!more) {
+                cursor = null;
+            }
+            return batch;
+        }
+
+        private void stopStream() {
+            if (!done) {
+                finish();
+                subscriber.onError(new IllegalStateException("The session of the stream is closed"));
+            }
+        }
+
+        private void finish() {
+            done = true;
+            cursor = null;
+            if (cursorManager != null) {
+                cursorManager.close();
+                cursorManager = null;
+            }
+            if (streams != null) {
+                streams.remove(CursorPublisher.this);
+            }
+        }
+    }
+}
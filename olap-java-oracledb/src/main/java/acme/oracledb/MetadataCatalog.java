@@ -0,0 +1,462 @@
+package acme.oracledb;
+
+import oracle.olapi.metadata.mdm.*;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable index of the dimensions and measures of a schema and of the
+ * hierarchies, levels and attributes of its dimensions.
+ * The catalog is built once by walking the MdmSchema; lookups by name or by
+ * ID then cost one hash lookup instead of a scan of the metadata lists.
+ * <p>
+ * Dimensions and measures are found by the upper case of their names, as
+ * Context always did. Hierarchies, levels and attributes are found by their
+ * exact names.
+ * <p>
+ * Instances are immutable and thread safe.
+ */
+public final class MetadataCatalog {
+    /**
+     * The query that gets the version of the metadata of a schema: the time
+     * of the last DDL on any of its objects. Creating or changing a dimension,
+     * a cube or an analytic workspace changes it.
+     */
+    private static final String VERSION_QUERY =
+            "SELECT TO_CHAR(MAX(LAST_DDL_TIME), 'YYYYMMDDHH24MISS') FROM ALL_OBJECTS WHERE OWNER = ?";
+
+    /**
+     * Gets the children of the metadata objects while a catalog is built,
+     * either from the live metadata or from a snapshot.
+     */
+    interface Structure {
+        List<?> getHierarchies(MdmPrimaryDimension mdmPDim);
+
+        List<?> getHierarchyLevels(MdmLevelHierarchy mdmLvlHier);
+
+        List<?> getAttributes(MdmPrimaryDimension mdmPDim);
+    }
+
+    /**
+     * The Structure of the live metadata.
+     */
+    private static final Structure LIVE = new Structure() {
+        @Override
+        public List<?> getHierarchies(MdmPrimaryDimension mdmPDim) {
+            return mdmPDim.getHierarchies();
+        }
+
+        @Override
+        public List<?> getHierarchyLevels(MdmLevelHierarchy mdmLvlHier) {
+            return mdmLvlHier.getHierarchyLevels();
+        }
+
+        @Override
+        public List<?> getAttributes(MdmPrimaryDimension mdmPDim) {
+            return mdmPDim.getAttributes();
+        }
+    };
+
+    private final String owner;
+    private final String schemaName;
+    private final String version;
+
+    private final List<MdmPrimaryDimension> dimensions;
+    private final List<MdmMeasure> measures;
+
+    private final Map<String, MdmPrimaryDimension> dimensionsByName;
+    private final Map<String, MdmObject> objectsById;
+    private final Map<String, MdmMeasure> measuresByName;
+
+    /**
+     * The hierarchies of each dimension, by dimension ID and hierarchy name.
+     */
+    private final Map<String, Map<String, MdmHierarchy>> hierarchies;
+
+    /**
+     * The attributes of each dimension, by dimension ID and attribute name.
+     */
+    private final Map<String, Map<String, MdmAttribute>> attributes;
+
+    /**
+     * The levels of each level hierarchy, by hierarchy ID and level name.
+     */
+    private final Map<String, Map<String, MdmHierarchyLevel>> levels;
+
+    private MetadataCatalog(String owner, String schemaName, String version, List<MdmPrimaryDimension> dimensions,
+                            List<MdmMeasure> measures, Structure structure) {
+        this.owner = owner;
+        this.schemaName = schemaName;
+        this.version = version;
+        this.dimensions = Collections.unmodifiableList(dimensions);
+        this.measures = Collections.unmodifiableList(measures);
+
+        Map<String, MdmPrimaryDimension> dimsByName = new HashMap<>();
+        Map<String, MdmObject> byId = new HashMap<>();
+        Map<String, Map<String, MdmHierarchy>> hiers = new HashMap<>();
+        Map<String, Map<String, MdmAttribute>> attrs = new HashMap<>();
+        Map<String, Map<String, MdmHierarchyLevel>> lvls = new HashMap<>();
+
+        for (MdmPrimaryDimension mdmPDim : dimensions) {
+            dimsByName.put(mdmPDim.getName().toUpperCase(), mdmPDim);
+            byId.put(mdmPDim.getID(), mdmPDim);
+
+            Map<String, MdmHierarchy> dimHiers = new LinkedHashMap<>();
+            for (Object o : structure.getHierarchies(mdmPDim)) {
+                MdmHierarchy mdmHier = (MdmHierarchy) o;
+                dimHiers.putIfAbsent(mdmHier.getName(), mdmHier);
+                byId.put(mdmHier.getID(), mdmHier);
+
+                if (mdmHier instanceof MdmLevelHierarchy mdmLvlHier) {
+                    Map<String, MdmHierarchyLevel> hierLevels = new LinkedHashMap<>();
+                    for (Object l : structure.getHierarchyLevels(mdmLvlHier)) {
+                        MdmHierarchyLevel mdmHierLevel = (MdmHierarchyLevel) l;
+                        hierLevels.putIfAbsent(mdmHierLevel.getName(), mdmHierLevel);
+                        byId.put(mdmHierLevel.getID(), mdmHierLevel);
+                    }
+                    lvls.put(mdmLvlHier.getID(), Collections.unmodifiableMap(hierLevels));
+                }
+            }
+            hiers.put(mdmPDim.getID(), Collections.unmodifiableMap(dimHiers));
+
+            Map<String, MdmAttribute> dimAttrs = new LinkedHashMap<>();
+            for (Object o : structure.getAttributes(mdmPDim)) {
+                MdmAttribute mdmAttr = (MdmAttribute) o;
+                dimAttrs.putIfAbsent(mdmAttr.getName(), mdmAttr);
+                byId.put(mdmAttr.getID(), mdmAttr);
+            }
+            attrs.put(mdmPDim.getID(), Collections.unmodifiableMap(dimAttrs));
+        }
+
+        Map<String, MdmMeasure> measByName = new HashMap<>();
+        for (MdmMeasure mdmMeasure : measures) {
+            measByName.put(mdmMeasure.getName().toUpperCase(), mdmMeasure);
+            byId.put(mdmMeasure.getID(), mdmMeasure);
+        }
+
+        dimensionsByName = Collections.unmodifiableMap(dimsByName);
+        measuresByName = Collections.unmodifiableMap(measByName);
+        objectsById = Collections.unmodifiableMap(byId);
+        hierarchies = Collections.unmodifiableMap(hiers);
+        attributes = Collections.unmodifiableMap(attrs);
+        levels = Collections.unmodifiableMap(lvls);
+    }
+
+    /**
+     * Builds the catalog of the schema of a user.
+     * If the user is GLOBAL and the GLOBAL_AWJ subschema exists, then the
+     * catalog is built from that subschema and its measures; otherwise from
+     * the MdmDatabaseSchema of the user and the measures of its measure
+     * dimension, if it has one.
+     *
+     * @param mp      The MdmMetadataProvider of the session.
+     * @param user    The name of the user, in upper case.
+     * @param version The version of the metadata, as returned by
+     *                {@link #queryVersion}, or null if it is unknown.
+     * @return The catalog.
+     */
+    public static MetadataCatalog load(MdmMetadataProvider mp, String user, String version) {
+        MdmRootSchema mdmRootSchema = (MdmRootSchema) mp.getRootSchema();
+        MdmSchema mdmSchema = mdmRootSchema.getDatabaseSchema(user);
+
+        boolean isGlobal = false;
+        if (user.equals("GLOBAL")) {
+            for (Object o : mdmSchema.getSubSchemas()) {
+                MdmSchema subSchema = (MdmSchema) o;
+                if (subSchema.getName().equals("GLOBAL_AWJ")) {
+                    mdmSchema = subSchema;
+                    isGlobal = true;
+                    break;
+                }
+            }
+        }
+
+        List<MdmPrimaryDimension> dimensions = new ArrayList<>();
+        for (Object o : mdmSchema.getDimensions()) {
+            dimensions.add((MdmPrimaryDimension) o);
+        }
+
+        List<MdmMeasure> measures = new ArrayList<>();
+        MdmMeasureDimension mDim = (MdmMeasureDimension) mdmSchema.getMeasureDimension();
+        List measureList = (isGlobal || mDim == null) ? mdmSchema.getMeasures() : mDim.getMeasures();
+        for (Object o : measureList) {
+            measures.add((MdmMeasure) o);
+        }
+
+        return new MetadataCatalog(user, mdmSchema.getName(), version, dimensions, measures, LIVE);
+    }
+
+    /**
+     * Builds a catalog from a snapshot without walking the MdmSchema: the
+     * objects of the snapshot are fetched by ID in one request to the
+     * MdmMetadataProvider.
+     *
+     * @param mp       The MdmMetadataProvider of the session.
+     * @param snapshot The snapshot.
+     * @return The catalog.
+     * @throws IllegalStateException If an object of the snapshot no longer
+     *                               exists or was renamed.
+     */
+    public static MetadataCatalog restore(MdmMetadataProvider mp, MetadataSnapshot snapshot) {
+        List<MetadataSnapshot.Entry> entries = snapshot.getEntries();
+        List<String> ids = new ArrayList<>(entries.size());
+        for (MetadataSnapshot.Entry entry : entries) {
+            ids.add(entry.id());
+        }
+
+        List<?> found = mp.getMetadataObjects(ids);
+        MdmObject[] objects = new MdmObject[entries.size()];
+        Map<MdmObject, List<MdmObject>> children = new IdentityHashMap<>();
+        List<MdmPrimaryDimension> dimensions = new ArrayList<>();
+        List<MdmMeasure> measures = new ArrayList<>();
+
+        for (int i = 0; i < objects.length; i++) {
+            MetadataSnapshot.Entry entry = entries.get(i);
+            Object object = (i < found.size()) ? found.get(i) : null;
+            if (!(object instanceof MdmObject mdmObject) || !entry.name().equals(mdmObject.getName())) {
+                throw new IllegalStateException("The snapshot object " + entry.name() + " does not exist");
+            }
+
+            objects[i] = mdmObject;
+            switch (entry.kind()) {
+                case DIMENSION -> dimensions.add((MdmPrimaryDimension) mdmObject);
+                case MEASURE -> measures.add((MdmMeasure) mdmObject);
+                default -> children.computeIfAbsent(objects[entry.parent()], k -> new ArrayList<>()).add(mdmObject);
+            }
+        }
+
+        Structure structure = new Structure() {
+            @Override
+            public List<?> getHierarchies(MdmPrimaryDimension mdmPDim) {
+                return filter(mdmPDim, MdmHierarchy.class);
+            }
+
+            @Override
+            public List<?> getHierarchyLevels(MdmLevelHierarchy mdmLvlHier) {
+                return filter(mdmLvlHier, MdmHierarchyLevel.class);
+            }
+
+            @Override
+            public List<?> getAttributes(MdmPrimaryDimension mdmPDim) {
+                return filter(mdmPDim, MdmAttribute.class);
+            }
+
+            private List<?> filter(MdmObject parent, Class<?> type) {
+                List<Object> result = new ArrayList<>();
+                for (MdmObject child : children.getOrDefault(parent, Collections.emptyList())) {
+                    if (type.isInstance(child)) {
+                        result.add(child);
+                    }
+                }
+                return result;
+            }
+        };
+
+        return new MetadataCatalog(snapshot.getOwner(), snapshot.getSchemaName(), snapshot.getVersion(),
+                dimensions, measures, structure);
+    }
+
+    /**
+     * Gets a snapshot of the catalog, which can be saved and restored
+     * without walking the MdmSchema again.
+     *
+     * @return The snapshot.
+     */
+    public MetadataSnapshot toSnapshot() {
+        List<MetadataSnapshot.Entry> entries = new ArrayList<>();
+        for (MdmPrimaryDimension mdmPDim : dimensions) {
+            int dim = entries.size();
+            entries.add(new MetadataSnapshot.Entry(MetadataSnapshot.Kind.DIMENSION, mdmPDim.getID(),
+                    mdmPDim.getName(), -1));
+
+            for (MdmHierarchy mdmHier : hierarchies.get(mdmPDim.getID()).values()) {
+                int hier = entries.size();
+                entries.add(new MetadataSnapshot.Entry(MetadataSnapshot.Kind.HIERARCHY, mdmHier.getID(),
+                        mdmHier.getName(), dim));
+
+                Map<String, MdmHierarchyLevel> hierLevels = levels.get(mdmHier.getID());
+                if (hierLevels != null) {
+                    for (MdmHierarchyLevel mdmHierLevel : hierLevels.values()) {
+                        entries.add(new MetadataSnapshot.Entry(MetadataSnapshot.Kind.LEVEL, mdmHierLevel.getID(),
+                                mdmHierLevel.getName(), hier));
+                    }
+                }
+            }
+
+            for (MdmAttribute mdmAttr : attributes.get(mdmPDim.getID()).values()) {
+                entries.add(new MetadataSnapshot.Entry(MetadataSnapshot.Kind.ATTRIBUTE, mdmAttr.getID(),
+                        mdmAttr.getName(), dim));
+            }
+        }
+
+        for (MdmMeasure mdmMeasure : measures) {
+            entries.add(new MetadataSnapshot.Entry(MetadataSnapshot.Kind.MEASURE, mdmMeasure.getID(),
+                    mdmMeasure.getName(), -1));
+        }
+        return new MetadataSnapshot(owner, schemaName, version, entries);
+    }
+
+    /**
+     * Gets the version of the metadata of a schema with one short query, so
+     * that a catalog or a snapshot can be checked without reading the
+     * metadata.
+     *
+     * @param conn  A connection to the database.
+     * @param owner The name of the schema, in upper case.
+     * @return The version, or null if the schema has no objects.
+     * @throws SQLException If the query fails.
+     */
+    public static String queryVersion(Connection conn, String owner) throws SQLException {
+        try (PreparedStatement statement = conn.prepareStatement(VERSION_QUERY)) {
+            statement.setString(1, owner);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? resultSet.getString(1) : null;
+            }
+        }
+    }
+
+    /**
+     * Gets the name of the user whose schema the catalog describes.
+     *
+     * @return The name of the user, in upper case.
+     */
+    public String getOwner() {
+        return owner;
+    }
+
+    /**
+     * Gets the name of the schema of the catalog.
+     *
+     * @return The name of the MdmSchema.
+     */
+    public String getSchemaName() {
+        return schemaName;
+    }
+
+    /**
+     * Gets the version of the metadata from which the catalog was built.
+     *
+     * @return The version, or null if it is unknown.
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * Gets the dimensions of the schema.
+     *
+     * @return An unmodifiable List of the MdmPrimaryDimension objects.
+     */
+    public List<MdmPrimaryDimension> getDimensions() {
+        return dimensions;
+    }
+
+    /**
+     * Gets the measures of the schema.
+     *
+     * @return An unmodifiable List of the MdmMeasure objects.
+     */
+    public List<MdmMeasure> getMeasures() {
+        return measures;
+    }
+
+    /**
+     * Gets the MdmPrimaryDimension that has the specified name.
+     *
+     * @param name The name of the dimension, in any case.
+     * @return The MdmPrimaryDimension or null.
+     */
+    public MdmPrimaryDimension getDimension(String name) {
+        return dimensionsByName.get(name.toUpperCase());
+    }
+
+    /**
+     * Gets the MdmMeasure that has the specified name.
+     *
+     * @param name The name of the measure, in any case.
+     * @return The MdmMeasure or null.
+     */
+    public MdmMeasure getMeasure(String name) {
+        return measuresByName.get(name.toUpperCase());
+    }
+
+    /**
+     * Gets the dimension, measure, hierarchy, level or attribute that has the
+     * specified ID.
+     *
+     * @param id The ID of the MdmObject.
+     * @return The MdmObject or null.
+     */
+    public MdmObject getObjectById(String id) {
+        return objectsById.get(id);
+    }
+
+    /**
+     * Gets a hierarchy of a dimension of the catalog.
+     *
+     * @param mdmPDim The MdmPrimaryDimension.
+     * @param name    The name of the hierarchy.
+     * @return The MdmHierarchy, or null if the dimension is not in the
+     *         catalog or has no hierarchy with that name.
+     */
+    public MdmHierarchy getHierarchy(MdmPrimaryDimension mdmPDim, String name) {
+        Map<String, MdmHierarchy> dimHiers = hierarchies.get(mdmPDim.getID());
+        return (dimHiers == null) ? null : dimHiers.get(name);
+    }
+
+    /**
+     * Gets an attribute of a dimension of the catalog.
+     *
+     * @param mdmPDim The MdmPrimaryDimension.
+     * @param name    The name of the attribute.
+     * @return The MdmAttribute, or null if the dimension is not in the
+     *         catalog or has no attribute with that name.
+     */
+    public MdmAttribute getAttribute(MdmPrimaryDimension mdmPDim, String name) {
+        Map<String, MdmAttribute> dimAttrs = attributes.get(mdmPDim.getID());
+        return (dimAttrs == null) ? null : dimAttrs.get(name);
+    }
+
+    /**
+     * Gets a level of a hierarchy of the catalog.
+     *
+     * @param mdmLvlHier The MdmLevelHierarchy.
+     * @param name       The name of the level.
+     * @return The MdmHierarchyLevel, or null if the hierarchy is not in the
+     *         catalog or has no level with that name.
+     */
+    public MdmHierarchyLevel getLevel(MdmLevelHierarchy mdmLvlHier, String name) {
+        Map<String, MdmHierarchyLevel> hierLevels = levels.get(mdmLvlHier.getID());
+        return (hierLevels == null) ? null : hierLevels.get(name);
+    }
+
+    /**
+     * Specifies whether a dimension is in the catalog.
+     *
+     * @param mdmPDim The MdmPrimaryDimension.
+     * @return true if the catalog indexes the dimension.
+     */
+    public boolean contains(MdmPrimaryDimension mdmPDim) {
+        return hierarchies.containsKey(mdmPDim.getID());
+    }
+
+    /**
+     * Specifies whether a hierarchy is in the catalog.
+     *
+     * @param mdmLvlHier The MdmLevelHierarchy.
+     * @return true if the catalog indexes the levels of the hierarchy.
+     */
+    public boolean contains(MdmLevelHierarchy mdmLvlHier) {
+        return levels.containsKey(mdmLvlHier.getID());
+    }
+}
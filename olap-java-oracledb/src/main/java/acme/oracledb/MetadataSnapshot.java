@@ -0,0 +1,182 @@
+package acme.oracledb;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The IDs and names of the objects of a MetadataCatalog, which can be saved
+ * to a local file and restored when a session starts.
+ * A snapshot is valid as long as the metadata version of its owner, as
+ * returned by MetadataCatalog.queryVersion, has not changed; restoring it
+ * then fetches the objects by ID instead of walking the MdmSchema.
+ * <p>
+ * The file is a gzip-compressed stream of the owner, the schema name, the
+ * version and the entries in catalog order; an entry refers to its parent by
+ * index.
+ * <p>
+ * Instances are immutable and thread safe.
+ */
+public final class MetadataSnapshot {
+    private static final int MAGIC = 0x4F4C4150;
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * The kind of an object in a snapshot.
+     */
+    public enum Kind {
+        DIMENSION, HIERARCHY, LEVEL, ATTRIBUTE, MEASURE
+    }
+
+    /**
+     * An object in a snapshot.
+     *
+     * @param kind   The kind of the object.
+     * @param id     The ID of the MdmObject.
+     * @param name   The name of the MdmObject.
+     * @param parent The index of the entry of the dimension or hierarchy that
+     *               owns the object, or -1 for dimensions and measures.
+     */
+    public record Entry(Kind kind, String id, String name, int parent) {
+    }
+
+    private final String owner;
+    private final String schemaName;
+    private final String version;
+    private final List<Entry> entries;
+
+    /**
+     * Creates a snapshot.
+     *
+     * @param owner      The name of the user whose schema is described.
+     * @param schemaName The name of the MdmSchema.
+     * @param version    The metadata version of the owner.
+     * @param entries    The objects, each after its parent.
+     */
+    public MetadataSnapshot(String owner, String schemaName, String version, List<Entry> entries) {
+        this.owner = owner;
+        this.schemaName = schemaName;
+        this.version = version;
+        this.entries = Collections.unmodifiableList(new ArrayList<>(entries));
+    }
+
+    /**
+     * Gets the name of the user whose schema the snapshot describes.
+     *
+     * @return The name of the user.
+     */
+    public String getOwner() {
+        return owner;
+    }
+
+    /**
+     * Gets the name of the MdmSchema.
+     *
+     * @return The name of the schema.
+     */
+    public String getSchemaName() {
+        return schemaName;
+    }
+
+    /**
+     * Gets the metadata version of the owner when the snapshot was taken.
+     *
+     * @return The version, or null if it was unknown.
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * Gets the objects of the snapshot.
+     *
+     * @return An unmodifiable List of the entries, each after its parent.
+     */
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Reads a snapshot file.
+     *
+     * @param path The file.
+     * @return The snapshot.
+     * @throws IOException If the file cannot be read or is not a snapshot.
+     */
+    public static MetadataSnapshot read(Path path) throws IOException {
+        try (InputStream file = Files.newInputStream(path);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                throw new IOException("Not a metadata snapshot: " + path);
+            }
+
+            String owner = in.readUTF();
+            String schemaName = in.readUTF();
+            String version = in.readBoolean() ? in.readUTF() : null;
+
+            Kind[] kinds = Kind.values();
+            int count = in.readInt();
+            List<Entry> entries = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int kind = in.readUnsignedByte();
+                String id = in.readUTF();
+                String name = in.readUTF();
+                int parent = in.readInt();
+                boolean topLevel = kind == Kind.DIMENSION.ordinal() || kind == Kind.MEASURE.ordinal();
+                if (kind >= kinds.length || parent >= i || (parent < 0) != topLevel) {
+                    throw new IOException("Corrupt metadata snapshot: " + path);
+                }
+                entries.add(new Entry(kinds[kind], id, name, parent));
+            }
+            return new MetadataSnapshot(owner, schemaName, version, entries);
+        }
+    }
+
+    /**
+     * Writes the snapshot to a file. The file is replaced atomically, so a
+     * reader never sees a partly written snapshot.
+     *
+     * @param path The file.
+     * @throws IOException If the file cannot be written.
+     */
+    public void write(Path path) throws IOException {
+        Path dir = path.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(dir, path.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream file = Files.newOutputStream(temp);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(file)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeUTF(owner);
+                out.writeUTF(schemaName);
+                out.writeBoolean(version != null);
+                if (version != null) {
+                    out.writeUTF(version);
+                }
+
+                out.writeInt(entries.size());
+                for (Entry entry : entries) {
+                    out.writeByte(entry.kind().ordinal());
+                    out.writeUTF(entry.id());
+                    out.writeUTF(entry.name());
+                    out.writeInt(entry.parent());
+                }
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
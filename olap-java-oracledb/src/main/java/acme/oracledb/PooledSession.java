@@ -0,0 +1,158 @@
+package acme.oracledb;
+
+import oracle.jdbc.OracleConnection;
+import oracle.olapi.data.source.DataProvider;
+import oracle.olapi.metadata.mdm.MdmMetadataProvider;
+import oracle.olapi.transaction.TransactionProvider;
+
+/**
+ * An OLAP session borrowed from a SessionPool: a JDBC OracleConnection with
+ * its DataProvider, TransactionProvider and loaded MdmMetadataProvider.
+ * Closing a PooledSession returns it to its pool; the connection stays open.
+ * Closing it again has no effect until it is borrowed again.
+ * <p>
+ * A PooledSession must be used by one thread at a time and must not be used
+ * after it is closed.
+ */
+public final class PooledSession implements AutoCloseable {
+    private final SessionPool pool;
+    private final OracleConnection conn;
+    private final DataProvider dp;
+    private final TransactionProvider tp;
+    private final MdmMetadataProvider mp;
+    private final SharedMetadataCatalog catalog;
+
+    /**
+     * The time, in milliseconds, when the session was created.
+     */
+    private final long createdAt;
+
+    /**
+     * The time, in milliseconds, when the session was last returned to the
+     * pool.
+     */
+    private long lastReleasedAt;
+
+    private boolean borrowed;
+
+    /**
+     * Whether the session was closed since it was last borrowed. Guarded by
+     * the pool.
+     */
+    private boolean closed;
+
+    PooledSession(SessionPool pool, OracleConnection conn, DataProvider dp, TransactionProvider tp,
+                  MdmMetadataProvider mp, SharedMetadataCatalog catalog, long createdAt) {
+        this.pool = pool;
+        this.conn = conn;
+        this.dp = dp;
+        this.tp = tp;
+        this.mp = mp;
+        this.catalog = catalog;
+        this.createdAt = createdAt;
+        lastReleasedAt = createdAt;
+    }
+
+    /**
+     * Gets the JDBC connection of the session.
+     *
+     * @return The OracleConnection.
+     */
+    public OracleConnection getConnection() {
+        return conn;
+    }
+
+    /**
+     * Gets the DataProvider of the session.
+     *
+     * @return The DataProvider.
+     */
+    public DataProvider getDataProvider() {
+        return dp;
+    }
+
+    /**
+     * Gets the TransactionProvider of the session.
+     *
+     * @return The TransactionProvider.
+     */
+    public TransactionProvider getTransactionProvider() {
+        return tp;
+    }
+
+    /**
+     * Gets the MdmMetadataProvider of the session. Its root schema is loaded
+     * when the session is created.
+     *
+     * @return The MdmMetadataProvider.
+     */
+    public MdmMetadataProvider getMetadataProvider() {
+        return mp;
+    }
+
+    /**
+     * Gets the metadata catalog of the session, which is shared by every
+     * Context that borrows the session.
+     *
+     * @return The SharedMetadataCatalog.
+     */
+    public SharedMetadataCatalog getCatalog() {
+        return catalog;
+    }
+
+    /**
+     * Returns the session to its pool. Does nothing if the session is
+     * already closed.
+     */
+    @Override
+    public void close() {
+        synchronized (pool) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        pool.release(this);
+    }
+
+    long getCreatedAt() {
+        return createdAt;
+    }
+
+    long getLastReleasedAt() {
+        return lastReleasedAt;
+    }
+
+    void setLastReleasedAt(long time) {
+        lastReleasedAt = time;
+    }
+
+    boolean isBorrowed() {
+        return borrowed;
+    }
+
+    void setBorrowed(boolean borrowed) {
+        this.borrowed = borrowed;
+    }
+
+    void setClosed(boolean closed) {
+        this.closed = closed;
+    }
+
+    /**
+     * Closes the catalog, the DataProvider and the connection.
+     */
+    void destroy() {
+        catalog.close();
+        try {
+            dp.close();
+        } catch (RuntimeException e) {
+            // Ignore; the connection is closed anyway.
+        }
+        try {
+            conn.close();
+        } catch (Exception e) {
+            // Ignore.
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package acme.oracledb;
+
+import oracle.olapi.data.cursor.CompoundCursor;
+import oracle.olapi.data.cursor.Cursor;
+import oracle.olapi.data.cursor.ValueCursor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+/**
+ * The values of a Cursor read into memory, one row for each position of the
+ * root Cursor.
+ * The columns of a row are the values of the ValueCursor objects of the
+ * tuple, in the order in which CursorPrintWriter.printCursor displays them:
+ * the outputs of a CompoundCursor first, then its base ValueCursor.
+ * A ValueCursor without a current value gives null.
+ * <p>
+ * Instances are immutable and thread safe.
+ */
+public final class ResultBlock {
+    /**
+     * The block of a Source for which no data is available.
+     */
+    static final ResultBlock EMPTY = new ResultBlock(0, Collections.emptyList(), true);
+
+    private final int columnCount;
+    private final List<Object[]> rows;
+    private final boolean complete;
+
+    ResultBlock(int columnCount, List<Object[]> rows, boolean complete) {
+        this.columnCount = columnCount;
+        this.rows = rows;
+        this.complete = complete;
+    }
+
+    /**
+     * Reads the values of a Cursor from its current position.
+     *
+     * @param rootCursor The Cursor.
+     * @param maxRows    The maximum number of rows to read.
+     * @param stop       Checked before each row; reading stops when it
+     *                   returns true.
+     * @return The block.
+     */
+    static ResultBlock read(Cursor rootCursor, int maxRows, BooleanSupplier stop) {
+        List<Object[]> rows = new ArrayList<>();
+        int columnCount = countColumns(rootCursor);
+        boolean more = true;
+
+        while (more && rows.size() < maxRows && !stop.getAsBoolean()) {
+            Object[] row = new Object[columnCount];
+            readRow(rootCursor, row);
+            rows.add(row);
+            more = rootCursor.next();
+        }
+        return new ResultBlock(columnCount, Collections.unmodifiableList(rows), !more);
+    }
+
+    /**
+     * Gets the number of rows.
+     *
+     * @return The number of rows.
+     */
+    public int getRowCount() {
+        return rows.size();
+    }
+
+    /**
+     * Gets the number of values in each row.
+     *
+     * @return The number of columns.
+     */
+    public int getColumnCount() {
+        return columnCount;
+    }
+
+    /**
+     * Gets a value.
+     *
+     * @param row    The index of the row.
+     * @param column The index of the column.
+     * @return The value, or null if the ValueCursor had no value.
+     */
+    public Object getValue(int row, int column) {
+        return rows.get(row)[column];
+    }
+
+    /**
+     * Gets a row.
+     *
+     * @param row The index of the row.
+     * @return A copy of the values of the row.
+     */
+    public Object[] getRow(int row) {
+        return rows.get(row).clone();
+    }
+
+    /**
+     * Specifies whether the block holds all the rows of the Cursor.
+     *
+     * @return false if reading stopped at the maximum number of rows.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Counts the values of a tuple of a Cursor.
+     *
+     * @param cursor The root Cursor.
+     * @return The number of ValueCursor objects in the Cursor structure.
+     */
+    static int countColumns(Cursor cursor) {
+        if (cursor instanceof CompoundCursor compoundCursor) {
+            int count = countColumns(compoundCursor.getValueCursor());
+            for (Object output : compoundCursor.getOutputs()) {
+                count += countColumns((Cursor) output);
+            }
+            return count;
+        }
+        return 1;
+    }
+
+    /**
+     * Copies the values of the current tuple of a Cursor into a row.
+     *
+     * @param cursor The root Cursor.
+     * @param row    The row, with one element for each column.
+     */
+    static void readRow(Cursor cursor, Object[] row) {
+        readTuple(cursor, row, 0);
+    }
+
+    /**
+     * Copies the values of the current tuple of a Cursor into a row.
+     *
+     * @return The index of the next column.
+     */
+    private static int readTuple(Cursor cursor, Object[] row, int column) {
+        if (cursor instanceof CompoundCursor compoundCursor) {
+            for (Object output : compoundCursor.getOutputs()) {
+                column = readTuple((Cursor) output, row, column);
+            }
+            return readTuple(compoundCursor.getValueCursor(), row, column);
+        }
+
+        ValueCursor valueCursor = (ValueCursor) cursor;
+        row[column] = valueCursor.hasCurrentValue() ? valueCursor.getCurrentValue() : null;
+        return column + 1;
+    }
+}
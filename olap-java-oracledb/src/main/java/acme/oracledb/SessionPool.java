@@ -0,0 +1,415 @@
+package acme.oracledb;
+
+import oracle.jdbc.OracleConnection;
+import oracle.jdbc.pool.OracleDataSource;
+import oracle.olapi.data.source.DataProvider;
+import oracle.olapi.metadata.mdm.MdmMetadataProvider;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps warm OLAP sessions so that a caller borrows a connected
+ * DataProvider with a loaded MdmMetadataProvider instead of opening a JDBC
+ * connection, creating a UserSession and loading the metadata for every
+ * request.
+ * <p>
+ * A session is validated when it is borrowed, is closed after it has been
+ * idle for longer than the idle time, and is never reused after its maximum
+ * lifetime. The pending Transaction of a session is rolled back when it is
+ * returned.
+ * <p>
+ * The pool is configured with the same Properties as a Context: the url,
+ * user and password properties, and the optional pool properties whose keys
+ * are the KEY_* constants of this class. Times are in seconds.
+ * <p>
+ * Instances are thread safe.
+ */
+public class SessionPool implements AutoCloseable {
+    private static final org.slf4j.Logger log = LoggerFactory.getLogger(SessionPool.class);
+
+    public static final String KEY_POOL_MAX_SIZE = "poolMaxSize";
+    public static final String KEY_POOL_MIN_IDLE = "poolMinIdle";
+    public static final String KEY_POOL_MAX_IDLE_TIME = "poolMaxIdleTime";
+    public static final String KEY_POOL_MAX_LIFETIME = "poolMaxLifetime";
+    public static final String KEY_POOL_BORROW_TIMEOUT = "poolBorrowTimeout";
+    public static final String KEY_POOL_VALIDATION_TIMEOUT = "poolValidationTimeout";
+    public static final String KEY_CATALOG_REFRESH_INTERVAL = "catalogRefreshInterval";
+    public static final String KEY_METADATA_SNAPSHOT = "metadataSnapshot";
+
+    private final OracleDataSource ods;
+    private final String user;
+    private final int maxSize;
+    private final int minIdle;
+    private final long maxIdleMillis;
+    private final long maxLifetimeMillis;
+    private final long borrowTimeoutMillis;
+    private final int validationTimeout;
+    private final long catalogRefreshMillis;
+    private final Path snapshotPath;
+
+    /**
+     * The permits to hold a session, one for each session that may be
+     * borrowed.
+     */
+    private final Semaphore permits;
+
+    /**
+     * The idle sessions, the most recently returned first.
+     */
+    private final Deque<PooledSession> idle = new ArrayDeque<>();
+
+    /**
+     * The number of open sessions, idle, borrowed or being opened, which
+     * never exceeds the maximum size.
+     */
+    private int openCount;
+
+    private final ScheduledExecutorService evictor;
+    private boolean closed;
+
+    /**
+     * Creates a pool. No session is opened until the first borrow or the
+     * first idle check.
+     *
+     * @param properties The connection and pool properties.
+     * @throws SQLException If the data source cannot be created.
+     */
+    public SessionPool(Properties properties) throws SQLException {
+        ods = new OracleDataSource();
+        ods.setURL(properties.getProperty("url"));
+        ods.setUser(properties.getProperty("user"));
+        ods.setPassword(properties.getProperty("password"));
+        user = properties.getProperty("user").toUpperCase();
+
+        maxSize = intProperty(properties, KEY_POOL_MAX_SIZE, 8);
+        minIdle = Math.min(intProperty(properties, KEY_POOL_MIN_IDLE, 1), maxSize);
+        maxIdleMillis = TimeUnit.SECONDS.toMillis(intProperty(properties, KEY_POOL_MAX_IDLE_TIME, 600));
+        maxLifetimeMillis = TimeUnit.SECONDS.toMillis(intProperty(properties, KEY_POOL_MAX_LIFETIME, 3600));
+        borrowTimeoutMillis = TimeUnit.SECONDS.toMillis(intProperty(properties, KEY_POOL_BORROW_TIMEOUT, 30));
+        validationTimeout = intProperty(properties, KEY_POOL_VALIDATION_TIMEOUT, 5);
+        catalogRefreshMillis = TimeUnit.SECONDS.toMillis(intProperty(properties, KEY_CATALOG_REFRESH_INTERVAL, 60));
+        String snapshot = properties.getProperty(KEY_METADATA_SNAPSHOT);
+        snapshotPath = (snapshot == null) ? null : Paths.get(snapshot);
+        if (maxSize < 1) {
+            throw new IllegalArgumentException(KEY_POOL_MAX_SIZE + " must be positive");
+        }
+
+        permits = new Semaphore(maxSize, true);
+
+        evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "SessionPool-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1000, Math.min(maxIdleMillis, maxLifetimeMillis) / 4);
+        evictor.scheduleWithFixedDelay(this::evict, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Opens sessions until the pool holds the specified number of idle
+     * sessions, so that the first borrowers do not wait for a session setup.
+     *
+     * No session is opened once the pool holds its maximum number of open
+     * sessions, idle or borrowed.
+     *
+     * @param count The number of idle sessions wanted, at most the maximum
+     *              size of the pool.
+     * @throws SQLException If a session cannot be opened.
+     */
+    public void warmUp(int count) throws SQLException {
+        int wanted = Math.min(count, maxSize);
+        while (true) {
+            synchronized (this) {
+                if (closed || idle.size() >= wanted || openCount >= maxSize) {
+                    return;
+                }
+                openCount++;
+            }
+
+            PooledSession session = openCounted();
+            synchronized (this) {
+                if (!closed) {
+                    idle.addLast(session);
+                    notifyAll();
+                    continue;
+                }
+            }
+            discard(session);
+            return;
+        }
+    }
+
+    /**
+     * Borrows a session, waiting for one to be returned if all sessions are
+     * borrowed. The session must be closed to return it to the pool.
+     *
+     * @return A valid session.
+     * @throws SQLException If no session was returned before the borrow
+     *                      timeout, or if a new session cannot be opened.
+     */
+    public PooledSession borrow() throws SQLException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(borrowTimeoutMillis);
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLException("Timed out waiting for a pooled session");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a pooled session", e);
+        }
+
+        try {
+            while (true) {
+                PooledSession session = takeIdle(deadline);
+                if (session == null) {
+                    session = openCounted();
+                } else if (!isValid(session, System.currentTimeMillis())) {
+                    discard(session);
+                    continue;
+                }
+
+                synchronized (this) {
+                    session.setBorrowed(true);
+                    session.setClosed(false);
+                }
+                return session;
+            }
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Takes the most recently returned idle session, or reserves the opening
+     * of a new session and returns null. If the pool is at its maximum size
+     * while no session is idle, the other sessions are being opened by
+     * warmUp or closed, so waits for one of them.
+     */
+    private synchronized PooledSession takeIdle(long deadline) throws SQLException {
+        while (true) {
+            if (closed) {
+                throw new SQLException("The session pool is closed");
+            }
+            PooledSession session = idle.pollFirst();
+            if (session != null) {
+                return session;
+            }
+            if (openCount < maxSize) {
+                openCount++;
+                return null;
+            }
+
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new SQLException("Timed out waiting for a pooled session");
+            }
+            try {
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for a pooled session", e);
+            }
+        }
+    }
+
+    /**
+     * Returns a borrowed session to the pool. PooledSession.close calls this
+     * method.
+     *
+     * @param session The session.
+     * @throws IllegalStateException If the session is not borrowed.
+     */
+    void release(PooledSession session) {
+        synchronized (this) {
+            if (!session.isBorrowed()) {
+                throw new IllegalStateException("The session is not borrowed");
+            }
+            session.setBorrowed(false);
+        }
+
+        boolean reusable;
+        try {
+            session.getTransactionProvider().rollbackCurrentTransaction();
+            reusable = true;
+        } catch (RuntimeException e) {
+            log.warn("Discarding a pooled session whose transaction cannot be rolled back", e);
+            reusable = false;
+        }
+
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            if (reusable && !closed && now - session.getCreatedAt() < maxLifetimeMillis) {
+                session.setLastReleasedAt(now);
+                idle.addFirst(session);
+                notifyAll();
+                session = null;
+            }
+        }
+
+        if (session != null) {
+            discard(session);
+        }
+        permits.release();
+    }
+
+    /**
+     * Gets the number of idle sessions.
+     *
+     * @return The number of idle sessions.
+     */
+    public synchronized int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * Closes the idle sessions and stops the idle check. Borrowed sessions
+     * are closed when they are returned.
+     */
+    @Override
+    public void close() {
+        List<PooledSession> sessions;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            sessions = new ArrayList<>(idle);
+            idle.clear();
+            notifyAll();
+        }
+
+        evictor.shutdownNow();
+        for (PooledSession session : sessions) {
+            discard(session);
+        }
+    }
+
+    /**
+     * Opens a session whose place was reserved in the open session count,
+     * and gives the place back if the session cannot be opened.
+     */
+    private PooledSession openCounted() throws SQLException {
+        try {
+            return open();
+        } catch (SQLException | RuntimeException e) {
+            synchronized (this) {
+                openCount--;
+                notifyAll();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Closes a session and removes it from the open session count.
+     */
+    private void discard(PooledSession session) {
+        session.destroy();
+        synchronized (this) {
+            openCount--;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Opens a connection, creates its UserSession and loads the root schema
+     * of its MdmMetadataProvider.
+     */
+    private PooledSession open() throws SQLException {
+        log.info("Opening a pooled session.");
+        OracleConnection conn = (OracleConnection) ods.getConnection();
+        DataProvider dp = new DataProvider();
+
+        try {
+            dp.createSession(conn);
+            MdmMetadataProvider mp = dp.getMdmMetadataProvider();
+            mp.getRootSchema();
+            SharedMetadataCatalog catalog = new SharedMetadataCatalog(mp, conn, user, catalogRefreshMillis,
+                    snapshotPath);
+            return new PooledSession(this, conn, dp, dp.getTransactionProvider(), mp, catalog,
+                    System.currentTimeMillis());
+        } catch (SQLException | RuntimeException e) {
+            try {
+                dp.close();
+            } catch (RuntimeException ignored) {
+                // Ignore; the original failure is reported.
+            }
+            conn.close();
+            throw e;
+        }
+    }
+
+    private boolean isValid(PooledSession session, long now) {
+        if (now - session.getCreatedAt() >= maxLifetimeMillis) {
+            return false;
+        }
+
+        try {
+            return session.getConnection().isValid(validationTimeout);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Closes the sessions that have been idle for too long or have reached
+     * their maximum lifetime, and opens sessions up to the minimum number of
+     * idle sessions.
+     */
+    private void evict() {
+        long now = System.currentTimeMillis();
+        List<PooledSession> expired = new ArrayList<>();
+
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+
+            int kept = 0;
+            // Oldest returned last: keep the most recently used sessions.
+            for (Iterator<PooledSession> it = idle.iterator(); it.hasNext(); ) {
+                PooledSession session = it.next();
+                boolean tooOld = now - session.getCreatedAt() >= maxLifetimeMillis;
+                boolean tooIdle = kept >= minIdle && now - session.getLastReleasedAt() >= maxIdleMillis;
+                if (tooOld || tooIdle) {
+                    it.remove();
+                    expired.add(session);
+                } else {
+                    kept++;
+                }
+            }
+        }
+
+        for (PooledSession session : expired) {
+            discard(session);
+        }
+        if (!expired.isEmpty()) {
+            log.info("Closed {} expired pooled sessions.", expired.size());
+        }
+
+        try {
+            warmUp(minIdle);
+        } catch (SQLException | RuntimeException e) {
+            log.warn("Cannot open an idle pooled session.", e);
+        }
+    }
+
+    private static int intProperty(Properties properties, String key, int defaultValue) {
+        String value = properties.getProperty(key);
+        return (value == null) ? defaultValue : Integer.parseInt(value.trim());
+    }
+}
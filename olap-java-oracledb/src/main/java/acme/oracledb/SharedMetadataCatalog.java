@@ -0,0 +1,191 @@
+package acme.oracledb;
+
+import oracle.olapi.metadata.mdm.MdmMetadataProvider;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Objects;
+
+/**
+ * The current MetadataCatalog of a session, shared by every Context that
+ * uses the session.
+ * The catalog is built on the first call to {@link #get}. After that, once
+ * the refresh interval has elapsed, a call to get checks the metadata
+ * version and, if it changed, builds a new catalog that replaces the current
+ * one. The version check and the rebuild run on the calling thread, because
+ * they use the connection and the MdmMetadataProvider of the session, which
+ * must be used by one thread at a time.
+ * <p>
+ * If a snapshot file is specified, the first catalog is restored from it
+ * when its version is the current metadata version, and every catalog that
+ * is built is saved to it, so that the next process starts without walking
+ * the MdmSchema.
+ * <p>
+ * Closing the catalog stops the version checks; it must be closed before
+ * the connection of the session is closed.
+ * <p>
+ * Instances are thread safe.
+ */
+public class SharedMetadataCatalog {
+    private static final org.slf4j.Logger log = LoggerFactory.getLogger(SharedMetadataCatalog.class);
+
+    private final MdmMetadataProvider mp;
+    private final Connection conn;
+    private final String user;
+    private final long refreshIntervalMillis;
+    private final Path snapshotPath;
+
+    private MetadataCatalog catalog;
+    private long lastCheck;
+    private boolean closed;
+
+    /**
+     * Creates a shared catalog. No metadata is read until the first call to
+     * get.
+     *
+     * @param mp                    The MdmMetadataProvider of the session.
+     * @param conn                  The connection of the session, used to
+     *                              query the metadata version.
+     * @param user                  The name of the user, in upper case.
+     * @param refreshIntervalMillis The minimum time between two version
+     *                              checks, in milliseconds.
+     */
+    public SharedMetadataCatalog(MdmMetadataProvider mp, Connection conn, String user, long refreshIntervalMillis) {
+        this(mp, conn, user, refreshIntervalMillis, null);
+    }
+
+    /**
+     * Creates a shared catalog that starts from a snapshot file. No metadata
+     * is read until the first call to get.
+     *
+     * @param mp                    The MdmMetadataProvider of the session.
+     * @param conn                  The connection of the session, used to
+     *                              query the metadata version.
+     * @param user                  The name of the user, in upper case.
+     * @param refreshIntervalMillis The minimum time between two version
+     *                              checks, in milliseconds.
+     * @param snapshotPath          The snapshot file, or null to always walk
+     *                              the MdmSchema.
+     */
+    public SharedMetadataCatalog(MdmMetadataProvider mp, Connection conn, String user, long refreshIntervalMillis,
+                                 Path snapshotPath) {
+        this.mp = mp;
+        this.conn = conn;
+        this.user = user;
+        this.refreshIntervalMillis = refreshIntervalMillis;
+        this.snapshotPath = snapshotPath;
+    }
+
+    /**
+     * Gets the current catalog, building it if this is the first call and
+     * rebuilding it if the refresh interval has elapsed and the metadata
+     * version changed.
+     *
+     * @return The catalog.
+     * @throws IllegalStateException If the catalog is closed before it was
+     *                               built.
+     */
+    public synchronized MetadataCatalog get() {
+        if (closed) {
+            if (catalog == null) {
+                throw new IllegalStateException("The metadata catalog is closed");
+            }
+            return catalog;
+        }
+
+        if (catalog == null) {
+            String version = queryVersion();
+            MetadataCatalog current = restore(version);
+            if (current == null) {
+                current = MetadataCatalog.load(mp, user, version);
+                save(current);
+            }
+            lastCheck = System.currentTimeMillis();
+            catalog = current;
+        } else if (System.currentTimeMillis() - lastCheck >= refreshIntervalMillis) {
+            refresh();
+        }
+        return catalog;
+    }
+
+    /**
+     * Stops the version checks. After this method returns, get returns the
+     * last catalog without using the session.
+     */
+    public synchronized void close() {
+        closed = true;
+    }
+
+    /**
+     * Rebuilds the catalog if the metadata version changed.
+     */
+    private void refresh() {
+        try {
+            String version = queryVersion();
+            lastCheck = System.currentTimeMillis();
+            if (version == null || Objects.equals(version, catalog.getVersion())) {
+                return;
+            }
+
+            log.info("The metadata of {} changed; rebuilding the catalog.", user);
+            catalog = MetadataCatalog.load(mp, user, version);
+            save(catalog);
+        } catch (RuntimeException e) {
+            log.warn("Cannot refresh the metadata catalog of {}.", user, e);
+        }
+    }
+
+    /**
+     * Restores the catalog from the snapshot file if the snapshot has the
+     * current version.
+     *
+     * @return The catalog, or null if there is no valid snapshot.
+     */
+    private MetadataCatalog restore(String version) {
+        if (snapshotPath == null || version == null || !Files.exists(snapshotPath)) {
+            return null;
+        }
+
+        try {
+            MetadataSnapshot snapshot = MetadataSnapshot.read(snapshotPath);
+            if (!user.equals(snapshot.getOwner()) || !version.equals(snapshot.getVersion())) {
+                log.info("The metadata snapshot {} is out of date.", snapshotPath);
+                return null;
+            }
+            MetadataCatalog restored = MetadataCatalog.restore(mp, snapshot);
+            log.info("Restored the metadata catalog of {} from {}.", user, snapshotPath);
+            return restored;
+        } catch (IOException | RuntimeException e) {
+            log.warn("Cannot restore the metadata snapshot {}.", snapshotPath, e);
+            return null;
+        }
+    }
+
+    /**
+     * Saves a catalog to the snapshot file.
+     */
+    private void save(MetadataCatalog value) {
+        if (snapshotPath == null || value.getVersion() == null) {
+            return;
+        }
+
+        try {
+            value.toSnapshot().write(snapshotPath);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Cannot write the metadata snapshot {}.", snapshotPath, e);
+        }
+    }
+
+    private String queryVersion() {
+        try {
+            return MetadataCatalog.queryVersion(conn, user);
+        } catch (SQLException e) {
+            log.warn("Cannot get the metadata version of {}.", user, e);
+            return null;
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package acme.oracledb.metadata;
 
 import acme.oracledb.BaseExample;
+import acme.oracledb.SessionPool;
 import oracle.jdbc.OracleConnection;
 import oracle.jdbc.pool.OracleDataSource;
 import oracle.olapi.data.source.DataProvider;
@@ -17,11 +18,22 @@ import java.util.List;
 public class ConnectAndDiscover extends BaseExample {
     private static final org.slf4j.Logger log = LoggerFactory.getLogger(ConnectAndDiscover.class);
 
+    /**
+     * The property that selects the parallel discovery of all schemas over a
+     * SessionPool, with the value "yes".
+     */
+    public static final String KEY_PARALLEL = "parallel";
+
     private boolean isGlobalAwOnly;
     private AW globalAw;
 
     @Override
     protected void run() throws Exception {
+        if (VALUE_YES.equalsIgnoreCase(props.getProperty(KEY_PARALLEL))) {
+            runParallel();
+            return;
+        }
+
         log.info("Getting a JDBC OracleConnection.");
         OracleConnection conn = null;
 
@@ -108,6 +120,31 @@ public class ConnectAndDiscover extends BaseExample {
         }
     }
 
+    private void runParallel() throws SQLException {
+        log.info("Discovering all schemas in parallel.");
+        int parallelism = Integer.parseInt(props.getProperty(SessionPool.KEY_POOL_MAX_SIZE, "8"));
+
+        try (SessionPool pool = new SessionPool(props)) {
+            List<ParallelDiscovery.SchemaInfo> schemas = new ParallelDiscovery(pool, parallelism).discover();
+
+            for (ParallelDiscovery.SchemaInfo schema : schemas) {
+                log.info(schema.name());
+                for (String orgSchema : schema.orgSchemas()) {
+                    log.info("   {}", orgSchema);
+                }
+                log.info("The dimensions of the {} schema are:", schema.name());
+                for (ParallelDiscovery.DimensionInfo dimension : schema.dimensions()) {
+                    log.info("   {}", dimension.name());
+                    for (ParallelDiscovery.HierarchyInfo hierarchy : dimension.hierarchies()) {
+                        log.info("      {} {}", hierarchy.name(), hierarchy.levels());
+                    }
+                    log.info("      Attributes: {}", dimension.attributes());
+                }
+                log.info("The measures of the {} schema are: {}", schema.name(), schema.measures());
+            }
+        }
+    }
+
     private MdmDatabaseSchema getSchemaAndPrintAllSchemas(MdmMetadataProvider mp, String schemaName) {
         MdmRootSchema mdmRootSchema = (MdmRootSchema) mp.getRootSchema();
         List<MdmDatabaseSchema> dbSchemas = mdmRootSchema.getDatabaseSchemas();
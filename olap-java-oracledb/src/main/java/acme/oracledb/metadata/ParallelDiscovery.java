@@ -0,0 +1,269 @@
+package acme.oracledb.metadata;
+
+import acme.oracledb.MetadataCatalog;
+import acme.oracledb.PooledSession;
+import acme.oracledb.SessionPool;
+import oracle.olapi.metadata.mdm.*;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Discovers the schemas, dimensions and measures of a database with
+ * concurrent metadata fetches over the sessions of a SessionPool.
+ * Each database schema is read by one task, and the hierarchies, levels and
+ * attributes of each of its dimensions by one task per dimension, so the
+ * discovery takes about as long as its slowest schema rather than the sum of
+ * all schemas. A task borrows a session for its duration; MDM objects belong
+ * to one session, so tasks exchange names only.
+ * <p>
+ * The result is consistent: the metadata version of every schema is read
+ * before and after the discovery, and a schema whose version changed is
+ * read again.
+ */
+public class ParallelDiscovery {
+    private static final org.slf4j.Logger log = LoggerFactory.getLogger(ParallelDiscovery.class);
+
+    /**
+     * The number of times a schema is read again when its metadata changes
+     * during the discovery.
+     */
+    private static final int MAX_RETRIES = 2;
+
+    /**
+     * The discovered metadata of a database schema.
+     *
+     * @param name          The name of the MdmDatabaseSchema.
+     * @param version       The metadata version of the schema.
+     * @param orgSchemas    The names of its MdmOrganizationalSchema
+     *                      subschemas, at any depth, each as a path of names
+     *                      separated by slashes.
+     * @param dimensions    Its dimensions.
+     * @param measures      The names of its measures.
+     */
+    public record SchemaInfo(String name, String version, List<String> orgSchemas, List<DimensionInfo> dimensions,
+                             List<String> measures) {
+    }
+
+    /**
+     * The discovered metadata of a dimension.
+     *
+     * @param name        The name of the MdmPrimaryDimension.
+     * @param hierarchies Its hierarchies.
+     * @param attributes  The names of its attributes.
+     */
+    public record DimensionInfo(String name, List<HierarchyInfo> hierarchies, List<String> attributes) {
+    }
+
+    /**
+     * The discovered metadata of a hierarchy.
+     *
+     * @param name   The name of the MdmHierarchy.
+     * @param levels The names of its levels, empty if it is not an
+     *               MdmLevelHierarchy.
+     */
+    public record HierarchyInfo(String name, List<String> levels) {
+    }
+
+    private final SessionPool pool;
+    private final int parallelism;
+
+    /**
+     * Creates a discovery.
+     *
+     * @param pool        The SessionPool from which the tasks borrow sessions.
+     * @param parallelism The maximum number of concurrent fetches; at most the
+     *                    maximum size of the pool is useful.
+     */
+    public ParallelDiscovery(SessionPool pool, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+        this.pool = pool;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Discovers the metadata of all the database schemas.
+     *
+     * @return The schemas, in the order of MdmRootSchema.getDatabaseSchemas.
+     * @throws SQLException If a session cannot be borrowed or a fetch fails.
+     */
+    public List<SchemaInfo> discover() throws SQLException {
+        List<String> schemaNames = new ArrayList<>();
+        try (PooledSession session = pool.borrow()) {
+            MdmRootSchema mdmRootSchema = (MdmRootSchema) session.getMetadataProvider().getRootSchema();
+            for (Object o : mdmRootSchema.getDatabaseSchemas()) {
+                schemaNames.add(((MdmDatabaseSchema) o).getName());
+            }
+        }
+        return discover(schemaNames);
+    }
+
+    /**
+     * Discovers the metadata of some database schemas.
+     *
+     * @param schemaNames The names of the schemas.
+     * @return The schemas, in the order of the names.
+     * @throws SQLException If a session cannot be borrowed or a fetch fails.
+     */
+    public List<SchemaInfo> discover(List<String> schemaNames) throws SQLException {
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread thread = new Thread(r, "ParallelDiscovery");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            List<CompletableFuture<SchemaInfo>> schemas = new ArrayList<>();
+            for (String schemaName : schemaNames) {
+                schemas.add(discoverSchema(schemaName, executor, 0));
+            }
+
+            List<SchemaInfo> result = new ArrayList<>();
+            for (CompletableFuture<SchemaInfo> schema : schemas) {
+                result.add(schema.join());
+            }
+            return result;
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof SQLException sqlException) {
+                throw sqlException;
+            }
+            throw e;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Reads a schema and then its dimensions, concurrently, and reads it
+     * again if its version changed in the meantime.
+     */
+    private CompletableFuture<SchemaInfo> discoverSchema(String schemaName, ExecutorService executor, int attempt) {
+        return CompletableFuture
+                .supplyAsync(() -> readSchema(schemaName), executor)
+                .thenCompose(schema -> {
+                    List<CompletableFuture<DimensionInfo>> dims = new ArrayList<>();
+                    for (DimensionInfo dim : schema.dimensions()) {
+                        dims.add(CompletableFuture.supplyAsync(() -> readDimension(schemaName, dim.name()), executor));
+                    }
+
+                    return CompletableFuture.allOf(dims.toArray(new CompletableFuture[0])).thenComposeAsync(v -> {
+                        List<DimensionInfo> dimensions = new ArrayList<>();
+                        for (CompletableFuture<DimensionInfo> dim : dims) {
+                            dimensions.add(dim.join());
+                        }
+
+                        String version = withSession(session ->
+                                MetadataCatalog.queryVersion(session.getConnection(), schemaName));
+                        if (Objects.equals(version, schema.version())) {
+                            return CompletableFuture.completedFuture(new SchemaInfo(schemaName, version,
+                                    schema.orgSchemas(), List.copyOf(dimensions), schema.measures()));
+                        }
+                        if (attempt >= MAX_RETRIES) {
+                            throw new CompletionException(new SQLException(
+                                    "The metadata of " + schemaName + " kept changing during the discovery"));
+                        }
+
+                        log.info("The metadata of {} changed during the discovery; reading it again.", schemaName);
+                        return discoverSchema(schemaName, executor, attempt + 1);
+                    }, executor);
+                });
+    }
+
+    /**
+     * Reads the version, the organizational subschemas, the dimension names
+     * and the measure names of a schema.
+     */
+    private SchemaInfo readSchema(String schemaName) {
+        return withSession(session -> {
+            String version = MetadataCatalog.queryVersion(session.getConnection(), schemaName);
+            MdmDatabaseSchema mdmDBSchema = getSchema(session, schemaName);
+
+            List<String> orgSchemas = new ArrayList<>();
+            addOrgSchemas(mdmDBSchema.getOrganizationalSchemas(), "", orgSchemas);
+
+            List<DimensionInfo> dimensions = new ArrayList<>();
+            for (Object o : mdmDBSchema.getDimensions()) {
+                dimensions.add(new DimensionInfo(((MdmObject) o).getName(), List.of(), List.of()));
+            }
+
+            List<String> measures = new ArrayList<>();
+            for (Object o : mdmDBSchema.getMeasures()) {
+                measures.add(((MdmObject) o).getName());
+            }
+
+            log.info("Read the schema {}: {} dimensions, {} measures.", schemaName, dimensions.size(), measures.size());
+            return new SchemaInfo(schemaName, version, List.copyOf(orgSchemas), dimensions, List.copyOf(measures));
+        });
+    }
+
+    private void addOrgSchemas(List<?> orgSchemaList, String prefix, List<String> result) {
+        for (Object o : orgSchemaList) {
+            MdmOrganizationalSchema mdmOrgSchema = (MdmOrganizationalSchema) o;
+            String path = prefix + mdmOrgSchema.getName();
+            result.add(path);
+            addOrgSchemas(mdmOrgSchema.getOrganizationalSchemas(), path + "/", result);
+        }
+    }
+
+    /**
+     * Reads the hierarchies, levels and attributes of a dimension.
+     */
+    private DimensionInfo readDimension(String schemaName, String dimensionName) {
+        return withSession(session -> {
+            MdmPrimaryDimension mdmPDim =
+                    (MdmPrimaryDimension) getSchema(session, schemaName).getTopLevelObject(dimensionName);
+
+            List<HierarchyInfo> hierarchies = new ArrayList<>();
+            for (Object o : mdmPDim.getHierarchies()) {
+                MdmHierarchy mdmHier = (MdmHierarchy) o;
+                List<String> levels = new ArrayList<>();
+                if (mdmHier instanceof MdmLevelHierarchy mdmLvlHier) {
+                    for (Object l : mdmLvlHier.getHierarchyLevels()) {
+                        levels.add(((MdmHierarchyLevel) l).getName());
+                    }
+                }
+                hierarchies.add(new HierarchyInfo(mdmHier.getName(), List.copyOf(levels)));
+            }
+
+            List<String> attributes = new ArrayList<>();
+            for (Object o : mdmPDim.getAttributes()) {
+                attributes.add(((MdmAttribute) o).getName());
+            }
+            return new DimensionInfo(dimensionName, List.copyOf(hierarchies), List.copyOf(attributes));
+        });
+    }
+
+    private static MdmDatabaseSchema getSchema(PooledSession session, String schemaName) {
+        MdmRootSchema mdmRootSchema = (MdmRootSchema) session.getMetadataProvider().getRootSchema();
+        return mdmRootSchema.getDatabaseSchema(schemaName);
+    }
+
+    /**
+     * A fetch that uses a borrowed session.
+     */
+    @FunctionalInterface
+    private interface SessionTask<T> {
+        T run(PooledSession session) throws SQLException;
+    }
+
+    /**
+     * Runs a fetch with a borrowed session, wrapping a SQLException in a
+     * CompletionException for the CompletableFuture that runs it.
+     */
+    private <T> T withSession(SessionTask<T> task) {
+        try (PooledSession session = pool.borrow()) {
+            return task.run(session);
+        } catch (SQLException e) {
+            throw new CompletionException(e);
+        }
+    }
+}